@@ -1,7 +1,7 @@
+import java.nio.ByteBuffer;
 import java.util.Random;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Iterator;
 
 /**
  * A class representing shared characteristics of animals.
@@ -21,47 +21,94 @@ public abstract class Animal extends Organism
     // The list of all the diseasees the animal has.
     private List<Virus.VirusType> diseases;
     
+    // The masks of the species found by the animals in the field.
+    // The mask of the prey animals, the food of predators.
+    private static final int PREY_MASK = Species.maskOf(Prey.class);
+    // The mask of the plants, the food of prey animals.
+    private static final int PLANT_MASK = Species.maskOf(Plant.class);
+    // The mask of the viruses.
+    private static final int VIRUS_MASK = Species.maskOf(Virus.class);
+    
     /**
      * Create a new animal at location in field.
      * 
      * @param randomAge If true, the animal will have random age and hunger level.
-     * @param maxAge The maximum age of the animal.
-     * @param foodValue The food value of the animal.
      * @param field The field currently occupied.
-     * @param location The location within the field.
+     * @param cell The index of the cell within the field.
      * @param geneList The genes possessed by the animal.
      */
-    public Animal(boolean randomAge, int maxAge, int foodValue, Field field, Location location, List<Gene> geneList)
+    public Animal(boolean randomAge, Field field, int cell, List<Gene> geneList)
     {
-        super(randomAge, maxAge, field, location);
+        super(randomAge, field, cell);
+        int foodValue = getFoodValue();
         
         diseases = new ArrayList<>();
         
         sex = Gender.randomise();
         
         if(randomAge) {
-            Random rand = new Random();
-            foodLevel = rand.nextInt(foodValue);
+            Random rand = Randomizer.getRandom();
+            setFoodLevel(rand.nextInt(foodValue));
             genes = Gene.randomise();
         }
         else {
-            foodLevel = foodValue;
+            setFoodLevel(foodValue);
             genes = geneList;
         }
     }
     
+    /**
+     * Bring a dead animal from a pool back to life as a newborn animal
+     * with the given genes.
+     * 
+     * @param field The field the animal is born into.
+     * @param cell The index of the cell within the field.
+     * @param geneList The genes possessed by the animal.
+     */
+    void reinitialise(Field field, int cell, List<Gene> geneList)
+    {
+        reinitialise(field, cell);
+        diseases.clear();
+        sex = Gender.randomise();
+        setFoodLevel(getFoodValue());
+        genes = geneList;
+    }
+    
+    /**
+     * Return a newborn animal of the same species taken from the pool
+     * of the field, if there is one.
+     * 
+     * @param field The field the animal is born into.
+     * @param cell The index of the cell within the field.
+     * @param childrenGenes The genes the newborn animal inherits.
+     * @return The newborn animal, or null if none is pooled.
+     */
+    protected Animal recycle(Field field, int cell, List<Gene> childrenGenes)
+    {
+        Animal young = (Animal) fromPool(field);
+        if(young != null) {
+            young.reinitialise(field, cell, childrenGenes);
+        }
+        return young;
+    }
+    
     /**
      * Return the number of steps an animal can survive without eating.
      */
-    abstract public int getFoodValue();
+    public int getFoodValue()
+    {
+        return getTraits().getFoodValue();
+    }
     
     /**
      * Create a new animal with the list of genes inherited from its parents.
      * 
      * @param newAnimal The list to which the new animal will be assigned.
      * @param childrenGenes The list of genes the new animal will posess.
+     * @param field The field the new animal is born into.
+     * @param cell The index of the cell the new animal is born into.
      */
-    abstract protected void giveBirth(List<Organism> newAnimals, List<Gene> childrenGenes, Field field, Location location);
+    abstract protected void giveBirth(List<Organism> newAnimals, List<Gene> childrenGenes, Field field, int cell);
     
     /**
      * Return the list of animals of the same species. Used for breeding.
@@ -87,36 +134,41 @@ public abstract class Animal extends Organism
     }
     
     /**
-     * Make this animal act - that is: make it do
-     * whatever it wants/needs to do.
+     * Make the animal older and hungrier. This could result in its death.
+     */
+    protected void growOlder()
+    {
+        incrementAge(getMaxAge());
+        incrementHunger();
+    }
+    
+    /**
+     * Make this animal do whatever it wants/needs to do:
+     * breed during the day, look for food and move.
      * 
      * @param newAnimals A list to receive newly born animals.
      * @param day The current day.
      */
-    public void act(List<Organism> newAnimals, Day day)
+    protected void live(List<Organism> newAnimals, Day day)
     {
-        incrementAge(getMaxAge());
-        incrementHunger();
-        if(isAlive()) {
-            if(day.getDayState() == Day.DayState.DAY) {
-                reproduce(newAnimals);   
-            }
-            // Move towards a source of food if found.
-            Location newLocation = findFood();
-            if(newLocation == null) { 
-                // No food found - try to move to a free location.
-                newLocation = getField().freeAdjacentLocation(getLocation(), this);
-            }
-            // See if it was possible to move.
-            if(newLocation != null) {
-                setLocation(newLocation);
-                findViruses(newLocation);   // if a move was made, check if the animal should get infected
-            }
-            else {
-                // Overcrowding.
-                setDead();
-            }
-        
+        if(day.getDayState() == Day.DayState.DAY) {
+            reproduce(newAnimals);   
+        }
+        // Move towards a source of food if found.
+        Field field = getField();
+        int newCell = findFood();
+        if(newCell < 0) { 
+            // No food found - try to move to a free location.
+            newCell = field.freeAdjacentCell(getCell(), this);
+        }
+        // See if it was possible to move.
+        if(newCell >= 0) {
+            setCell(newCell);
+            findViruses(newCell);   // if a move was made, check if the animal should get infected
+        }
+        else {
+            // Overcrowding.
+            setDead();
         }
     }
     
@@ -124,14 +176,17 @@ public abstract class Animal extends Organism
      * Check for a virus in a given location. If a virus is found, try to infect the animal.
      * Method gets a list of all organisms in the specified location and filters it for viruses.
      * 
-     * @param location The location to inspect for viruses.
+     * @param cell The index of the cell to inspect for viruses.
      */
-    private void findViruses(Location location)
+    private void findViruses(int cell)
     {
-        List<Object> organisms = getField().getObjectsAt(location);
+        Field field = getField();
+        if(!field.containsAny(cell, VIRUS_MASK))
+            return;
         
-        for(Object organism : organisms)
+        for(int index = 0; index < field.getOccupantCount(cell); index++)
         {
+            Organism organism = field.getOccupant(cell, index);
             if(organism instanceof Virus)
             {
                 Virus virus = (Virus)organism;
@@ -154,6 +209,8 @@ public abstract class Animal extends Organism
         {
             if(!diseases.contains(virusType))
             {
+                markChanged();
+                logEvent(EventLog.Kind.INFECTION, 0, -1, virusType != null ? virusType.ordinal() : -1);
                 diseases.add(virusType);
                 
                 int stepDecrease = getStepDecrease(virusType);
@@ -165,64 +222,80 @@ public abstract class Animal extends Organism
     /**
      * Look for food adjacent to the current location.
      * Only the first live form of food is eaten.
-     * If the food is an infected animal, the predator gets the same disease.
-     * Mosquitos do not kill other animals, they just feed on them 
-     * as well as carry diseases.
+     * During a buffered step, every organism of the snapshot counts as
+     * live; whether the food is still there is settled when the step
+     * is resolved.
      * 
-     * @return Where food was found, or null if it wasn't.
+     * @return The index of the cell where food was found, or -1 if it wasn't.
      */
-    private Location findFood()
+    private int findFood()
     {
+        // predators only feed on prey animals, prey animals only feed on plants
+        int foodMask = 0;
+        if(this instanceof Predator)
+            foodMask = PREY_MASK;
+        else if(this instanceof Prey)
+            foodMask = PLANT_MASK;
+        
         Field field = getField();
-        List<Location> adjacent = field.adjacentLocations(getLocation());
-        Iterator<Location> it = adjacent.iterator();
-        while(it.hasNext()) {
-            Location where = it.next();
-            List<Object> organisms = field.getObjectsAt(where);
+        StepIntents intents = field.getIntents();
+        Neighbourhood.Cursor cursor = field.cursor();
+        field.adjacentCells(getCell(), cursor);
+        while(cursor.hasNext()) {
+            int where = cursor.next();
+            if(!field.containsAny(where, foodMask))
+                continue;   // no food in this location
+            int count = field.getOccupantCount(where);
             
-            // different actions for different types of animals
-            if(this instanceof Predator)    // predators only feed on other animals
+            for(int index = 0; index < count; index++)
             {
-                for(Object organism : organisms)
+                Organism food = field.getOccupant(where, index);
+                if((food.getSpeciesBit() & foodMask) != 0)
                 {
-                    if(organism instanceof Prey)
-                    {
-                        Prey preyAnimal = (Prey) organism;
-                        if(preyAnimal.isAlive()) { 
-                            List<Virus.VirusType> preyDiseases = preyAnimal.getDiseases();  // retrieve the diseases the prey animal had
-                            
-                            // infect the animal with all the diseases
-                            for(Virus.VirusType disease : preyDiseases)
-                            {
-                                getInfected(disease);
-                            }
-                            
-                            if( !(this instanceof Mosquito) )   // mosquitos do not kill animals when they feed on them
-                                preyAnimal.setDead();
-                            
-                            foodLevel = getFoodValue();
-                            return where;
-                        }
+                    if(intents != null) {
+                        intents.feed(this, food);   // feed when the step is resolved
+                        return where;
+                    }
+                    else if(food.isAlive()) {
+                        eat(food);
+                        return where;
                     }
                 }
             }
-            else if(this instanceof Prey)   // prey animals only feed on plants
+        }
+        return -1;
+    }
+    
+    /**
+     * Eat the given food.
+     * If the food is an infected animal, the predator gets the same disease.
+     * Mosquitos do not kill other animals, they just feed on them 
+     * as well as carry diseases. Plants are not eaten in their entirety.
+     * 
+     * @param food The prey animal or plant eaten.
+     */
+    void eat(Organism food)
+    {
+        logEvent(EventLog.Kind.FEEDING, food.getSpeciesBit(), food.getCell(), -1);
+        if(food instanceof Animal)
+        {
+            Animal preyAnimal = (Animal) food;
+            List<Virus.VirusType> preyDiseases = preyAnimal.getDiseases();  // retrieve the diseases the prey animal had
+            
+            // infect the animal with all the diseases
+            for(Virus.VirusType disease : preyDiseases)
             {
-                for(Object organism : organisms)
-                {
-                    if(organism instanceof Plant)
-                    {
-                        Plant plant = (Plant) organism;
-                        if(plant.isAlive()) { 
-                            plant.decreaseHeight();     // the plant is not eaten in its entirety
-                            foodLevel = getFoodValue();
-                            return where;
-                        }
-                    }
-                }
+                getInfected(disease);
             }
+            
+            if( !(this instanceof Mosquito) )   // mosquitos do not kill animals when they feed on them
+                preyAnimal.setDead();
         }
-        return null;
+        else if(food instanceof Plant)
+        {
+            ((Plant) food).decreaseHeight();     // the plant is not eaten in its entirety
+        }
+        setFoodLevel(getFoodValue());
     }
 
     /**
@@ -235,17 +308,18 @@ public abstract class Animal extends Organism
      */
     private void reproduce(List<Organism> newAnimals)
     {
-        // New animals are born into adjacent locations.
-        // Get a list of adjacent free locations.
+        // Only an animal that can breed looks for a partner.
+        if(!canBreed())
+            return;
+        
         Field field = getField();
-        List<Location> free = field.getFreeAdjacentLocations(getLocation(), this);
         
         // Get the list ofall animals around
-        List<Object> sameType = field.getSameAdjecentOccupants(getLocation(), this);
+        List<Object> sameType = field.getSameAdjecentOccupants(getCell(), this);
         List<Animal> potentialPartners = new ArrayList<>(); 
         
         List<Gene> partnerGenes;    // containerfor the animal's partner's genes
-        List<Gene> childrenGenes = genes;   // container for the childrens' genes
+        List<Gene> childrenGenes = new ArrayList<>(genes);   // container for the childrens' genes
         
         int births = 0;
         
@@ -256,41 +330,47 @@ public abstract class Animal extends Organism
             }
         }
         
-        if(canBreed())
-        { 
-            if(!potentialPartners.isEmpty())
+        if(!potentialPartners.isEmpty())
+        {
+            if( !getSameSpecies(potentialPartners).isEmpty())   // filter for the same species
             {
-                if( !getSameSpecies(potentialPartners).isEmpty())   // filter for the same species
+                if( !getOppositeSexes(potentialPartners).isEmpty() )    // filter for opposite sexes
                 {
-                    if( !getOppositeSexes(potentialPartners).isEmpty() )    // filter for opposite sexes
+                    for(Animal animal : potentialPartners)
                     {
-                        for(Animal animal : potentialPartners)
+                        if(animal.canBreed())   // check if the partner can breed
                         {
-                            if(animal.canBreed())   // check if the partner can breed
+                            births = breed();
+                            if(births > 0)
                             {
-                                births = breed();
-                                if(births > 0)
+                                partnerGenes = animal.getGeneList();
+                                
+                                // Create a list of inherited genes.
+                                for(Gene animalGene : partnerGenes)
                                 {
-                                    partnerGenes = animal.getGeneList();
-                                    
-                                    // Create a list of inherited genes.
-                                    for(Gene animalGene : partnerGenes)
-                                    {
-                                        if(!childrenGenes.contains(animalGene))
-                                            childrenGenes.add(animalGene);
-                                    }
+                                    if(!childrenGenes.contains(animalGene))
+                                        childrenGenes.add(animalGene);
                                 }
-                                break;
                             }
+                            break;
                         }
                     }
                 }
             }
         }
-        
-        for(int b = 0; b < births && free.size() > 0; b++) {
-            Location loc = free.remove(0);
-            giveBirth(newAnimals, childrenGenes, field, loc);
+    
+        // New animals are born into free adjacent locations.
+        if(births > 0) {
+            Neighbourhood.Cursor cursor = field.cursor();
+            field.adjacentCells(getCell(), cursor);
+            while(births > 0 && cursor.hasNext()) {
+                int cell = cursor.next();
+                if(field.isFreeFor(cell, this)) {
+                    giveBirth(newAnimals, childrenGenes, field, cell);
+                    logBirth(cell);
+                    births--;
+                }
+            }
         }
     }
     
@@ -299,12 +379,83 @@ public abstract class Animal extends Organism
      */
     protected void incrementHunger()
     {
+        OrganismStore.Block block = getBlock();
+        if(block != null) {
+            if(block.incrementHunger(getSlot())) {
+                setDead();
+            }
+            return;
+        }
         foodLevel--;
         if(foodLevel <= 0) {
             setDead();
         }
     }
     
+    /**
+     * Return the animal's food level.
+     * @return The food level.
+     */
+    int getFoodLevel()
+    {
+        OrganismStore.Block block = getBlock();
+        return block != null ? block.getFoodLevel(getSlot()) : foodLevel;
+    }
+    
+    /**
+     * Set the animal's food level, in the store if the animal is stored.
+     * @param foodLevel The new food level.
+     */
+    void setFoodLevel(int foodLevel)
+    {
+        OrganismStore.Block block = getBlock();
+        if(block != null) {
+            block.setFoodLevel(getSlot(), foodLevel);
+        }
+        else {
+            this.foodLevel = foodLevel;
+        }
+    }
+    
+    /**
+     * Write the animal's state into a checkpoint.
+     * @param out The buffer to write to, with room for the animal.
+     */
+    void writeState(ByteBuffer out)
+    {
+        super.writeState(out);
+        out.put((byte) sex.ordinal());
+        out.putInt(getFoodLevel());
+        out.put((byte) genes.size());
+        for(Gene gene : genes) {
+            out.put((byte) gene.ordinal());
+        }
+        out.put((byte) diseases.size());
+        for(Virus.VirusType disease : diseases) {
+            out.put((byte) (disease != null ? disease.ordinal() : -1));
+        }
+    }
+    
+    /**
+     * Read the animal's state back from a checkpoint.
+     * @param in The buffer to read from.
+     */
+    void readState(ByteBuffer in)
+    {
+        super.readState(in);
+        sex = Gender.values()[in.get()];
+        setFoodLevel(in.getInt());
+        genes = new ArrayList<>();
+        for(int count = in.get(); count > 0; count--) {
+            genes.add(Gene.values()[in.get()]);
+        }
+        diseases.clear();
+        for(int count = in.get(); count > 0; count--) {
+            int ordinal = in.get();
+            diseases.add(ordinal >= 0 ? Virus.VirusType.values()[ordinal] : null);
+        }
+    }
+    
     /**
      * Return the list of the diseases the animal has.
      * 
@@ -335,6 +486,17 @@ public abstract class Animal extends Organism
         return genes;
     }
     
+    /**
+     * Return whether the animal carries a gene.
+     * 
+     * @param gene The gene.
+     * @return true if the animal has the gene.
+     */
+    boolean hasGene(Gene gene)
+    {
+        return genes.contains(gene);
+    }
+    
     public enum Gender
     {
         MALE,
@@ -342,7 +504,7 @@ public abstract class Animal extends Organism
         
         public static Gender randomise()
         {
-            Random rand = new Random();
+            Random rand = Randomizer.getRandom();
             boolean isMale = rand.nextBoolean();
             
             if(isMale)
@@ -361,7 +523,7 @@ public abstract class Animal extends Organism
         public static List<Gene> randomise()
         {
             List<Gene> genes = new ArrayList<>();
-            Random rand = new Random();
+            Random rand = Randomizer.getRandom();
             Gene[] geneValues = values();
             
             for(Gene next : geneValues)
@@ -0,0 +1,250 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Make the steps of a simulation with a double-buffered field.
+ * During a step the organisms only read the field as it was at the end
+ * of the previous step, and record their intents: where they move, what
+ * they feed on, which animals they infect and where their young are born.
+ * A resolution pass then carries out the intents in a fixed order and
+ * builds the field of the next step in the second buffer, and the two
+ * buffers are swapped.
+ *
+ * Since the organisms only change their own state while acting, the
+ * organisms are split into a fixed number of parts which may act on
+ * different threads, each part with a random stream of its own.
+ * The result of a step does not depend on the number of threads.
+ *
+ * Conflicts are resolved in the order of the organisms: the first
+ * predator to hunt a prey gets it, and the first organism to move into
+ * a cell takes it. An organism that cannot take the cell it intends to
+ * move into stays where it is; if that cell is taken too, or the cell of
+ * a newborn organism is taken, it dies of overcrowding.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.01
+ */
+public class BufferedStep
+{
+    // The number of parts the organisms are split into.
+    private static final int PARTS = 64;
+
+    // The field of the simulation.
+    private Field field;
+    // The intents of the organisms, one lane for each part.
+    private StepIntents intents;
+    // The pool of threads acting for the parts.
+    private ForkJoinPool pool;
+
+    /**
+     * Prepare the buffered steps of the given field.
+     * @param field The field of the simulation.
+     * @param parallelism The number of threads to use.
+     */
+    public BufferedStep(Field field, int parallelism)
+    {
+        this.field = field;
+        intents = new StepIntents(PARTS);
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Return the number of threads used.
+     * @return The parallelism of the step.
+     */
+    public int getParallelism()
+    {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Let all the organisms act once.
+     * @param organisms The organisms of the simulation, all of them alive.
+     * @param day The current day.
+     * @param seed The seed from which the generators of the parts are derived.
+     * @return The organisms alive after the step, including the newborn ones.
+     */
+    public List<Organism> step(List<Organism> organisms, Day day, long seed)
+    {
+        field.beginBuffering(intents);
+        try {
+            // All the organisms grow older before any of them acts, so that
+            // they see each other's ages as of the same moment. With a store,
+            // they all grow older in its loops.
+            OrganismStore store = field.getStore();
+            if(store != null) {
+                store.growOlder();
+            }
+            else {
+                pool.invoke(new PartsAction(organisms, day, seed, false));
+            }
+            pool.invoke(new PartsAction(organisms, day, seed, true));
+
+            intents.resolveFeeding();
+            intents.resolveInfections();
+
+            List<Organism> survivors = new ArrayList<>(organisms.size());
+            for(Organism organism : organisms) {
+                settle(organism, survivors);
+            }
+            for(int part = 0; part < PARTS; part++) {
+                for(Organism newborn : intents.getNewborns(part)) {
+                    settle(newborn, survivors);
+                }
+            }
+            field.swapBuffers();
+
+            // The dead organisms give up their handles once they are no
+            // longer part of the snapshot, and can then be pooled.
+            OrganismPool pool = field.getPool();
+            for(Organism organism : organisms) {
+                if(!organism.isAlive()) {
+                    organism.detach();
+                    if(pool != null) {
+                        pool.release(organism);
+                    }
+                }
+            }
+            if(pool != null) {
+                for(int part = 0; part < PARTS; part++) {
+                    for(Organism newborn : intents.getNewborns(part)) {
+                        if(!newborn.isAlive()) {
+                            newborn.detach();
+                            pool.release(newborn);
+                        }
+                    }
+                }
+            }
+            return survivors;
+        }
+        finally {
+            if(field.isBuffered()) {
+                field.cancelBuffering();
+            }
+            intents.clear();
+        }
+    }
+
+    /**
+     * Stop the threads. The steps cannot be made afterwards.
+     */
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    /**
+     * Place a living organism in the next step's buffer, in the cell it
+     * intends to move into or else in its own cell. An organism that can
+     * be placed in neither dies.
+     * @param organism The organism to place.
+     * @param survivors The list receiving the organisms placed.
+     */
+    private void settle(Organism organism, List<Organism> survivors)
+    {
+        if(!organism.isAlive()) {
+            return;
+        }
+        int current = organism.getCell();
+        int next = organism.getNextCell();
+        if(next >= 0 && field.placeNext(organism, next)) {
+            organism.settle(next);
+            survivors.add(organism);
+        }
+        else if(current >= 0 && field.placeNext(organism, current)) {
+            organism.settle(current);
+            survivors.add(organism);
+        }
+        else {
+            // Overcrowding.
+            organism.setDead();
+        }
+    }
+
+    /**
+     * One half of a step, for all the parts: either growing older
+     * or acting.
+     */
+    private class PartsAction extends RecursiveAction
+    {
+        // The version of the serialized form; actions are never serialized.
+        private static final long serialVersionUID = 1L;
+
+        // The organisms of the simulation.
+        private List<Organism> organisms;
+        // The current day.
+        private Day day;
+        // The seed of the step.
+        private long seed;
+        // Whether the organisms act, rather than grow older.
+        private boolean acting;
+
+        /**
+         * @param organisms The organisms of the simulation.
+         * @param day The current day.
+         * @param seed The seed of the step.
+         * @param acting Whether the organisms act, rather than grow older.
+         */
+        public PartsAction(List<Organism> organisms, Day day, long seed, boolean acting)
+        {
+            this.organisms = organisms;
+            this.day = day;
+            this.seed = seed;
+            this.acting = acting;
+        }
+
+        /**
+         * Run all the parts and wait for them.
+         */
+        protected void compute()
+        {
+            List<RecursiveAction> parts = new ArrayList<>();
+            for(int part = 0; part < PARTS; part++) {
+                int number = part;
+                parts.add(new RecursiveAction() {
+                    protected void compute()
+                    {
+                        runPart(number);
+                    }
+                });
+            }
+            invokeAll(parts);
+        }
+
+        /**
+         * Let the organisms of one part grow older or act.
+         * @param part The number of the part.
+         */
+        private void runPart(int part)
+        {
+            int from = (int) ((long) organisms.size() * part / PARTS);
+            int to = (int) ((long) organisms.size() * (part + 1) / PARTS);
+            // The two halves of the step draw from different streams.
+            Random previous = Randomizer.bind(Randomizer.stream(seed, acting ? PARTS + part : part));
+            intents.bind(part);
+            try {
+                List<Organism> newborns = intents.getNewborns(part);
+                for(int index = from; index < to; index++) {
+                    Organism organism = organisms.get(index);
+                    if(!organism.isAlive()) {
+                        continue;
+                    }
+                    if(acting) {
+                        organism.markChanged();
+                        organism.live(newborns, day);
+                    }
+                    else {
+                        organism.growOlder();
+                    }
+                }
+            }
+            finally {
+                intents.bind(-1);
+                Randomizer.bind(previous);
+            }
+        }
+    }
+}
@@ -0,0 +1,591 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Save the full state of a simulation between two steps into a binary
+ * file, and restore it, so that a run can be paused, moved to another
+ * machine and resumed. A resumed run continues exactly as the original
+ * run would have: every step draws from random streams derived from the
+ * seed of the run and the number of the step, so the seed and the step
+ * stand for the state of the generators.
+ *
+ * A checkpoint holds, after a header with the format version:
+ *
+ * - the seed and step of the run, the size of the field, the day,
+ *   the kind of steps made, and the parameters of the run;
+ * - the names of the species;
+ * - every living organism, with its cell, its species and its state
+ *   (see Organism.writeState): first those lost to the field, then
+ *   those in the field, cell by cell in the order of the occupants of
+ *   the cell;
+ * - the order in which the organisms act, and the order of the
+ *   organisms dormant in the scheduler, as indexes of the organisms.
+ *
+ * The file is streamed through a channel in large blocks. Organisms are
+ * restored by the factories of their species and read their own state,
+ * so no reflection is involved; other species can register a factory.
+ * The dead organisms kept for reuse by a pool are not saved, since
+ * pooling does not change the course of a run.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.08
+ */
+public class Checkpoint
+{
+    /**
+     * Create an organism of a species in a cell of a field, to be given
+     * its state from a checkpoint.
+     */
+    public interface Factory
+    {
+        Organism create(Field field, int cell);
+    }
+
+    // The first bytes of a checkpoint: "ECKP".
+    static final int MAGIC = 0x45434B50;
+    // The version of the format written.
+    public static final int VERSION = 1;
+    // The size of the blocks the file is streamed in.
+    private static final int BUFFER_SIZE = 1 << 16;
+    // The largest number of bytes a single organism takes.
+    static final int MAX_RECORD = 256;
+    // The value standing for a missing scheduler.
+    static final int NONE = -1;
+    // The kinds of steps.
+    private static final byte SEQUENTIAL = 0, TILED = 1, BUFFERED = 2, STORED = 3, SCHEDULED = 4;
+
+    // The factories of the species, by the names of their classes.
+    private static final Map<String, Factory> factories = new HashMap<>();
+
+    static {
+        register(Fox.class, (field, cell) -> new Fox(false, field, cell, new ArrayList<>()));
+        register(Wolf.class, (field, cell) -> new Wolf(false, field, cell, new ArrayList<>()));
+        register(Mosquito.class, (field, cell) -> new Mosquito(false, field, cell, new ArrayList<>()));
+        register(Rabbit.class, (field, cell) -> new Rabbit(false, field, cell, new ArrayList<>()));
+        register(Sheep.class, (field, cell) -> new Sheep(false, field, cell, new ArrayList<>()));
+        register(Plant.class, (field, cell) -> new Plant(false, field, cell));
+        register(Virus.class, (field, cell) -> new Virus(false, field, cell, null));
+    }
+
+    /**
+     * Register the factory restoring the organisms of a species.
+     * @param speciesClass The class of the species.
+     * @param factory The factory.
+     */
+    public static synchronized void register(Class<? extends Organism> speciesClass, Factory factory)
+    {
+        factories.put(speciesClass.getName(), factory);
+    }
+
+    /**
+     * Return the factory of a species.
+     * @param name The name of the class of the species.
+     * @return The factory.
+     * @throws IOException If no factory is registered for the species.
+     */
+    private static synchronized Factory factoryOf(String name) throws IOException
+    {
+        Factory factory = factories.get(name);
+        if(factory == null) {
+            throw new IOException("No factory registered for species " + name);
+        }
+        return factory;
+    }
+
+    /**
+     * Save the state of a simulation. Only to be called between steps.
+     * The file is written under a temporary name first, so an existing
+     * checkpoint is only replaced by a complete one.
+     * @param engine The engine of the simulation.
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void save(SimulationEngine engine, Path file) throws IOException
+    {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(channel);
+            write(engine, out);
+            out.flush();
+            channel.force(false);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restore the state of a simulation.
+     * @param file The file to read.
+     * @return A new engine in the saved state, making the same kind of steps.
+     * @throws IOException If the file cannot be read or is not a valid checkpoint.
+     */
+    public static SimulationEngine load(Path file) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(new Input(channel));
+        }
+        catch(BufferUnderflowException e) {
+            throw new EOFException("Truncated checkpoint: " + file);
+        }
+    }
+
+    /**
+     * Write the state of a simulation.
+     * @param engine The engine of the simulation.
+     * @param out The output.
+     */
+    static void write(SimulationEngine engine, Output out) throws IOException
+    {
+        writeHeader(engine, out);
+        Field field = engine.getField();
+        Scheduler scheduler = field.getScheduler();
+
+        // The organisms in the field, cell by cell.
+        List<Organism> placed = new ArrayList<>();
+        int cells = field.getDepth() * field.getWidth();
+        for(int cell = 0; cell < cells; cell++) {
+            for(int index = 0; index < field.getOccupantCount(cell); index++) {
+                placed.add(field.getOccupant(cell, index));
+            }
+        }
+        List<Organism> lost = findLost(engine);
+
+        // The organisms, numbered in the order they are written: the lost ones first.
+        Map<Organism, Integer> indexes = new IdentityHashMap<>();
+        out.ensure(8).putInt(lost.size()).putInt(placed.size());
+        for(List<Organism> organisms : Arrays.asList(lost, placed)) {
+            for(Organism organism : organisms) {
+                indexes.put(organism, indexes.size());
+                writeOrganism(organism, out.ensure(MAX_RECORD));
+            }
+        }
+
+        // Organisms killed by others stay in the lists until their turn comes,
+        // and do nothing then, so only the living ones are written.
+        writeOrder(engine.getOrganisms(), indexes, out);
+        if(scheduler != null) {
+            writeOrder(scheduler.getAll(), indexes, out);
+        }
+        else {
+            out.ensure(4).putInt(NONE);
+        }
+        out.ensure(4).putInt(MAGIC);
+    }
+
+    /**
+     * Write the header of a checkpoint: the format version, the run, the
+     * day, the kind of steps made, the parameters and the species.
+     * @param engine The engine of the simulation.
+     * @param out The output.
+     */
+    static void writeHeader(SimulationEngine engine, Output out) throws IOException
+    {
+        Field field = engine.getField();
+        Day day = engine.getDay();
+        OrganismPool pool = field.getPool();
+        ByteBuffer buffer = out.ensure(64);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        buffer.putLong(engine.getSeed()).putInt(engine.getStep());
+        buffer.putInt(field.getDepth()).putInt(field.getWidth());
+        buffer.putInt(day.getDayLength()).putInt(day.getTime()).putInt(day.getDayNumber());
+        buffer.put((byte) day.getDayState().ordinal());
+
+        byte steps = SEQUENTIAL;
+        if(field.getScheduler() != null) {
+            steps = SCHEDULED;
+        }
+        else if(engine.getTileSize() > 0) {
+            steps = TILED;
+        }
+        else if(engine.isBuffered()) {
+            steps = field.getStore() != null ? STORED : BUFFERED;
+        }
+        buffer.put(steps).putInt(engine.getTileSize()).putInt(engine.getParallelism());
+        buffer.putInt(pool != null ? pool.getCapacity() : 0);
+
+        Parameters parameters = field.getParameters();
+        out.ensure(4).putInt(parameters.getNames().size());
+        for(String name : parameters.getNames()) {
+            out.putString(name);
+            out.putString(parameters.get(name));
+        }
+        out.ensure(4).putInt(Species.count());
+        for(int number = 0; number < Species.count(); number++) {
+            out.putString(Species.classOf(number).getName());
+        }
+    }
+
+    /**
+     * Write an organism: its cell, its species and its state.
+     * @param organism The organism.
+     * @param buffer The buffer to write to, with room for MAX_RECORD bytes.
+     */
+    static void writeOrganism(Organism organism, ByteBuffer buffer)
+    {
+        buffer.putInt(organism.getCell());
+        buffer.put((byte) Integer.numberOfTrailingZeros(organism.getSpeciesBit()));
+        organism.writeState(buffer);
+    }
+
+    /**
+     * Return the living organisms lost to the field: those displaced by
+     * another organism of their species, or born in a full cell. They
+     * still live and act, in the cell they were lost in.
+     * @param engine The engine of the simulation.
+     * @return The lost organisms, in the order they act.
+     */
+    static List<Organism> findLost(SimulationEngine engine)
+    {
+        List<Organism> lost = new ArrayList<>();
+        for(Organism organism : engine.getOrganisms()) {
+            if(organism.isAlive() && !isPlaced(organism)) {
+                lost.add(organism);
+            }
+        }
+        Scheduler scheduler = engine.getField().getScheduler();
+        if(scheduler != null) {
+            for(Organism organism : scheduler.getAll()) {
+                if(organism.isAlive() && !isPlaced(organism)) {
+                    lost.add(organism);
+                }
+            }
+        }
+        return lost;
+    }
+
+    /**
+     * Return whether an organism occupies its cell in the field.
+     * @param organism The organism.
+     * @return true if the organism is one of the occupants of its cell.
+     */
+    static boolean isPlaced(Organism organism)
+    {
+        Field field = organism.getField();
+        int cell = organism.getCell();
+        for(int index = 0; index < field.getOccupantCount(cell); index++) {
+            if(field.getOccupant(cell, index) == organism) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write the living organisms of a list as the indexes under which they were written.
+     */
+    private static void writeOrder(List<Organism> organisms, Map<Organism, Integer> indexes, Output out) throws IOException
+    {
+        int living = 0;
+        for(Organism organism : organisms) {
+            if(organism.isAlive()) {
+                living++;
+            }
+        }
+        out.ensure(4).putInt(living);
+        for(Organism organism : organisms) {
+            if(organism.isAlive()) {
+                out.ensure(4).putInt(indexes.get(organism));
+            }
+        }
+    }
+
+    /**
+     * Read the state of a simulation.
+     * @param in The input.
+     * @return A new engine in the saved state.
+     */
+    static SimulationEngine read(Input in) throws IOException
+    {
+        ByteBuffer buffer = in.ensure(64);
+        if(buffer.getInt() != MAGIC) {
+            throw new IOException("Not a checkpoint");
+        }
+        int version = buffer.getInt();
+        if(version != VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version + ", expected " + VERSION);
+        }
+        long seed = buffer.getLong();
+        int step = buffer.getInt();
+        int depth = buffer.getInt();
+        int width = buffer.getInt();
+        Day day = new Day(buffer.getInt(), buffer.getInt(), buffer.getInt());
+        if(day.getDayState().ordinal() != buffer.get()) {
+            day.changeState();
+        }
+        byte steps = buffer.get();
+        int tileSize = buffer.getInt();
+        int parallelism = buffer.getInt();
+        int poolCapacity = buffer.getInt();
+
+        Parameters parameters = Parameters.getDefaults();
+        for(int count = in.ensure(4).getInt(); count > 0; count--) {
+            parameters = parameters.with(in.getString(), in.getString());
+        }
+        int speciesCount = in.ensure(4).getInt();
+        Factory[] speciesFactories = new Factory[speciesCount];
+        for(int number = 0; number < speciesCount; number++) {
+            speciesFactories[number] = factoryOf(in.getString());
+        }
+
+        SimulationEngine engine = new SimulationEngine(depth, width, seed, parameters, false);
+        Field field = engine.getField();
+        List<Organism> restored = new ArrayList<>();
+        // Creating the organisms draws a few numbers, which must not disturb any other stream.
+        Random previous = Randomizer.bind(new RandomStream(seed));
+        try {
+            ByteBuffer counts = in.ensure(8);
+            int lostCount = counts.getInt();
+            int placedCount = counts.getInt();
+            readOrganisms(lostCount, speciesFactories, field, restored, in);
+            // Take the lost organisms out of the field, leaving them their cells.
+            for(Organism organism : restored) {
+                field.clear(organism.getCell());
+            }
+            readOrganisms(placedCount, speciesFactories, field, restored, in);
+        }
+        finally {
+            Randomizer.bind(previous);
+        }
+
+        List<Organism> acting = readOrder(restored, in);
+        List<Organism> dormant = readOrder(restored, in);
+        if(in.ensure(4).getInt() != MAGIC) {
+            throw new IOException("Corrupt checkpoint");
+        }
+
+        engine.restore(step, day, acting);
+        if(steps == SCHEDULED) {
+            Scheduler scheduler = new Scheduler();
+            scheduler.setStep(step);
+            for(Organism organism : dormant) {
+                scheduler.schedule(organism);
+            }
+            field.setScheduler(scheduler);
+        }
+        else if(steps == TILED) {
+            engine.setParallel(tileSize, parallelism);
+        }
+        else if(steps == BUFFERED || steps == STORED) {
+            engine.setBuffered(parallelism, steps == STORED);
+        }
+        if(poolCapacity > 0) {
+            engine.setPooling(poolCapacity);
+        }
+        return engine;
+    }
+
+    /**
+     * Read organisms, placing them in the field.
+     * @param count The number of organisms to read.
+     * @param speciesFactories The factories of the species, by species number.
+     * @param field The field.
+     * @param restored The list receiving the organisms read.
+     */
+    private static void readOrganisms(int count, Factory[] speciesFactories, Field field,
+                                      List<Organism> restored, Input in) throws IOException
+    {
+        int cells = field.getDepth() * field.getWidth();
+        for(int index = 0; index < count; index++) {
+            ByteBuffer buffer = in.ensure(MAX_RECORD);
+            int cell = buffer.getInt();
+            int number = buffer.get();
+            if(cell < 0 || cell >= cells || number < 0 || number >= speciesFactories.length) {
+                throw new IOException("Corrupt checkpoint: organism of species " + number + " in cell " + cell);
+            }
+            Organism organism = speciesFactories[number].create(field, cell);
+            organism.readState(buffer);
+            restored.add(organism);
+        }
+    }
+
+    /**
+     * Read a list of organisms written as indexes.
+     * @return The organisms, or an empty list if none was written.
+     */
+    private static List<Organism> readOrder(List<Organism> restored, Input in) throws IOException
+    {
+        List<Organism> organisms = new ArrayList<>();
+        for(int count = in.ensure(4).getInt(); count > 0; count--) {
+            int index = in.ensure(4).getInt();
+            if(index < 0 || index >= restored.size()) {
+                throw new IOException("Corrupt checkpoint: organism " + index + " of " + restored.size());
+            }
+            organisms.add(restored.get(index));
+        }
+        return organisms;
+    }
+
+    /**
+     * Streams bytes into a channel through a buffer, or into a buffer alone.
+     */
+    static class Output
+    {
+        // The channel written to, or null if the bytes stay in the buffer.
+        private WritableByteChannel channel;
+        // The bytes not written yet.
+        private ByteBuffer buffer;
+
+        /**
+         * Create an output into a channel.
+         * @param channel The channel.
+         */
+        Output(WritableByteChannel channel)
+        {
+            this.channel = channel;
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        /**
+         * Create an output into a buffer, which is replaced by grow when full.
+         * @param buffer The buffer.
+         */
+        Output(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        /**
+         * Make room for the given number of bytes.
+         * @param bytes The number of bytes, at most MAX_RECORD.
+         * @return The buffer to put the bytes into.
+         */
+        ByteBuffer ensure(int bytes) throws IOException
+        {
+            if(buffer.remaining() < bytes) {
+                if(channel != null) {
+                    flush();
+                }
+                else {
+                    buffer = grow(buffer, bytes);
+                }
+            }
+            return buffer;
+        }
+
+        /**
+         * Return a larger buffer holding the bytes put so far, with
+         * its position after them. Only used without a channel.
+         * @param full The buffer that is full.
+         * @param bytes The number of bytes that must fit.
+         * @return The new buffer.
+         */
+        ByteBuffer grow(ByteBuffer full, int bytes) throws IOException
+        {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(full.capacity() * 2, full.position() + bytes));
+            full.flip();
+            return larger.put(full);
+        }
+
+        /**
+         * Return the buffer of the output.
+         * @return The buffer, with its position after the bytes put so far.
+         */
+        ByteBuffer getBuffer()
+        {
+            return buffer;
+        }
+
+        /**
+         * Put a string, as its length followed by its bytes in UTF-8.
+         * @param text The string.
+         */
+        void putString(String text) throws IOException
+        {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            if(bytes.length > MAX_RECORD) {
+                throw new IOException("String too long for a checkpoint: " + text);
+            }
+            ensure(2 + bytes.length).putShort((short) bytes.length).put(bytes);
+        }
+
+        /**
+         * Write the bytes in the buffer to the channel.
+         */
+        void flush() throws IOException
+        {
+            buffer.flip();
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Streams bytes from a channel through a buffer, or from a buffer alone.
+     */
+    static class Input
+    {
+        // The channel read from, or null if all the bytes are in the buffer.
+        private ReadableByteChannel channel;
+        // The bytes read but not used yet.
+        private ByteBuffer buffer;
+
+        /**
+         * Create an input from a channel.
+         * @param channel The channel.
+         */
+        Input(ReadableByteChannel channel)
+        {
+            this.channel = channel;
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.flip();
+        }
+
+        /**
+         * Create an input from the bytes remaining in a buffer.
+         * @param buffer The buffer.
+         */
+        Input(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        /**
+         * Make the given number of bytes available, or as many as are
+         * left at the end of the input.
+         * @param bytes The number of bytes, at most MAX_RECORD.
+         * @return The buffer to get the bytes from.
+         */
+        ByteBuffer ensure(int bytes) throws IOException
+        {
+            if(buffer.remaining() < bytes && channel != null) {
+                buffer.compact();
+                while(buffer.position() < bytes && channel.read(buffer) >= 0) {
+                    // keep reading
+                }
+                buffer.flip();
+            }
+            return buffer;
+        }
+
+        /**
+         * Get a string written by Output.putString.
+         * @return The string.
+         */
+        String getString() throws IOException
+        {
+            int length = ensure(2).getShort();
+            byte[] bytes = new byte[length];
+            ensure(length).get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,1371 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keep a series of checkpoints of a simulation in a memory-mapped file.
+ * The first checkpoint is a base holding the whole field; the following
+ * ones are deltas holding only the tiles of the field changed since the
+ * checkpoint before. A tile has changed when an organism was placed in
+ * or cleared from one of its cells, or when the state of one of its
+ * organisms changed (see Field.getTileVersion and getStateVersion), so
+ * empty tiles and tiles of dormant plants and viruses are not written
+ * again. Within a changed tile, only the organisms whose records changed
+ * are written; the others are written as runs of records kept from the
+ * last time the tile was written. Every checkpoint also holds the small
+ * header of the run and the orders in which the organisms act and lie
+ * dormant. A delta holds an order as the runs of it kept from the
+ * checkpoint before, the organisms new to it, and the organisms that
+ * moved, so an order costs bytes in proportion to its changes. The
+ * organisms lost to the field, alive but in none of its cells, are
+ * written with the tile of the cell they were lost from; they are
+ * tracked by the field as they are displaced (see Field.setTrackingLost)
+ * rather than searched for.
+ *
+ * The bytes of a delta grow with the number of organisms whose state
+ * changed; its time does not. Every delta still looks at every tile,
+ * walks the acting and dormant orders once to number their organisms,
+ * and writes every organism of a changed tile to compare it with its
+ * last record. With dormant plants and viruses (see
+ * SimulationEngine.setScheduled), a delta of one step on the default
+ * field holds about a tenth of the organisms, those woken or acting. In
+ * any other kind of step every organism acts, and so grows older, in
+ * every step: every record changes, and a delta is as large as a base.
+ * In tiled steps, where the acting order is regrouped by tile, every
+ * organism moving to another tile also breaks a run of the order.
+ *
+ * Every few deltas the store is compacted: the base and its deltas are
+ * merged into a new base, so that restoring never has to go through
+ * many deltas. A checkpoint is only counted once it is complete, so a
+ * run stopped while writing one leaves the earlier ones usable.
+ *
+ * The file is mapped as a whole, so it is limited to 2 GB.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.08
+ */
+public class CheckpointStore implements Closeable
+{
+    // The first bytes of a store: "ECKS".
+    private static final int MAGIC = 0x45434B53;
+    // The version of the format written.
+    private static final int VERSION = 2;
+    // The size of the header of the file: magic, version, count of checkpoints and end.
+    private static final int HEADER_SIZE = 32;
+    // The size of the file mapped at first.
+    private static final int INITIAL_SIZE = 1 << 20;
+    // The default number of deltas after which the store is compacted.
+    private static final int DEFAULT_COMPACTION_INTERVAL = 16;
+    // The kinds of checkpoints.
+    private static final byte BASE = 0, DELTA = 1;
+    // The number of the last checkpoint saved by any store, with which the
+    // organisms saved in it are marked (see Organism.getSavedIndex).
+    private static final AtomicInteger checkpointMarks = new AtomicInteger();
+
+    // The file of the store.
+    private Path file;
+    // The channel of the file.
+    private FileChannel channel;
+    // The file as mapped into memory.
+    private MappedByteBuffer mapped;
+    // The checkpoints in the store, in the order they were written.
+    private List<Entry> entries;
+    // The position in the file after the last checkpoint.
+    private long end;
+    // The number of deltas after which the store is compacted, or 0 for never.
+    private int compactionInterval;
+    // The number of deltas after which the next checkpoint is a base, or 0 for never.
+    private int baseInterval;
+    // Whether either interval was set, rather than left at its default.
+    private boolean configured;
+    // The field the last checkpoint was taken of, or null if the next
+    // checkpoint has to be a base.
+    private Field trackedField;
+    // The versions and state versions of the field's tiles as of the last checkpoint.
+    private int[] seenVersions, seenStateVersions;
+    // The numbers of tiles written in the last checkpoint and of tiles in the field.
+    private int lastTiles, tileCount;
+    // The numbers of organisms in the tiles written in the last checkpoint,
+    // and of those written whole rather than copied.
+    private int lastOrganisms, lastWritten;
+    // The positions in the file of the records of every tile as last
+    // written, those of the organisms in the field first, or null if the
+    // tile was empty or its records were moved by a compaction; and the
+    // numbers of those organisms in the field.
+    private int[][] lastRecords;
+    private int[] lastPlaced;
+    // The positions in the file of the records of the tile being written.
+    private int[] records = new int[256];
+    // The current run of records kept from the tile as last written: the
+    // position of its first record there, and its length.
+    private int keptStart, keptLength;
+    // The number of the last checkpoint, or 0 if the next one has to be a base.
+    private int lastMark;
+    // The keys of the acting and dormant orders of the last checkpoint,
+    // one after the other (see number).
+    private long[] lastKeys;
+    // The organisms lost to the field as of the last checkpoint.
+    private List<Organism> lastLost;
+
+    /**
+     * Open a store, creating it if the file does not exist.
+     * @param file The file of the store.
+     * @throws IOException If the file cannot be opened or is not a valid store.
+     */
+    public CheckpointStore(Path file) throws IOException
+    {
+        this.file = file;
+        compactionInterval = DEFAULT_COMPACTION_INTERVAL;
+        open();
+    }
+
+    /**
+     * Map the file and read the list of its checkpoints.
+     */
+    private void open() throws IOException
+    {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        entries = new ArrayList<>();
+        if(channel.size() == 0) {
+            map(INITIAL_SIZE);
+            mapped.putInt(0, MAGIC).putInt(4, VERSION);
+            end = HEADER_SIZE;
+            commit();
+            return;
+        }
+        map(channel.size());
+        if(channel.size() < HEADER_SIZE || mapped.getInt(0) != MAGIC) {
+            throw new IOException("Not a checkpoint store: " + file);
+        }
+        if(mapped.getInt(4) != VERSION) {
+            throw new IOException("Unsupported checkpoint store version " + mapped.getInt(4) + ", expected " + VERSION);
+        }
+        int count = mapped.getInt(8);
+        long position = HEADER_SIZE;
+        for(int index = 0; index < count; index++) {
+            Entry entry = new Entry(position, mapped.getInt((int) position), mapped.get((int) position + 4),
+                                    mapped.getInt((int) position + 5));
+            entries.add(entry);
+            position += 4 + entry.length;
+        }
+        end = mapped.getLong(12);
+        if(position != end) {
+            throw new IOException("Corrupt checkpoint store: " + file);
+        }
+    }
+
+    /**
+     * Map the file, making it at least the given size.
+     * @param size The size to map.
+     */
+    private void map(long size) throws IOException
+    {
+        if(size > Integer.MAX_VALUE) {
+            throw new IOException("Checkpoint store larger than 2 GB: " + file);
+        }
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Set how many deltas are written before the store is compacted.
+     * @param deltas The number of deltas, or 0 to never compact.
+     */
+    public void setCompactionInterval(int deltas)
+    {
+        compactionInterval = deltas;
+        configured = true;
+    }
+
+    /**
+     * Set how many deltas are written before a base is written again.
+     * A checkpoint is restored from the base before it and the deltas in
+     * between, so this bounds the cost of a restore without compacting.
+     * @param deltas The number of deltas, or 0 to only write a base when needed.
+     */
+    public void setBaseInterval(int deltas)
+    {
+        baseInterval = deltas;
+        configured = true;
+    }
+
+    /**
+     * Return whether the compaction or base interval was set.
+     * @return true if either interval was set, false if both are left at their defaults.
+     */
+    boolean isConfigured()
+    {
+        return configured;
+    }
+
+    /**
+     * Save the state of a simulation. Only to be called between steps.
+     * The checkpoint is a delta if the last one was taken of the same
+     * field, and a base otherwise or when the base interval is reached.
+     * @param engine The engine of the simulation.
+     * @throws IOException If the checkpoint cannot be written.
+     */
+    public void save(SimulationEngine engine) throws IOException
+    {
+        Field field = engine.getField();
+        boolean base = field != trackedField || entries.isEmpty()
+                       || (baseInterval > 0 && getDeltasSinceBase() >= baseInterval);
+        if(base) {
+            trackedField = field;
+            tileCount = field.getTileCount();
+            seenVersions = new int[tileCount];
+            seenStateVersions = new int[tileCount];
+            lastRecords = new int[tileCount][];
+            lastPlaced = new int[tileCount];
+            lastMark = 0;
+            lastKeys = null;
+        }
+
+        MappedOutput out = new MappedOutput(end);
+        out.ensure(9).putInt(0).put(base ? BASE : DELTA).putInt(engine.getStep());
+        int headerStart = out.reserveInt();
+        Checkpoint.writeHeader(engine, out);
+        out.patchLength(headerStart);
+
+        // The acting and dormant orders, numbered one after the other.
+        int mark = checkpointMarks.incrementAndGet();
+        List<Organism> acting = living(engine.getOrganisms());
+        Scheduler scheduler = field.getScheduler();
+        List<Organism> dormant = scheduler != null ? living(scheduler.getAll()) : new ArrayList<>();
+        int[] lastIndexes = new int[acting.size() + dormant.size()];
+        long[] keys = new long[lastIndexes.length];
+        number(acting, 0, mark, lastIndexes, keys);
+        number(dormant, acting.size(), mark, lastIndexes, keys);
+
+        // The organisms lost to the field, which are written with the tiles of their cells.
+        List<Organism> candidates;
+        if(base || !field.isTrackingLost()) {
+            field.setTrackingLost(true);
+            field.takeDisplaced();
+            candidates = Checkpoint.findLost(engine);
+        }
+        else {
+            candidates = new ArrayList<>(lastLost);
+            candidates.addAll(field.takeDisplaced());
+        }
+        lastLost = findLost(candidates, mark, keys);
+        List<List<Organism>> lostByTile = new ArrayList<>(Collections.nCopies(tileCount, (List<Organism>) null));
+        for(Organism organism : lastLost) {
+            int tile = field.tileOf(organism.getCell());
+            if(lostByTile.get(tile) == null) {
+                lostByTile.set(tile, new ArrayList<>());
+            }
+            lostByTile.get(tile).add(organism);
+        }
+
+        // The tiles changed since the last checkpoint, or all the occupied ones for a base.
+        out.ensure(4).putInt(field.getDepth() * field.getWidth());
+        int tilesStart = out.reserveInt();
+        lastTiles = 0;
+        lastOrganisms = 0;
+        lastWritten = 0;
+        for(int tile = 0; tile < tileCount; tile++) {
+            int version = field.getTileVersion(tile);
+            int stateVersion = field.getStateVersion(tile);
+            boolean changed = version != seenVersions[tile] || stateVersion != seenStateVersions[tile];
+            List<Organism> lost = lostByTile.get(tile);
+            if(lost != null) {
+                keyLost(lost, field.getDepth() * field.getWidth(), mark, keys);
+            }
+            if(base ? lost != null || hasOccupants(field, tile) : changed) {
+                writeTile(field, tile, lost, out);
+                lastTiles++;
+            }
+            seenVersions[tile] = version;
+            seenStateVersions[tile] = stateVersion;
+        }
+        out.getBuffer().putInt(tilesStart, lastTiles);
+
+        writeOrder(keys, 0, acting.size(), lastIndexes, lastKeys, out);
+        if(scheduler != null) {
+            writeOrder(keys, acting.size(), dormant.size(), lastIndexes, lastKeys, out);
+        }
+        else {
+            out.ensure(4).putInt(Checkpoint.NONE);
+        }
+        lastMark = mark;
+        lastKeys = keys;
+
+        long entryEnd = out.getBuffer().position();
+        out.getBuffer().putInt((int) end, (int) (entryEnd - end - 4));
+        entries.add(new Entry(end, (int) (entryEnd - end - 4), base ? BASE : DELTA, engine.getStep()));
+        end = entryEnd;
+        commit();
+
+        if(compactionInterval > 0 && getDeltasSinceBase() >= compactionInterval) {
+            compact();
+        }
+    }
+
+    /**
+     * Return whether a tile holds any organism.
+     * @param field The field.
+     * @param tile The number of the tile.
+     * @return true if one of the cells of the tile is occupied.
+     */
+    private static boolean hasOccupants(Field field, int tile)
+    {
+        int tileSize = field.getTileSize();
+        int top = tile / field.getTileCols() * tileSize;
+        int left = tile % field.getTileCols() * tileSize;
+        for(int row = top; row < Math.min(top + tileSize, field.getDepth()); row++) {
+            for(int col = left; col < Math.min(left + tileSize, field.getWidth()); col++) {
+                if(field.getOccupantCount(row * field.getWidth() + col) > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write a tile: its number and the number of its bytes, which are the
+     * numbers of its organisms in the field and lost to it, the organisms
+     * in the field cell by cell in the order of the occupants of every
+     * cell, and the lost organisms. An organism whose record is the same
+     * as the last time the tile was written, as it is for dormant plants
+     * and viruses, is not written again: a run of such records is written
+     * as its length, negated, and the position of its first record in the
+     * tile as last written.
+     * @param field The field.
+     * @param tile The number of the tile.
+     * @param lost The organisms lost to the tile, or null if there are none.
+     * @param out The output.
+     */
+    private void writeTile(Field field, int tile, List<Organism> lost, MappedOutput out) throws IOException
+    {
+        int lostCount = lost != null ? lost.size() : 0;
+        out.ensure(4).putInt(tile);
+        int bytesStart = out.reserveInt();
+        int countStart = out.reserveInt();
+        out.ensure(4).putInt(lostCount);
+        // The records of the tile as last written, and where the records written now are.
+        int[] last = lastRecords[tile] != null ? lastRecords[tile] : new int[0];
+        int placed = lastPlaced[tile];
+        int written = 0;
+        int lastIndex = 0;
+        keptLength = 0;
+
+        int count = 0;
+        int tileSize = field.getTileSize();
+        int top = tile / field.getTileCols() * tileSize;
+        int left = tile % field.getTileCols() * tileSize;
+        for(int row = top; row < Math.min(top + tileSize, field.getDepth()); row++) {
+            for(int col = left; col < Math.min(left + tileSize, field.getWidth()); col++) {
+                int cell = row * field.getWidth() + col;
+                // The records of the tile as last written are gone through cell by cell.
+                while(lastIndex < placed && out.getBuffer().getInt(last[lastIndex] + 2) < cell) {
+                    lastIndex++;
+                }
+                for(int index = 0; index < field.getOccupantCount(cell); index++) {
+                    Organism organism = field.getOccupant(cell, index);
+                    int kept = find(organism, last, lastIndex, placed, true, out.getBuffer());
+                    addRecord(written++, writeRecord(organism, kept >= 0 ? last[kept] : -1, kept, out));
+                    count++;
+                }
+            }
+        }
+        writeKept(out);
+
+        if(lost != null) {
+            // The lost organisms stay in the same order, with the new ones after them.
+            int next = placed;
+            for(Organism organism : lost) {
+                int kept = find(organism, last, next, last.length, false, out.getBuffer());
+                if(kept >= 0) {
+                    next = kept + 1;
+                }
+                addRecord(written++, writeRecord(organism, kept >= 0 ? last[kept] : -1, kept, out));
+            }
+            writeKept(out);
+        }
+
+        lastRecords[tile] = written > 0 ? Arrays.copyOf(records, written) : null;
+        lastPlaced[tile] = count;
+        lastOrganisms += written;
+        out.getBuffer().putInt(countStart, count);
+        out.patchLength(bytesStart);
+    }
+
+    /**
+     * Note where the record of an organism of the tile being written is.
+     * @param index The position of the record among those of the tile.
+     * @param position The position of the record in the file.
+     */
+    private void addRecord(int index, int position)
+    {
+        if(index == records.length) {
+            records = Arrays.copyOf(records, 2 * index);
+        }
+        records[index] = position;
+    }
+
+    /**
+     * Find the record an organism may have had the last time its tile was
+     * written: the first one of the same cell and species from a position.
+     * An organism in the field is known by its cell and species, since the
+     * field has at most one organism of a species in a cell.
+     * @param organism The organism.
+     * @param last The positions in the file of the records of the tile as last written.
+     * @param from The first of them to look at.
+     * @param to The one after the last to look at.
+     * @param sorted Whether the records are in the order of their cells,
+     *               as those of the organisms in the field are.
+     * @param file The file.
+     * @return The position of the record among those of the tile, or -1 if there is none.
+     */
+    private static int find(Organism organism, int[] last, int from, int to, boolean sorted, ByteBuffer file)
+    {
+        int cell = organism.getCell();
+        int species = Integer.numberOfTrailingZeros(organism.getSpeciesBit());
+        for(int index = from; index < to; index++) {
+            int lastCell = file.getInt(last[index] + 2);
+            if(lastCell == cell && file.get(last[index] + 6) == species) {
+                return index;
+            }
+            if(sorted && lastCell > cell) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Write the record of an organism, preceded by its length, unless it
+     * is the same as the one it had the last time its tile was written:
+     * it is then added to the current run of records kept, if it follows
+     * it, or starts a new one.
+     * @param organism The organism.
+     * @param lastRecord The position in the file of the record it may have
+     *                   had the last time its tile was written, or -1 if none.
+     * @param kept The position of that record among those of the tile.
+     * @param out The output.
+     * @return The position in the file of the record of the organism, whether written now or before.
+     */
+    private int writeRecord(Organism organism, int lastRecord, int kept, MappedOutput out) throws IOException
+    {
+        ByteBuffer buffer = out.ensure(6 + 2 + Checkpoint.MAX_RECORD);
+        // The current run is written ahead, and taken back if the record extends it.
+        int runStart = buffer.position();
+        if(keptLength > 0) {
+            buffer.putShort((short) -keptLength).putInt(keptStart);
+        }
+        int start = buffer.position();
+        buffer.putShort((short) 0);
+        Checkpoint.writeOrganism(organism, buffer);
+        buffer.putShort(start, (short) (buffer.position() - start - 2));
+        if(lastRecord < 0 || !isSame(buffer, lastRecord, start)) {
+            keptLength = 0;
+            lastWritten++;
+            return start;
+        }
+        if(keptLength > 0 && kept == keptStart + keptLength && keptLength < Short.MAX_VALUE) {
+            buffer.position(runStart);
+            keptLength++;
+        }
+        else {
+            buffer.position(start);
+            keptStart = kept;
+            keptLength = 1;
+        }
+        return lastRecord;
+    }
+
+    /**
+     * Return whether two records in the file are the same.
+     * @param file The file.
+     * @param first The position of the first record.
+     * @param second The position of the second record.
+     * @return true if the records have the same length and bytes.
+     */
+    private static boolean isSame(ByteBuffer file, int first, int second)
+    {
+        int length = 2 + file.getShort(first);
+        if(file.getShort(second) + 2 != length) {
+            return false;
+        }
+        for(int offset = 2; offset < length; offset++) {
+            if(file.get(first + offset) != file.get(second + offset)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write the current run of records kept from the tile as last written, if any.
+     * @param out The output.
+     */
+    private void writeKept(MappedOutput out) throws IOException
+    {
+        if(keptLength > 0) {
+            out.ensure(6).putShort((short) -keptLength).putInt(keptStart);
+            keptLength = 0;
+        }
+    }
+
+    /**
+     * Return the living organisms of a list.
+     * @param organisms The organisms.
+     * @return The living ones, in the same order.
+     */
+    private static List<Organism> living(List<Organism> organisms)
+    {
+        List<Organism> living = new ArrayList<>(organisms.size());
+        for(Organism organism : organisms) {
+            if(organism.isAlive()) {
+                living.add(organism);
+            }
+        }
+        return living;
+    }
+
+    /**
+     * Number the organisms of an order with their positions in a checkpoint,
+     * taking their positions in the last one, and put their keys as if none
+     * were lost. The keys stay valid from one checkpoint to the next: the
+     * cell and species of an organism in the field, which has at most one
+     * organism of a species in a cell, or the key of a lost organism (see lostKey).
+     * @param order The organisms.
+     * @param offset The position of the first organism.
+     * @param mark The number of the checkpoint.
+     * @param lastIndexes Where to put the positions in the last checkpoint, or -1 for none.
+     * @param keys Where to put the keys.
+     */
+    private void number(List<Organism> order, int offset, int mark, int[] lastIndexes, long[] keys)
+    {
+        for(int index = 0; index < order.size(); index++) {
+            Organism organism = order.get(index);
+            lastIndexes[offset + index] = organism.getSavedIndex(lastMark);
+            organism.setSavedIndex(mark, offset + index);
+            keys[offset + index] = placeOf(organism.getCell(), Integer.numberOfTrailingZeros(organism.getSpeciesBit())) << 1;
+        }
+    }
+
+    /**
+     * Find the organisms lost to the field among some candidates.
+     * @param candidates The candidates: the organisms lost at the last
+     *                   checkpoint, in the same order, and those displaced since.
+     * @param mark The number of the checkpoint, with which the organisms in its orders are marked.
+     * @param keys The keys of the orders, in which the lost organisms are marked until keyed.
+     * @return The lost organisms, in the order of the candidates.
+     */
+    private static List<Organism> findLost(List<Organism> candidates, int mark, long[] keys)
+    {
+        List<Organism> lost = new ArrayList<>();
+        for(Organism organism : candidates) {
+            // An organism displaced by a reset of the engine is in neither order.
+            int index = organism.getSavedIndex(mark);
+            if(organism.isAlive() && index >= 0 && (keys[index] & 1) == 0 && !Checkpoint.isPlaced(organism)) {
+                keys[index] = 1;
+                lost.add(organism);
+            }
+        }
+        return lost;
+    }
+
+    /**
+     * Put the keys of the organisms lost to a tile.
+     * @param lost The organisms lost to the tile, in the order they are written.
+     * @param cells The number of cells in the field.
+     * @param mark The number of the checkpoint.
+     * @param keys The keys of the orders.
+     */
+    private static void keyLost(List<Organism> lost, int cells, int mark, long[] keys)
+    {
+        // Sorting the organisms by cell and species, and then by position, ranks them.
+        long[] sorted = new long[lost.size()];
+        for(int index = 0; index < sorted.length; index++) {
+            Organism organism = lost.get(index);
+            sorted[index] = placeOf(organism.getCell(), Integer.numberOfTrailingZeros(organism.getSpeciesBit())) * sorted.length + index;
+        }
+        Arrays.sort(sorted);
+        int rank = 0;
+        for(int index = 0; index < sorted.length; index++) {
+            long place = sorted[index] / sorted.length;
+            rank = index > 0 && place == sorted[index - 1] / sorted.length ? rank + 1 : 0;
+            Organism organism = lost.get((int) (sorted[index] % sorted.length));
+            keys[organism.getSavedIndex(mark)] = lostKey(place, rank, cells);
+        }
+    }
+
+    /**
+     * Return the cell and species of an organism as a single number.
+     * @param cell The cell of the organism.
+     * @param species The number of its species.
+     * @return The number.
+     */
+    private static long placeOf(int cell, int species)
+    {
+        return (long) cell * Integer.SIZE + species;
+    }
+
+    /**
+     * Return the key of a lost organism: the cell it was lost from, its
+     * species and its rank among the organisms of that cell and species
+     * lost to the tile, which keeps it from changing unless the tile does.
+     * The first organism of a species lost to a cell, by far the most
+     * usual, has a key no longer than that of an organism in the field.
+     * @param place The cell and species of the organism (see placeOf).
+     * @param rank Its rank among the lost organisms of the same cell and species.
+     * @param cells The number of cells in the field.
+     * @return The key.
+     */
+    private static long lostKey(long place, int rank, int cells)
+    {
+        return ((rank * placeOf(cells, 0) + place) << 1) | 1;
+    }
+
+    /**
+     * Write an order of organisms as changes to the orders of the last
+     * checkpoint, taken one after the other: the number of organisms; in
+     * turn, the number and keys of organisms new to the order, and the
+     * length and start in the last orders of a run of organisms kept from
+     * them; and the positions and keys of the kept organisms whose keys
+     * changed, since they moved or were lost. With no last orders the
+     * order is written as keys alone.
+     * @param keys The keys of the orders.
+     * @param from The position of the first organism of the order.
+     * @param count The number of organisms in the order.
+     * @param lastIndexes The positions of the organisms in the last orders, or -1 for none.
+     * @param lastKeys The keys of the last orders.
+     * @param out The output.
+     */
+    private static void writeOrder(long[] keys, int from, int count, int[] lastIndexes,
+                                   long[] lastKeys, MappedOutput out) throws IOException
+    {
+        out.ensure(4).putInt(count);
+        // The new organisms not yet written, from the given position.
+        int newFirst = from;
+        // The current run: its start in the last orders and in this one, and its length.
+        int runStart = 0;
+        int runFirst = 0;
+        int runLength = 0;
+        int[] patches = new int[16];
+        int patchCount = 0;
+        for(int index = from; index < from + count; index++) {
+            int last = lastIndexes[index];
+            if(last >= 0 && runLength > 0 && last == runStart + runLength) {
+                runLength++;
+            }
+            else {
+                if(runLength > 1) {
+                    writeRun(keys, newFirst, runFirst, runStart, runLength, out);
+                    newFirst = runFirst + runLength;
+                }
+                else if(runLength == 1 && patchCount > 0 && patches[patchCount - 1] == runFirst) {
+                    // A run of one organism is no shorter than its key, so it is written as new.
+                    patchCount--;
+                }
+                runLength = 0;
+                if(last >= 0) {
+                    runStart = last;
+                    runFirst = index;
+                    runLength = 1;
+                }
+            }
+            if(last >= 0 && lastKeys[last] != keys[index]) {
+                if(patchCount == patches.length) {
+                    patches = Arrays.copyOf(patches, 2 * patchCount);
+                }
+                patches[patchCount++] = index;
+            }
+        }
+        if(runLength > 1) {
+            writeRun(keys, newFirst, runFirst, runStart, runLength, out);
+        }
+        else {
+            if(runLength == 1 && patchCount > 0 && patches[patchCount - 1] == runFirst) {
+                patchCount--;
+            }
+            if(newFirst < from + count) {
+                writeNew(keys, newFirst, from + count, out);
+            }
+        }
+        out.ensure(4).putInt(patchCount);
+        int position = from;
+        for(int patch = 0; patch < patchCount; patch++) {
+            putVarLong(out.ensure(20), patches[patch] - position);
+            putVarLong(out.getBuffer(), keys[patches[patch]]);
+            position = patches[patch];
+        }
+    }
+
+    /**
+     * Write a run of organisms kept from the last orders, and the new
+     * organisms before it.
+     * @param keys The keys of the orders.
+     * @param newFirst The position of the first new organism.
+     * @param runFirst The position of the run, after the new organisms.
+     * @param runStart The start of the run in the last orders.
+     * @param runLength The length of the run.
+     * @param out The output.
+     */
+    private static void writeRun(long[] keys, int newFirst, int runFirst, int runStart, int runLength,
+                                 Checkpoint.Output out) throws IOException
+    {
+        writeNew(keys, newFirst, runFirst, out);
+        putVarLong(out.ensure(20), runLength);
+        putVarLong(out.getBuffer(), runStart);
+    }
+
+    /**
+     * Write the number and keys of some new organisms.
+     * @param keys The keys of the orders.
+     * @param first The position of the first organism.
+     * @param end The position after the last one.
+     * @param out The output.
+     */
+    private static void writeNew(long[] keys, int first, int end, Checkpoint.Output out) throws IOException
+    {
+        putVarLong(out.ensure(10), end - first);
+        for(int index = first; index < end; index++) {
+            putVarLong(out.ensure(10), keys[index]);
+        }
+    }
+
+    /**
+     * Write an order of organisms as keys alone, as for a base.
+     * @param keys The keys, or null if there is no such order.
+     * @param out The output.
+     */
+    private static void writeOrder(long[] keys, Checkpoint.Output out) throws IOException
+    {
+        if(keys == null) {
+            out.ensure(4).putInt(Checkpoint.NONE);
+            return;
+        }
+        out.ensure(4).putInt(keys.length);
+        if(keys.length > 0) {
+            writeNew(keys, 0, keys.length, out);
+        }
+        out.ensure(4).putInt(0);
+    }
+
+    /**
+     * Read an order of organisms written by writeOrder.
+     * @param entry The bytes of the checkpoint, positioned at the order.
+     * @param last The keys of the orders of the checkpoint before, one after
+     *             the other, or null if there is none.
+     * @return The keys of the order, or null if there is no such order.
+     */
+    private static long[] readOrder(ByteBuffer entry, long[] last) throws IOException
+    {
+        int count = entry.getInt();
+        if(count == Checkpoint.NONE) {
+            return null;
+        }
+        long[] keys = new long[count];
+        int position = 0;
+        while(position < count) {
+            for(int fresh = (int) getVarLong(entry); fresh > 0; fresh--) {
+                keys[position++] = getVarLong(entry);
+            }
+            if(position < count) {
+                int length = (int) getVarLong(entry);
+                int start = (int) getVarLong(entry);
+                if(last == null || length <= 0) {
+                    throw new IOException("Corrupt checkpoint store: bad run of an order");
+                }
+                System.arraycopy(last, start, keys, position, length);
+                position += length;
+            }
+        }
+        position = 0;
+        for(int patches = entry.getInt(); patches > 0; patches--) {
+            position += (int) getVarLong(entry);
+            keys[position] = getVarLong(entry);
+        }
+        return keys;
+    }
+
+    /**
+     * Put a non-negative number in as few bytes as it needs, seven bits a byte.
+     * @param buffer The buffer.
+     * @param value The number.
+     */
+    private static void putVarLong(ByteBuffer buffer, long value)
+    {
+        while((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Get a number put by putVarLong.
+     * @param buffer The buffer.
+     * @return The number.
+     */
+    private static long getVarLong(ByteBuffer buffer)
+    {
+        long value = 0;
+        for(int shift = 0; ; shift += 7) {
+            byte next = buffer.get();
+            value |= (long) (next & 0x7F) << shift;
+            if(next >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Count the checkpoints in the file: write the number of checkpoints
+     * and the end of the last one into the header, and force the file.
+     */
+    private void commit()
+    {
+        mapped.putInt(8, entries.size()).putLong(12, end);
+        mapped.force();
+    }
+
+    /**
+     * Merge the checkpoints in the store into a single base holding the
+     * state of the last one. The earlier states can no longer be restored.
+     * @throws IOException If the store cannot be rewritten.
+     */
+    public void compact() throws IOException
+    {
+        if(entries.isEmpty()) {
+            return;
+        }
+        Entry last = entries.get(entries.size() - 1);
+        TreeMap<Integer, ByteBuffer> tiles = mergeTiles(entries.size() - 1);
+        long[][] orders = mergeOrders(entries.size() - 1);
+        ByteBuffer entry = slice(last);
+        ByteBuffer header = takeHeader(entry);
+        int cells = entry.getInt();
+        // The orders of a base are written whole.
+        Checkpoint.Output tailOut = new Checkpoint.Output(ByteBuffer.allocate(1 << 16));
+        writeOrder(orders[0], tailOut);
+        writeOrder(orders[1], tailOut);
+        ByteBuffer tail = tailOut.getBuffer();
+        tail.flip();
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try(FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            int length = 1 + 4 + 4 + header.remaining() + 8 + tail.remaining();
+            for(ByteBuffer tile : tiles.values()) {
+                length += 8 + tile.remaining();
+            }
+            ByteBuffer start = ByteBuffer.allocate(HEADER_SIZE + 4 + 1 + 4 + 4);
+            start.putInt(MAGIC).putInt(VERSION).putInt(1).putLong(HEADER_SIZE + 4L + length);
+            start.position(HEADER_SIZE);
+            start.putInt(length).put(BASE).putInt(last.step).putInt(header.remaining());
+            start.flip();
+            writeFully(out, start, header.duplicate());
+            ByteBuffer count = ByteBuffer.allocate(8).putInt(cells).putInt(tiles.size());
+            count.flip();
+            writeFully(out, count);
+            for(Map.Entry<Integer, ByteBuffer> tile : tiles.entrySet()) {
+                ByteBuffer tileHeader = ByteBuffer.allocate(8);
+                tileHeader.putInt(tile.getKey()).putInt(tile.getValue().remaining());
+                tileHeader.flip();
+                writeFully(out, tileHeader, tile.getValue().duplicate());
+            }
+            writeFully(out, tail.duplicate());
+            out.force(false);
+        }
+        channel.close();
+        mapped = null;
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open();
+        // The records have moved, so the next tiles written are written whole.
+        if(lastRecords != null) {
+            Arrays.fill(lastRecords, null);
+            Arrays.fill(lastPlaced, 0);
+        }
+    }
+
+    /**
+     * Write buffers to a channel.
+     */
+    private static void writeFully(FileChannel out, ByteBuffer... buffers) throws IOException
+    {
+        for(ByteBuffer buffer : buffers) {
+            while(buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Restore the state of the last checkpoint.
+     * @return A new engine in the saved state, making the same kind of steps.
+     * @throws IOException If the store is empty or corrupt.
+     */
+    public SimulationEngine load() throws IOException
+    {
+        if(entries.isEmpty()) {
+            throw new IOException("No checkpoint in " + file);
+        }
+        return loadEntry(entries.size() - 1);
+    }
+
+    /**
+     * Restore the state of the last checkpoint taken at or before a step.
+     * @param step The step.
+     * @return A new engine in the saved state, making the same kind of steps.
+     * @throws IOException If there is no such checkpoint, or the store is corrupt.
+     */
+    public SimulationEngine load(int step) throws IOException
+    {
+        for(int index = entries.size() - 1; index >= 0; index--) {
+            if(entries.get(index).step <= step) {
+                return loadEntry(index);
+            }
+        }
+        throw new IOException("No checkpoint at or before step " + step + " in " + file);
+    }
+
+    /**
+     * Restore the state of a checkpoint. The state is put together as a
+     * full checkpoint, which is then read by Checkpoint.
+     * @param index The index of the checkpoint.
+     * @return A new engine in the saved state.
+     */
+    private SimulationEngine loadEntry(int index) throws IOException
+    {
+        try {
+            TreeMap<Integer, ByteBuffer> tiles = mergeTiles(index);
+            long[][] orders = mergeOrders(index);
+            ByteBuffer entry = slice(entries.get(index));
+            ByteBuffer header = takeHeader(entry);
+            int cells = skipTiles(entry);
+
+            Checkpoint.Output out = new Checkpoint.Output(ByteBuffer.allocate(1 << 16));
+            out.ensure(header.remaining()).put(header);
+            int lostCount = 0;
+            int placedCount = 0;
+            for(ByteBuffer tile : tiles.values()) {
+                placedCount += tile.getInt(0);
+                lostCount += tile.getInt(4);
+            }
+            out.ensure(8).putInt(lostCount).putInt(placedCount);
+            // The index of every organism under its key: the lost ones come
+            // first in a full checkpoint, so the tiles are gone through twice.
+            Map<Long, Integer> indexes = new HashMap<>();
+            for(ByteBuffer tile : tiles.values()) {
+                ByteBuffer records = tile.duplicate();
+                records.position(8);
+                skipRecords(records, records.getInt(0));
+                Map<Long, Integer> ranks = new HashMap<>();
+                for(int lost = records.getInt(4); lost > 0; lost--) {
+                    long place = placeOf(records);
+                    indexes.put(lostKey(place, ranks.merge(place, 1, Integer::sum) - 1, cells), indexes.size());
+                    copyRecord(records, out);
+                }
+            }
+            for(ByteBuffer tile : tiles.values()) {
+                ByteBuffer records = tile.duplicate();
+                records.position(8);
+                for(int placed = tile.getInt(0); placed > 0; placed--) {
+                    indexes.put(placeOf(records) << 1, indexes.size());
+                    copyRecord(records, out);
+                }
+            }
+            writeIndexes(orders[0], indexes, out);
+            writeIndexes(orders[1], indexes, out);
+            out.ensure(4).putInt(Checkpoint.MAGIC);
+
+            ByteBuffer checkpoint = out.getBuffer();
+            checkpoint.flip();
+            return Checkpoint.read(new Checkpoint.Input(checkpoint));
+        }
+        catch(BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new EOFException("Corrupt checkpoint store: " + file);
+        }
+    }
+
+    /**
+     * Put together the tiles of a checkpoint, as of the base before it and
+     * the deltas from the base to the checkpoint.
+     * @param index The index of the checkpoint.
+     * @return The bytes of the tiles holding organisms, by tile number,
+     *         with every organism written whole.
+     */
+    private TreeMap<Integer, ByteBuffer> mergeTiles(int index) throws IOException
+    {
+        int base = index;
+        while(entries.get(base).kind != BASE) {
+            base--;
+        }
+        TreeMap<Integer, ByteBuffer> tiles = new TreeMap<>();
+        for(int merged = base; merged <= index; merged++) {
+            ByteBuffer entry = slice(entries.get(merged));
+            takeHeader(entry);
+            entry.getInt();
+            for(int count = entry.getInt(); count > 0; count--) {
+                int tile = entry.getInt();
+                int bytes = entry.getInt();
+                ByteBuffer tileBytes = entry.slice();
+                tileBytes.limit(bytes);
+                entry.position(entry.position() + bytes);
+                if(tileBytes.getInt(0) + tileBytes.getInt(4) > 0) {
+                    tiles.put(tile, resolveTile(tileBytes, tiles.get(tile)));
+                }
+                else {
+                    tiles.remove(tile);
+                }
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Put the records kept from the last time a tile was written into its bytes.
+     * @param tile The bytes of the tile, as written by writeTile.
+     * @param last The bytes of the tile the last time it was written, with
+     *             every organism written whole, or null if it was empty.
+     * @return The bytes of the tile with every organism written whole.
+     */
+    private static ByteBuffer resolveTile(ByteBuffer tile, ByteBuffer last) throws IOException
+    {
+        // The positions of the last records of the tile, and their end.
+        int[] lastPositions = new int[last != null ? last.getInt(0) + last.getInt(4) + 1 : 1];
+        lastPositions[0] = 8;
+        for(int record = 1; record < lastPositions.length; record++) {
+            lastPositions[record] = lastPositions[record - 1] + 2 + last.getShort(lastPositions[record - 1]);
+        }
+        // The size of the tile once resolved, and whether anything is kept.
+        ByteBuffer items = tile.duplicate();
+        items.position(8);
+        int bytes = 8;
+        boolean kept = false;
+        for(int count = tile.getInt(0) + tile.getInt(4); count > 0; ) {
+            int length = items.getShort();
+            if(length >= 0) {
+                items.position(items.position() + length);
+                bytes += 2 + length;
+                count--;
+            }
+            else {
+                int start = items.getInt();
+                if(start < 0 || start - length >= lastPositions.length) {
+                    throw new IOException("Corrupt checkpoint store: record " + start + " kept from a tile of "
+                                          + (lastPositions.length - 1));
+                }
+                bytes += lastPositions[start - length] - lastPositions[start];
+                count += length;
+                kept = true;
+            }
+        }
+        if(!kept) {
+            return tile;
+        }
+        ByteBuffer resolved = ByteBuffer.allocate(bytes);
+        resolved.putInt(tile.getInt(0)).putInt(tile.getInt(4));
+        items.position(8);
+        for(int count = tile.getInt(0) + tile.getInt(4); count > 0; ) {
+            int length = items.getShort();
+            if(length >= 0) {
+                items.position(items.position() - 2);
+                ByteBuffer record = items.duplicate();
+                record.limit(items.position() + 2 + length);
+                resolved.put(record);
+                items.position(items.position() + 2 + length);
+                count--;
+            }
+            else {
+                int start = items.getInt();
+                ByteBuffer run = last.duplicate();
+                run.limit(lastPositions[start - length]).position(lastPositions[start]);
+                resolved.put(run);
+                count += length;
+            }
+        }
+        resolved.flip();
+        return resolved;
+    }
+
+    /**
+     * Put together the orders of a checkpoint, as of the base before it and
+     * the deltas from the base to the checkpoint.
+     * @param index The index of the checkpoint.
+     * @return The keys of the acting order, and of the dormant order or null.
+     */
+    private long[][] mergeOrders(int index) throws IOException
+    {
+        int base = index;
+        while(entries.get(base).kind != BASE) {
+            base--;
+        }
+        long[] acting = null;
+        long[] dormant = null;
+        long[] last = null;
+        for(int merged = base; merged <= index; merged++) {
+            ByteBuffer entry = slice(entries.get(merged));
+            takeHeader(entry);
+            skipTiles(entry);
+            acting = readOrder(entry, last);
+            dormant = readOrder(entry, last);
+            if(acting == null) {
+                throw new IOException("Corrupt checkpoint store: no acting order");
+            }
+            last = acting;
+            if(dormant != null) {
+                last = Arrays.copyOf(acting, acting.length + dormant.length);
+                System.arraycopy(dormant, 0, last, acting.length, dormant.length);
+            }
+        }
+        return new long[][] { acting, dormant };
+    }
+
+    /**
+     * Return the bytes of a checkpoint, after its length, kind and step.
+     * @param entry The checkpoint.
+     * @return The bytes.
+     */
+    private ByteBuffer slice(Entry entry)
+    {
+        ByteBuffer bytes = mapped.duplicate();
+        bytes.position((int) entry.offset + 9);
+        bytes.limit((int) entry.offset + 4 + entry.length);
+        return bytes.slice();
+    }
+
+    /**
+     * Take the header of the run from the bytes of a checkpoint.
+     * @param entry The bytes of the checkpoint, positioned at the header.
+     * @return The header, as written by Checkpoint.writeHeader.
+     */
+    private static ByteBuffer takeHeader(ByteBuffer entry)
+    {
+        int length = entry.getInt();
+        ByteBuffer header = entry.slice();
+        header.limit(length);
+        entry.position(entry.position() + length);
+        return header;
+    }
+
+    /**
+     * Skip the tiles in the bytes of a checkpoint.
+     * @param entry The bytes of the checkpoint, positioned at the tiles.
+     * @return The number of cells in the field.
+     */
+    private static int skipTiles(ByteBuffer entry)
+    {
+        int cells = entry.getInt();
+        for(int count = entry.getInt(); count > 0; count--) {
+            entry.position(entry.position() + 4);
+            entry.position(entry.position() + 4 + entry.getInt());
+        }
+        return cells;
+    }
+
+    /**
+     * Return the cell and species of the organism of a record (see placeOf).
+     * @param records The records, positioned at the organism.
+     * @return The cell and species.
+     */
+    private static long placeOf(ByteBuffer records)
+    {
+        int start = records.position() + 2;
+        return placeOf(records.getInt(start), records.get(start + 4));
+    }
+
+    /**
+     * Skip the records of some organisms.
+     * @param records The records, positioned at the first organism.
+     * @param count The number of organisms.
+     */
+    private static void skipRecords(ByteBuffer records, int count)
+    {
+        for(; count > 0; count--) {
+            records.position(records.position() + 2 + records.getShort(records.position()));
+        }
+    }
+
+    /**
+     * Copy an organism into a full checkpoint, without its length.
+     * @param records The records, positioned at the organism.
+     * @param out The full checkpoint.
+     */
+    private static void copyRecord(ByteBuffer records, Checkpoint.Output out) throws IOException
+    {
+        int length = records.getShort();
+        ByteBuffer record = records.slice();
+        record.limit(length);
+        records.position(records.position() + length);
+        out.ensure(length).put(record);
+    }
+
+    /**
+     * Write an order of organisms into a full checkpoint, turning keys into
+     * the indexes of the organisms in the full checkpoint.
+     * @param keys The keys of the order, or null if there is no such order.
+     * @param indexes The indexes of the organisms, by key.
+     * @param out The full checkpoint.
+     */
+    private static void writeIndexes(long[] keys, Map<Long, Integer> indexes, Checkpoint.Output out) throws IOException
+    {
+        if(keys == null) {
+            out.ensure(4).putInt(Checkpoint.NONE);
+            return;
+        }
+        out.ensure(4).putInt(keys.length);
+        for(long key : keys) {
+            Integer organism = indexes.get(key);
+            if(organism == null) {
+                throw new IOException("Corrupt checkpoint store: unknown organism " + key);
+            }
+            out.ensure(4).putInt(organism);
+        }
+    }
+
+    /**
+     * Return the number of checkpoints in the store.
+     * @return The number of checkpoints.
+     */
+    public int getCount()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Return the steps of the checkpoints in the store.
+     * @return The steps, in the order the checkpoints were written.
+     */
+    public List<Integer> getSteps()
+    {
+        List<Integer> steps = new ArrayList<>();
+        for(Entry entry : entries) {
+            steps.add(entry.step);
+        }
+        return steps;
+    }
+
+    /**
+     * Return the number of deltas written since the last base.
+     * @return The number of deltas.
+     */
+    private int getDeltasSinceBase()
+    {
+        int deltas = 0;
+        for(int index = entries.size() - 1; index >= 0 && entries.get(index).kind == DELTA; index--) {
+            deltas++;
+        }
+        return deltas;
+    }
+
+    /**
+     * Describe the store.
+     * @return A string with the numbers of checkpoints and bytes, and the
+     *         size of the last checkpoint and the organisms written in it.
+     */
+    public String getStatistics()
+    {
+        int lastBytes = entries.isEmpty() ? 0 : entries.get(entries.size() - 1).length;
+        return "Checkpoints: " + entries.size() + " Bytes: " + end + " Last: " + lastBytes
+               + " bytes, " + lastTiles + " of " + tileCount + " tiles, "
+               + lastWritten + " of " + lastOrganisms + " organisms written";
+    }
+
+    /**
+     * Close the file of the store.
+     * @throws IOException If the file cannot be closed.
+     */
+    public void close() throws IOException
+    {
+        if(mapped != null) {
+            mapped.force();
+        }
+        channel.close();
+    }
+
+    /**
+     * A checkpoint in the file.
+     */
+    private static class Entry
+    {
+        // The position of the checkpoint in the file.
+        private final long offset;
+        // The number of bytes of the checkpoint after its length.
+        private final int length;
+        // Whether the checkpoint is a base or a delta.
+        private final byte kind;
+        // The step of the checkpoint.
+        private final int step;
+
+        /**
+         * Describe a checkpoint.
+         */
+        Entry(long offset, int length, byte kind, int step)
+        {
+            this.offset = offset;
+            this.length = length;
+            this.kind = kind;
+            this.step = step;
+        }
+    }
+
+    /**
+     * Streams bytes into the mapped file from a given position, mapping
+     * more of the file whenever it is full.
+     */
+    private class MappedOutput extends Checkpoint.Output
+    {
+        /**
+         * Create an output into the mapped file.
+         * @param position The position to write from.
+         */
+        MappedOutput(long position)
+        {
+            super((ByteBuffer) mapped.duplicate().position((int) position));
+        }
+
+        @Override
+        ByteBuffer grow(ByteBuffer full, int bytes) throws IOException
+        {
+            int position = full.position();
+            map(Math.max(2L * mapped.capacity(), (long) position + bytes));
+            ByteBuffer larger = mapped.duplicate();
+            larger.position(position);
+            return larger;
+        }
+
+        /**
+         * Leave room for a number to be put later.
+         * @return The position of the number.
+         */
+        int reserveInt() throws IOException
+        {
+            ByteBuffer buffer = ensure(4);
+            int position = buffer.position();
+            buffer.putInt(0);
+            return position;
+        }
+
+        /**
+         * Put the number of bytes written after a reserved number into it.
+         * @param position The position of the reserved number.
+         */
+        void patchLength(int position)
+        {
+            ByteBuffer buffer = getBuffer();
+            buffer.putInt(position, buffer.position() - position - 4);
+        }
+    }
+}
@@ -130,6 +130,30 @@ public class Day
         state = DayState.DAY;
     }
     
+    /**
+     * Return the length of the day part of a day.
+     */
+    public int getDayLength()
+    {
+        return dayLength;
+    }
+    
+    /**
+     * Return the time within the current day.
+     */
+    public int getTime()
+    {
+        return time;
+    }
+    
+    /**
+     * Return the number of the current day.
+     */
+    public int getDayNumber()
+    {
+        return dayNumber;
+    }
+    
     /**
      * Convert the day number to a string and return it.
      */
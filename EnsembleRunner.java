@@ -0,0 +1,236 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Run an ensemble of independent simulations and summarise them.
+ * Every run has its own engine, and so its own field, day and random
+ * streams, derived from the seed of the ensemble and the number of the
+ * run. The runs share nothing, so they are spread over a fixed number
+ * of threads. The populations of all the runs are recorded after every
+ * step and summarised, step by step and species by species, by their
+ * mean, variance and quantiles, and by the share of runs in which the
+ * species is extinct.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.08
+ */
+public class EnsembleRunner
+{
+    // The quantiles reported for the populations.
+    private static final double[] QUANTILES = {0.05, 0.25, 0.5, 0.75, 0.95};
+
+    // The number of runs.
+    private int runs;
+    // The number of steps of every run.
+    private int steps;
+    // The depth and width of the fields.
+    private int depth, width;
+    // The seed from which the seeds of the runs are derived.
+    private long seed;
+    // The number of threads making the runs.
+    private int threads;
+    // The parameters of the runs.
+    private Parameters parameters;
+    // The populations recorded, by run, step and species number.
+    private int[][][] populations;
+
+    /**
+     * Prepare an ensemble of runs.
+     * @param runs The number of runs.
+     * @param steps The number of steps of every run.
+     * @param depth The depth of the fields.
+     * @param width The width of the fields.
+     * @param seed The seed of the ensemble.
+     * @param threads The number of threads making the runs.
+     */
+    public EnsembleRunner(int runs, int steps, int depth, int width, long seed, int threads)
+    {
+        if(runs <= 0 || steps < 0 || threads <= 0) {
+            throw new IllegalArgumentException("Invalid ensemble: " + runs + " runs of " + steps + " steps on " + threads + " threads");
+        }
+        this.runs = runs;
+        this.steps = steps;
+        this.depth = depth;
+        this.width = width;
+        this.seed = seed;
+        this.threads = threads;
+        parameters = Parameters.getDefaults();
+    }
+
+    /**
+     * Set the parameters of the runs.
+     * @param parameters The parameters of the species.
+     */
+    public void setParameters(Parameters parameters)
+    {
+        this.parameters = parameters;
+    }
+
+    /**
+     * Make all the runs, waiting for them to finish.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public void run() throws InterruptedException
+    {
+        populations = new int[runs][][];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<int[][]>> results = new ArrayList<>();
+            for(int run = 0; run < runs; run++) {
+                long runSeed = Randomizer.derive(seed, run);
+                results.add(executor.submit(() -> runOne(runSeed)));
+            }
+            for(int run = 0; run < runs; run++) {
+                populations[run] = results.get(run).get();
+            }
+        }
+        catch(ExecutionException e) {
+            throw new IllegalStateException("A run of the ensemble failed", e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Make one run and record its populations.
+     * @param runSeed The seed of the run.
+     * @return The populations, by step and species number.
+     */
+    private int[][] runOne(long runSeed)
+    {
+        SimulationEngine engine = new SimulationEngine(depth, width, runSeed, parameters);
+        int[][] series = new int[steps + 1][];
+        engine.addObserver((step, day, field) -> {
+            if(step <= steps) {
+                series[step] = countsOf(field);
+            }
+        });
+        engine.simulate(steps);
+        // A run that stopped early keeps its last populations.
+        for(int step = engine.getStep() + 1; step <= steps; step++) {
+            series[step] = series[step - 1];
+        }
+        return series;
+    }
+
+    /**
+     * Return the populations of all the species in a field.
+     * @param field The field.
+     * @return The populations, by species number.
+     */
+    private static int[] countsOf(Field field)
+    {
+        int[] counts = new int[Species.count()];
+        for(int number = 0; number < counts.length; number++) {
+            counts[number] = field.getPopulation(number);
+        }
+        return counts;
+    }
+
+    /**
+     * Write the summary of the runs as comma-separated values, one line
+     * for every step and species.
+     * @param fileName The name of the file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void writeSummary(String fileName) throws IOException
+    {
+        try(PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(fileName)))) {
+            StringBuilder header = new StringBuilder("step,species,mean,variance");
+            for(double quantile : QUANTILES) {
+                header.append(",q").append(Math.round(quantile * 100));
+            }
+            header.append(",extinct");
+            out.println(header);
+
+            double[] values = new double[runs];
+            for(int step = 0; step <= steps; step++) {
+                for(int number = 0; number < Species.count(); number++) {
+                    int extinct = 0;
+                    for(int run = 0; run < runs; run++) {
+                        int[] counts = populations[run][step];
+                        values[run] = number < counts.length ? counts[number] : 0;
+                        if(values[run] == 0) {
+                            extinct++;
+                        }
+                    }
+                    out.println(step + "," + Species.classOf(number).getName() + "," + summarise(values) + "," + (double) extinct / runs);
+                }
+            }
+        }
+    }
+
+    /**
+     * Summarise a sample by its mean, variance and quantiles.
+     * @param values The sample; it is sorted.
+     * @return The summary, as comma-separated values.
+     */
+    private static String summarise(double[] values)
+    {
+        double sum = 0;
+        for(double value : values) {
+            sum += value;
+        }
+        double mean = sum / values.length;
+        double squares = 0;
+        for(double value : values) {
+            squares += (value - mean) * (value - mean);
+        }
+        double variance = values.length > 1 ? squares / (values.length - 1) : 0;
+
+        Arrays.sort(values);
+        StringBuilder summary = new StringBuilder();
+        summary.append(mean).append(',').append(variance);
+        for(double quantile : QUANTILES) {
+            // Interpolate between the two closest values.
+            double position = quantile * (values.length - 1);
+            int below = (int) Math.floor(position);
+            int above = Math.min(below + 1, values.length - 1);
+            double fraction = position - below;
+            summary.append(',').append(values[below] + fraction * (values[above] - values[below]));
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Run an ensemble and write its summary.
+     * @param args The number of runs, the number of steps and the name
+     *             of the results file, optionally followed by the number
+     *             of threads, by the depth and width of the fields and
+     *             by the seed of the ensemble and by a file of parameters.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if(args.length < 3) {
+            System.out.println("Usage: EnsembleRunner runs steps results.csv [threads [depth width [seed [parameters.properties]]]]");
+            return;
+        }
+        int runs = Integer.parseInt(args[0]);
+        int steps = Integer.parseInt(args[1]);
+        String fileName = args[2];
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        int depth = args.length > 5 ? Integer.parseInt(args[4]) : SimulationEngine.DEFAULT_DEPTH;
+        int width = args.length > 5 ? Integer.parseInt(args[5]) : SimulationEngine.DEFAULT_WIDTH;
+        long seed = args.length > 6 ? Long.parseLong(args[6]) : Randomizer.getSeed();
+
+        EnsembleRunner ensemble = new EnsembleRunner(runs, steps, depth, width, seed, threads);
+        if(args.length > 7) {
+            ensemble.setParameters(Parameters.load(Paths.get(args[7])));
+        }
+        long start = System.nanoTime();
+        ensemble.run();
+        long elapsed = System.nanoTime() - start;
+        ensemble.writeSummary(fileName);
+        System.out.println("Runs: " + runs + " Time: " + elapsed / 1000000 + " ms");
+    }
+}
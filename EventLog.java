@@ -0,0 +1,260 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Record the events of a simulation in a binary file: births, deaths,
+ * moves, feedings and infections. Every event is a record of the same
+ * size (see RECORD_SIZE):
+ *
+ * - the step, as an int;
+ * - the kind of event, the species of the organism, the species of the
+ *   other organism or -1, and a detail or -1, as a byte each;
+ * - the cell of the organism and the other cell or -1, as an int each.
+ *
+ * The other organism and cell are the parent and its cell for a birth,
+ * the new cell for a move and the food and its cell for a feeding. The
+ * detail is the type of the virus for an infection.
+ *
+ * Every thread appends its records to a buffer of its own, which is
+ * written to the file whenever it is full, so the records of different
+ * threads come in batches; the step of every record puts them in order.
+ * The names of the species, by species number, follow the records.
+ *
+ * A log is switched on by giving it to a field (see Field.setEventRecorder);
+ * without a recorder, every event costs a single check.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.08
+ */
+public class EventLog implements EventRecorder, Closeable
+{
+    /**
+     * The kinds of events.
+     */
+    public enum Kind
+    {
+        BIRTH,
+        DEATH,
+        MOVE,
+        FEEDING,
+        INFECTION;
+    }
+
+    // The first bytes of a log: "EEVL".
+    private static final int MAGIC = 0x4545564C;
+    // The version of the format written.
+    private static final int VERSION = 1;
+    // The size of the header of the file: magic, version and record size.
+    private static final int HEADER_SIZE = 16;
+    // The size of the trailer of the file: the size of the names, their count and magic.
+    private static final int TRAILER_SIZE = 12;
+    // The size of a record.
+    public static final int RECORD_SIZE = 16;
+    // The number of records a thread keeps before writing them.
+    private static final int BATCH = 4096;
+
+    // The channel of the file.
+    private final FileChannel channel;
+    // The buffer of every thread.
+    private final ThreadLocal<ByteBuffer> buffers;
+    // All the buffers, to be written when the log is closed.
+    private final List<ByteBuffer> allBuffers;
+    // The step being made.
+    private volatile int step;
+    // The number of records written to the file.
+    private long written;
+
+    /**
+     * Create a log, replacing the file if it exists.
+     * @param file The file of the log.
+     * @throws IOException If the file cannot be written.
+     */
+    public EventLog(Path file) throws IOException
+    {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING);
+        allBuffers = new ArrayList<>();
+        buffers = ThreadLocal.withInitial(this::newBuffer);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE);
+        header.position(HEADER_SIZE);
+        header.flip();
+        write(header);
+    }
+
+    /**
+     * Create the buffer of a thread.
+     * @return The buffer.
+     */
+    private ByteBuffer newBuffer()
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BATCH * RECORD_SIZE);
+        synchronized(allBuffers) {
+            allBuffers.add(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Set the step being made, which is recorded with the events.
+     * @param step The step.
+     */
+    public void setStep(int step)
+    {
+        this.step = step;
+    }
+
+    /**
+     * Record an event.
+     * @param kind The kind of event.
+     * @param speciesBit The species of the organism.
+     * @param cell The cell of the organism.
+     * @param otherSpeciesBit The species of the other organism, or 0 if there is none.
+     * @param otherCell The other cell, or -1 if there is none.
+     * @param detail The detail of the event, or -1 if there is none.
+     */
+    public void record(Kind kind, int speciesBit, int cell, int otherSpeciesBit, int otherCell, int detail)
+    {
+        ByteBuffer buffer = buffers.get();
+        if(!buffer.hasRemaining()) {
+            flush(buffer);
+        }
+        buffer.putInt(step);
+        buffer.put((byte) kind.ordinal());
+        buffer.put((byte) Integer.numberOfTrailingZeros(speciesBit));
+        buffer.put((byte) (otherSpeciesBit != 0 ? Integer.numberOfTrailingZeros(otherSpeciesBit) : -1));
+        buffer.put((byte) detail);
+        buffer.putInt(cell);
+        buffer.putInt(otherCell);
+    }
+
+    /**
+     * Write the records in a buffer to the file.
+     * @param buffer The buffer.
+     */
+    private void flush(ByteBuffer buffer)
+    {
+        buffer.flip();
+        try {
+            synchronized(channel) {
+                written += buffer.remaining() / RECORD_SIZE;
+                write(buffer);
+            }
+        }
+        catch(IOException e) {
+            throw new IllegalStateException("Cannot write the event log", e);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Write a buffer to the end of the file.
+     * @param buffer The buffer.
+     */
+    private void write(ByteBuffer buffer) throws IOException
+    {
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Return the number of records written to the file so far.
+     * @return The number of records, not counting those still in buffers.
+     */
+    public long getWritten()
+    {
+        synchronized(channel) {
+            return written;
+        }
+    }
+
+    /**
+     * Write all the records and the names of the species, and close the
+     * file. Only to be called between steps, once the log has been taken
+     * from the field.
+     * @throws IOException If the file cannot be written.
+     */
+    public void close() throws IOException
+    {
+        synchronized(allBuffers) {
+            for(ByteBuffer buffer : allBuffers) {
+                flush(buffer);
+            }
+        }
+        int speciesCount = Species.count();
+        byte[][] speciesNames = new byte[speciesCount][];
+        int namesSize = 0;
+        for(int number = 0; number < speciesCount; number++) {
+            speciesNames[number] = Species.classOf(number).getName().getBytes(StandardCharsets.UTF_8);
+            namesSize += 2 + speciesNames[number].length;
+        }
+        ByteBuffer names = ByteBuffer.allocate(namesSize + TRAILER_SIZE);
+        for(byte[] name : speciesNames) {
+            names.putShort((short) name.length).put(name);
+        }
+        names.putInt(namesSize).putInt(speciesCount).putInt(MAGIC);
+        names.flip();
+        write(names);
+        channel.close();
+    }
+
+    /**
+     * Count the events in a log, by kind and species, and the feedings
+     * by the species of the feeder and of the food.
+     * @param file The file of the log.
+     * @return The counts, one a line.
+     * @throws IOException If the file cannot be read or is not a valid log.
+     */
+    public static String summarise(Path file) throws IOException
+    {
+        try(FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer log = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if(log.limit() < HEADER_SIZE + TRAILER_SIZE || log.getInt(0) != MAGIC
+               || log.getInt(log.limit() - 4) != MAGIC) {
+                throw new IOException("Not a complete event log: " + file);
+            }
+            if(log.getInt(4) != VERSION || log.getInt(8) != RECORD_SIZE) {
+                throw new IOException("Unsupported event log version " + log.getInt(4) + ", expected " + VERSION);
+            }
+            int speciesCount = log.getInt(log.limit() - 8);
+            int namesStart = log.limit() - TRAILER_SIZE - log.getInt(log.limit() - TRAILER_SIZE);
+            String[] names = new String[speciesCount];
+            log.position(namesStart);
+            for(int number = 0; number < speciesCount; number++) {
+                byte[] name = new byte[log.getShort()];
+                log.get(name);
+                names[number] = new String(name, StandardCharsets.UTF_8);
+            }
+
+            Map<String, Long> counts = new TreeMap<>();
+            int lastStep = 0;
+            for(int record = HEADER_SIZE; record + RECORD_SIZE <= namesStart; record += RECORD_SIZE) {
+                lastStep = Math.max(lastStep, log.getInt(record));
+                Kind kind = Kind.values()[log.get(record + 4)];
+                String species = names[log.get(record + 5)];
+                counts.merge(kind + " " + species, 1L, Long::sum);
+                if(kind == Kind.FEEDING) {
+                    counts.merge("FEEDING " + species + " on " + names[log.get(record + 6)], 1L, Long::sum);
+                }
+            }
+            StringBuilder summary = new StringBuilder();
+            summary.append("Events: ").append((namesStart - HEADER_SIZE) / RECORD_SIZE)
+                   .append(" Steps: ").append(lastStep).append('\n');
+            for(Map.Entry<String, Long> count : counts.entrySet()) {
+                summary.append(count.getKey()).append(": ").append(count.getValue()).append('\n');
+            }
+            return summary.toString();
+        }
+    }
+}
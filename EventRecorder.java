@@ -0,0 +1,28 @@
+/**
+ * A recorder of the events of a simulation: births, deaths, moves,
+ * feedings and infections. The organisms report their events to the
+ * recorder of their field, if it has one (see Field.setEventRecorder).
+ * During a parallel step, events are reported by several threads at once.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.08
+ */
+public interface EventRecorder
+{
+    /**
+     * Set the step being made. Called before the step, by the simulation thread.
+     * @param step The step.
+     */
+    void setStep(int step);
+
+    /**
+     * Record an event.
+     * @param kind The kind of event.
+     * @param speciesBit The species of the organism.
+     * @param cell The cell of the organism.
+     * @param otherSpeciesBit The species of the other organism, or 0 if there is none.
+     * @param otherCell The other cell, or -1 if there is none.
+     * @param detail The detail of the event, or -1 if there is none.
+     */
+    void record(EventLog.Kind kind, int speciesBit, int cell, int otherSpeciesBit, int otherCell, int detail);
+}
@@ -1,9 +1,9 @@
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Represent a rectangular grid of field positions.
@@ -15,13 +15,84 @@ import java.util.Random;
  */
 public class Field
 {
-    // A random number generator for providing random locations.
-    private static final Random rand = Randomizer.getRandom();
+    // The marker stored in a slot that holds no organism.
+    private static final int EMPTY = -1;
+    // The width and depth of the tiles whose changes are tracked.
+    private static final int TILE_SIZE = 8;
     
     // The depth and width of the field.
     private int depth, width, capacity;
-    // Storage for the animals.
-    private Object[][][] field;
+    // Storage for the organisms' handles. The field is stored cell by cell
+    // (row-major), with the capacity slots of each cell kept next to each other.
+    private int[] slots;
+    // The number of organisms occupying each cell. The occupants of a cell
+    // always fill the first slots of the cell.
+    private byte[] counts;
+    // For each cell, the mask of the species present in it (see Species).
+    private int[] masks;
+    // The organisms in the field, indexed by their handles. The table is only
+    // written under the field's lock, and is volatile so that a table grown
+    // by one tile thread is seen by the others (see register).
+    private volatile Organism[] organisms;
+    // Handles released by dead organisms, available for reuse.
+    private int[] freeHandles;
+    // The number of handles on the free list.
+    private int freeCount;
+    // The next handle that has never been used.
+    private int nextHandle;
+    // The precomputed neighbourhoods of the cells.
+    private Neighbourhood neighbourhood;
+    // A cursor for walking neighbourhoods, one for each thread.
+    private ThreadLocal<Neighbourhood.Cursor> cursors;
+    // The storage of the next step during a buffered step. It is filled
+    // while the current storage is only read, and the two are swapped
+    // at the end of the step. Allocated when first needed.
+    private int[] nextSlots;
+    private byte[] nextCounts;
+    private int[] nextMasks;
+    // The intents of the organisms during a buffered step, or null
+    // if the organisms change the field directly.
+    private StepIntents intents;
+    // The store keeping the changing state of the organisms in the field,
+    // or null if the organisms keep it themselves.
+    private OrganismStore store;
+    // The pool of dead organisms reused for newborn ones, or null if
+    // newborn organisms are always created.
+    private OrganismPool pool;
+    // The calendar of dormant organisms, or null if all organisms act every step.
+    private Scheduler scheduler;
+    // The recorder of the events in the field, or null if they are not recorded.
+    private EventRecorder eventRecorder;
+    // The organisms cleared or displaced from the field since they were last
+    // taken, some of which may be lost to it, or null if they are not tracked.
+    // A queue is used since the tiles of a parallel step add to it at once.
+    private ConcurrentLinkedQueue<Organism> displaced;
+    // The number of organisms of every species in the field, indexed by
+    // the species' numbers, and the numbers placed in the next step's buffer.
+    // Adders are used since the tiles of a parallel step count at once.
+    private LongAdder[] population;
+    private LongAdder[] nextPopulation;
+    // The number of tiles across the field.
+    private int tileCols;
+    // A version number for every tile, changed whenever an organism is
+    // placed in, cleared from or lost to one of its cells. Readers such as the view
+    // compare it with the version they last saw to skip unchanged tiles.
+    // Tiles of a parallel step may be changed at once; a lost increment
+    // still leaves the version changed.
+    private int[] tileVersions;
+    // A version number for every tile, changed whenever the state of an
+    // organism in one of its cells changes. Readers such as checkpoint
+    // stores compare it, together with the tile's version, with the
+    // version they last saw to skip unchanged tiles.
+    private int[] stateVersions;
+    // For every tile, whether an organism may be in one of its cells, in
+    // the current storage and in the storage of the next step. A tile is
+    // marked when an organism is placed in it and only unmarked when its
+    // storage is emptied, so a buffered step skips the tiles of empty land.
+    private boolean[] occupiedTiles;
+    private boolean[] nextOccupiedTiles;
+    // The parameters of the run the field belongs to.
+    private Parameters parameters;
 
     /**
      * Represent a field of the given dimensions.
@@ -31,23 +102,68 @@ public class Field
      */
     public Field(int depth, int width, int locationCapacity)
     {
+        this(depth, width, locationCapacity, Parameters.getDefaults());
+    }
+
+    /**
+     * Represent a field of the given dimensions, holding organisms with
+     * the given parameters.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param locationCapacity The maximum number of organisms that can occupy the same location.
+     * @param parameters The parameters of the organisms in the field.
+     */
+    public Field(int depth, int width, int locationCapacity, Parameters parameters)
+    {
+        if(locationCapacity <= 0 || locationCapacity > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Location capacity out of range: " + locationCapacity);
+        }
         this.depth = depth;
         this.width = width;
         this.capacity = locationCapacity;
-        field = new Object[locationCapacity][depth][width];
+        slots = new int[depth * width * locationCapacity];
+        counts = new byte[depth * width];
+        masks = new int[depth * width];
+        organisms = new Organism[Math.max(16, depth * width)];
+        freeHandles = new int[16];
+        Arrays.fill(slots, EMPTY);
+        neighbourhood = new Neighbourhood(depth, width);
+        cursors = ThreadLocal.withInitial(Neighbourhood.Cursor::new);
+        population = newPopulation();
+        tileCols = (width + TILE_SIZE - 1) / TILE_SIZE;
+        tileVersions = new int[tileCols * ((depth + TILE_SIZE - 1) / TILE_SIZE)];
+        stateVersions = new int[tileVersions.length];
+        occupiedTiles = new boolean[tileVersions.length];
+        this.parameters = parameters;
+    }
+
+    /**
+     * Return the parameters of the organisms in the field.
+     * @return The parameters of the run.
+     */
+    public Parameters getParameters()
+    {
+        return parameters;
     }
     
     /**
-     * Empty the field.
+     * Empty the field. All the handles are released as well.
      */
     public void clear()
     {
-        for(int row = 0; row < depth; row++) {
-            for(int col = 0; col < width; col++) {
-                for(int counter = 0; counter < capacity; counter++)
-                    field[counter][row][col] = null;
-            }
-        }
+        Arrays.fill(slots, EMPTY);
+        Arrays.fill(counts, (byte) 0);
+        Arrays.fill(masks, 0);
+        Arrays.fill(organisms, null);
+        freeCount = 0;
+        nextHandle = 0;
+        for(LongAdder counter : population)
+            counter.reset();
+        for(int tile = 0; tile < tileVersions.length; tile++)
+            tileVersions[tile]++;
+        Arrays.fill(occupiedTiles, false);
+        // Every organism may now be lost, so tracking has to start again.
+        displaced = null;
     }
     
     /**
@@ -56,8 +172,41 @@ public class Field
      */
     public void clear(Location location)
     {
-        for(int counter = 0; counter < capacity; counter++)
-            field[counter][location.getRow()][location.getCol()] = null;
+        clear(cellIndex(location.getRow(), location.getCol()));
+    }
+    
+    /**
+     * Clear the given cell.
+     * @param cell The index of the cell to clear.
+     */
+    public void clear(int cell)
+    {
+        clear(cell, null);
+    }
+    
+    /**
+     * Clear the given cell, which an organism is leaving. The organism
+     * dies or is placed again, so unlike the other occupants of the cell
+     * it cannot be lost to the field.
+     * @param cell The index of the cell to clear.
+     * @param leaving The organism leaving the cell.
+     */
+    public void clear(int cell, Organism leaving)
+    {
+        int base = cell * capacity;
+        for(int counter = 0; counter < counts[cell]; counter++)
+        {
+            Organism occupant = organisms[slots[base + counter]];
+            if(displaced != null && occupant != leaving)
+                displaced.add(occupant);
+            slots[base + counter] = EMPTY;
+        }
+        counts[cell] = 0;
+        // A cell holds at most one organism of each species.
+        for(int mask = masks[cell]; mask != 0; mask &= mask - 1)
+            population[Integer.numberOfTrailingZeros(mask)].decrement();
+        masks[cell] = 0;
+        tileVersions[tileOf(cell)]++;
     }
     
     /**
@@ -65,13 +214,13 @@ public class Field
      * If there is already an organism of the same type 
      * at the location it will be lost.
      * 
-     * @param animal The animal to be placed.
+     * @param organism The organism to be placed.
      * @param row Row coordinate of the location.
      * @param col Column coordinate of the location.
      */
-    public void place(Object animal, int row, int col)
+    public void place(Organism organism, int row, int col)
     {
-        place(animal, new Location(row, col));
+        place(organism, cellIndex(row, col));
     }
     
     /**
@@ -79,21 +228,423 @@ public class Field
      * If there is already an organism of the same type 
      * at the location it will be lost.
      * 
-     * @param animal The animal to be placed.
-     * @param location Where to place the animal.
+     * @param organism The organism to be placed.
+     * @param location Where to place the organism.
+     */
+    public void place(Organism organism, Location location)
+    {
+        place(organism, cellIndex(location.getRow(), location.getCol()));
+    }
+    
+    /**
+     * Place an organism in the given cell.
+     * If there is already an organism of the same type 
+     * in the cell it will be lost.
+     * 
+     * @param organism The organism to be placed.
+     * @param cell The index of the cell.
      */
-    public void place(Object organism, Location location)
+    public void place(Organism organism, int cell)
     {
-        int row = location.getRow();
-        int col = location.getCol();
-        for(int counter = 0; counter < capacity; counter++)
+        int base = cell * capacity;
+        int count = counts[cell];
+        if((masks[cell] & organism.getSpeciesBit()) != 0)
         {
-            if(field[counter][row][col] == null || field[counter][row][col].getClass() == organism.getClass())
+            // Replace the organism of the same type.
+            for(int counter = 0; counter < count; counter++)
             {
-                field[counter][row][col] = organism;
-                break;
-            }    
+                Organism replaced = organisms[slots[base + counter]];
+                if(replaced.getClass() == organism.getClass())
+                {
+                    if(displaced != null && replaced != organism)
+                        displaced.add(replaced);
+                    slots[base + counter] = handleOf(organism);
+                    tileVersions[tileOf(cell)]++;
+                    return;
+                }
+            }
         }
+        if(count < capacity)
+        {
+            slots[base + count] = handleOf(organism);
+            counts[cell] = (byte) (count + 1);
+            masks[cell] |= organism.getSpeciesBit();
+            population[Integer.numberOfTrailingZeros(organism.getSpeciesBit())].increment();
+            tileVersions[tileOf(cell)]++;
+            occupiedTiles[tileOf(cell)] = true;
+        }
+        else
+        {
+            // The cell is full, so the organism is lost to the tile of its cell.
+            tileVersions[tileOf(cell)]++;
+            if(displaced != null)
+                displaced.add(organism);
+        }
+    }
+    
+    /**
+     * Start a buffered step. Until the buffers are swapped, the field
+     * as seen by all the other methods is a snapshot of the previous
+     * step: the organisms only record their intents, and the
+     * organisms of the next step are placed with placeNext.
+     * 
+     * @param stepIntents The container for the intents of the step.
+     */
+    public void beginBuffering(StepIntents stepIntents)
+    {
+        if(nextSlots == null) {
+            nextSlots = new int[slots.length];
+            nextCounts = new byte[counts.length];
+            nextMasks = new int[masks.length];
+            nextPopulation = newPopulation();
+            nextOccupiedTiles = new boolean[occupiedTiles.length];
+            Arrays.fill(nextSlots, EMPTY);
+        }
+        // Only the tiles that may hold organisms need to be emptied.
+        for(int tile = 0; tile < nextOccupiedTiles.length; tile++) {
+            if(nextOccupiedTiles[tile]) {
+                emptyNextTile(tile);
+                nextOccupiedTiles[tile] = false;
+            }
+        }
+        for(LongAdder counter : nextPopulation)
+            counter.reset();
+        intents = stepIntents;
+    }
+    
+    /**
+     * Return whether a buffered step is being made.
+     * @return true between beginBuffering and swapBuffers.
+     */
+    public boolean isBuffered()
+    {
+        return intents != null;
+    }
+    
+    /**
+     * Return the intents of the current buffered step.
+     * @return The intents, or null if no buffered step is being made.
+     */
+    public StepIntents getIntents()
+    {
+        return intents;
+    }
+    
+    /**
+     * Set the store in which organisms created in the field keep their
+     * changing state.
+     * @param store The store, or null if the organisms keep their state themselves.
+     */
+    public void setStore(OrganismStore store)
+    {
+        this.store = store;
+    }
+    
+    /**
+     * Return the store of the organisms in the field.
+     * @return The store, or null if there is none.
+     */
+    public OrganismStore getStore()
+    {
+        return store;
+    }
+    
+    /**
+     * Set the pool from which newborn organisms in the field are taken.
+     * @param pool The pool, or null if newborn organisms are always created.
+     */
+    public void setPool(OrganismPool pool)
+    {
+        this.pool = pool;
+    }
+    
+    /**
+     * Return the pool of dead organisms of the field.
+     * @return The pool, or null if there is none.
+     */
+    public OrganismPool getPool()
+    {
+        return pool;
+    }
+    
+    /**
+     * Set the recorder of the events in the field.
+     * @param eventRecorder The recorder, or null if the events are not recorded.
+     */
+    public void setEventRecorder(EventRecorder eventRecorder)
+    {
+        this.eventRecorder = eventRecorder;
+    }
+    
+    /**
+     * Return the recorder of the events in the field.
+     * @return The recorder, or null if there is none.
+     */
+    public EventRecorder getEventRecorder()
+    {
+        return eventRecorder;
+    }
+    
+    /**
+     * Start or stop tracking the organisms cleared or displaced from the
+     * field. An organism can only be lost to the field, being alive but in
+     * none of its cells, when it is displaced by one of its own species,
+     * finds its cell full, or shares a cell cleared by another organism,
+     * so only the organisms displaced in these ways are tracked. Tracking stops when
+     * the whole field is cleared. Only one user may track a field at once.
+     * @param tracking true to track the organisms, false to stop.
+     */
+    public void setTrackingLost(boolean tracking)
+    {
+        displaced = tracking ? new ConcurrentLinkedQueue<>() : null;
+    }
+    
+    /**
+     * @return true if the organisms displaced from the field are tracked.
+     */
+    public boolean isTrackingLost()
+    {
+        return displaced != null;
+    }
+    
+    /**
+     * Take the organisms cleared or displaced from the field since they
+     * were last taken. Some may since have died or been placed again, and
+     * an organism may be taken more than once.
+     * @return The organisms, or an empty list if they are not tracked.
+     */
+    public List<Organism> takeDisplaced()
+    {
+        List<Organism> taken = new ArrayList<>();
+        if(displaced != null)
+        {
+            for(Organism organism = displaced.poll(); organism != null; organism = displaced.poll())
+                taken.add(organism);
+        }
+        return taken;
+    }
+    
+    /**
+     * Set the calendar of the dormant organisms in the field.
+     * @param scheduler The calendar, or null if all organisms act every step.
+     */
+    public void setScheduler(Scheduler scheduler)
+    {
+        this.scheduler = scheduler;
+    }
+    
+    /**
+     * Return the calendar of the dormant organisms in the field.
+     * @return The calendar, or null if there is none.
+     */
+    public Scheduler getScheduler()
+    {
+        return scheduler;
+    }
+    
+    /**
+     * Place an organism in the given cell of the next step's buffer.
+     * Unlike place, an organism of the same type already in the cell is
+     * not replaced: the organism placed first keeps the cell.
+     * 
+     * @param organism The organism to be placed.
+     * @param cell The index of the cell.
+     * @return true if the organism was placed, false if the cell was taken.
+     */
+    public boolean placeNext(Organism organism, int cell)
+    {
+        int count = nextCounts[cell];
+        if((nextMasks[cell] & organism.getSpeciesBit()) != 0 || count == capacity) {
+            return false;
+        }
+        nextSlots[cell * capacity + count] = handleOf(organism);
+        nextCounts[cell] = (byte) (count + 1);
+        nextMasks[cell] |= organism.getSpeciesBit();
+        nextPopulation[Integer.numberOfTrailingZeros(organism.getSpeciesBit())].increment();
+        nextOccupiedTiles[tileOf(cell)] = true;
+        return true;
+    }
+    
+    /**
+     * End a buffered step: the buffer of the next step becomes the
+     * current state of the field. Nothing is copied, and only the tiles
+     * holding organisms in either buffer are compared to find the tiles
+     * that changed.
+     */
+    public void swapBuffers()
+    {
+        // Only the tiles in which some cell changes get a new version; a
+        // tile empty in both storages cannot have changed.
+        for(int tile = 0; tile < tileVersions.length; tile++) {
+            if((occupiedTiles[tile] || nextOccupiedTiles[tile]) && nextTileDiffers(tile)) {
+                tileVersions[tile]++;
+            }
+        }
+        int[] swappedSlots = slots;
+        slots = nextSlots;
+        nextSlots = swappedSlots;
+        byte[] swappedCounts = counts;
+        counts = nextCounts;
+        nextCounts = swappedCounts;
+        int[] swappedMasks = masks;
+        masks = nextMasks;
+        nextMasks = swappedMasks;
+        LongAdder[] swappedPopulation = population;
+        population = nextPopulation;
+        nextPopulation = swappedPopulation;
+        boolean[] swappedOccupied = occupiedTiles;
+        occupiedTiles = nextOccupiedTiles;
+        nextOccupiedTiles = swappedOccupied;
+        intents = null;
+    }
+    
+    /**
+     * Abandon a buffered step, leaving the field as it was before
+     * the step began.
+     */
+    public void cancelBuffering()
+    {
+        intents = null;
+    }
+    
+    /**
+     * Return whether any cell of the given tile differs between the
+     * current storage and the storage of the next step.
+     * @param tile The number of the tile.
+     * @return true if the tile differs.
+     */
+    private boolean nextTileDiffers(int tile)
+    {
+        int firstRow = tile / tileCols * TILE_SIZE;
+        int firstCol = tile % tileCols * TILE_SIZE;
+        int lastCol = Math.min(firstCol + TILE_SIZE, width);
+        for(int row = firstRow; row < Math.min(firstRow + TILE_SIZE, depth); row++) {
+            int end = (row * width + lastCol) * capacity;
+            for(int slot = (row * width + firstCol) * capacity; slot < end; slot++) {
+                if(slots[slot] != nextSlots[slot]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Empty the cells of the given tile in the storage of the next step.
+     * @param tile The number of the tile.
+     */
+    private void emptyNextTile(int tile)
+    {
+        int firstRow = tile / tileCols * TILE_SIZE;
+        int firstCol = tile % tileCols * TILE_SIZE;
+        int lastCol = Math.min(firstCol + TILE_SIZE, width);
+        for(int row = firstRow; row < Math.min(firstRow + TILE_SIZE, depth); row++) {
+            int from = row * width + firstCol;
+            int to = row * width + lastCol;
+            Arrays.fill(nextSlots, from * capacity, to * capacity, EMPTY);
+            Arrays.fill(nextCounts, from, to, (byte) 0);
+            Arrays.fill(nextMasks, from, to, 0);
+        }
+    }
+    
+    /**
+     * Return the number of organisms of a species in the field. The number
+     * is kept up to date as organisms are placed and cleared.
+     * @param speciesNumber The number of the species (see Species.numberOf).
+     * @return The number of organisms of the species in the field.
+     */
+    public int getPopulation(int speciesNumber)
+    {
+        return (int) population[speciesNumber].sum();
+    }
+    
+    /**
+     * Return the width and depth of the tiles whose changes are tracked.
+     * @return The size of a tile.
+     */
+    public int getTileSize()
+    {
+        return TILE_SIZE;
+    }
+    
+    /**
+     * Return the number of tiles whose changes are tracked.
+     * Tiles are numbered row by row.
+     * @return The number of tiles.
+     */
+    public int getTileCount()
+    {
+        return tileVersions.length;
+    }
+    
+    /**
+     * Return the number of tiles across the field.
+     * @return The number of tiles in a row of tiles.
+     */
+    public int getTileCols()
+    {
+        return tileCols;
+    }
+    
+    /**
+     * Return the version of a tile, which changes whenever an organism
+     * is placed in, cleared from or lost to one of its cells.
+     * @param tile The number of the tile.
+     * @return The version of the tile.
+     */
+    public int getTileVersion(int tile)
+    {
+        return tileVersions[tile];
+    }
+    
+    /**
+     * Note that the state of an organism in a cell has changed.
+     * @param cell The index of the cell.
+     */
+    public void markChanged(int cell)
+    {
+        stateVersions[tileOf(cell)]++;
+    }
+    
+    /**
+     * Return the state version of a tile, which changes whenever the
+     * state of an organism in one of its cells changes.
+     * @param tile The number of the tile.
+     * @return The state version of the tile.
+     */
+    public int getStateVersion(int tile)
+    {
+        return stateVersions[tile];
+    }
+    
+    /**
+     * Return the tile holding the given cell.
+     * @param cell The index of the cell.
+     * @return The number of the tile.
+     */
+    public int tileOf(int cell)
+    {
+        return (cell / width / TILE_SIZE) * tileCols + (cell % width) / TILE_SIZE;
+    }
+    
+    /**
+     * Release the handle of an organism that is no longer part of the field,
+     * so that it can be reused for another organism. The organism should
+     * have been cleared from its location beforehand.
+     * 
+     * @param organism The organism whose handle is released.
+     */
+    public synchronized void release(Organism organism)
+    {
+        int handle = organism.getHandle();
+        if(handle >= 0 && handle < nextHandle && organisms[handle] == organism)
+        {
+            organisms[handle] = null;
+            if(freeCount == freeHandles.length)
+                freeHandles = Arrays.copyOf(freeHandles, freeCount * 2);
+            freeHandles[freeCount++] = handle;
+        }
+        organism.setHandle(EMPTY);
     }
     
     /**
@@ -114,15 +665,126 @@ public class Field
      */
     public List<Object> getObjectsAt(int row, int col)
     {
-        List<Object> organisms = new ArrayList<>();
+        int cell = cellIndex(row, col);
+        int base = cell * capacity;
+        List<Object> occupants = new ArrayList<>(counts[cell]);
         
-        for(int counter = 0; counter < capacity; counter++)
-        {
-            if(field[counter][row][col] != null)
-                organisms.add(field[counter][row][col]);
-        }
+        for(int counter = 0; counter < counts[cell]; counter++)
+            occupants.add(organisms[slots[base + counter]]);
         
-        return organisms;
+        return occupants;
+    }
+    
+    /**
+     * Return the number of organisms at the given location.
+     * @param row The desired row.
+     * @param col The desired column.
+     * @return The number of organisms at the given location.
+     */
+    public int getOccupantCount(int row, int col)
+    {
+        return counts[cellIndex(row, col)];
+    }
+    
+    /**
+     * Return one of the organisms at the given location, without
+     * creating a list of all of them.
+     * @param row The desired row.
+     * @param col The desired column.
+     * @param index The index of the occupant, between 0 and getOccupantCount(row, col) - 1.
+     * @return The organism at the given index.
+     */
+    public Organism getOccupant(int row, int col, int index)
+    {
+        return organisms[slots[cellIndex(row, col) * capacity + index]];
+    }
+    
+    /**
+     * Return the number of organisms in the given cell.
+     * @param cell The index of the cell.
+     * @return The number of organisms in the cell.
+     */
+    public int getOccupantCount(int cell)
+    {
+        return counts[cell];
+    }
+    
+    /**
+     * Return one of the organisms in the given cell.
+     * @param cell The index of the cell.
+     * @param index The index of the occupant, between 0 and getOccupantCount(cell) - 1.
+     * @return The organism at the given index.
+     */
+    public Organism getOccupant(int cell, int index)
+    {
+        return organisms[slots[cell * capacity + index]];
+    }
+    
+    /**
+     * Check whether the given cell is free from the point of view
+     * of the specified organism, i.e. it holds no organism of the same type.
+     * @param cell The index of the cell.
+     * @param testedOrganism The organism for which the cell is tested.
+     * @return true if the cell is free for the organism.
+     */
+    public boolean isFreeFor(int cell, Object testedOrganism)
+    {
+        return (masks[cell] & bitOf(testedOrganism)) == 0;
+    }
+    
+    /**
+     * Return the mask of the species present in the given cell.
+     * A species is present if the bit given to it by Species is set.
+     * @param cell The index of the cell.
+     * @return The mask of the species in the cell.
+     */
+    public int getSpeciesMask(int cell)
+    {
+        return masks[cell];
+    }
+    
+    /**
+     * Check whether any of the given species is present in the given cell.
+     * @param cell The index of the cell.
+     * @param speciesMask The mask of the species looked for.
+     * @return true if at least one of the species is in the cell.
+     */
+    public boolean containsAny(int cell, int speciesMask)
+    {
+        return (masks[cell] & speciesMask) != 0;
+    }
+    
+    /**
+     * Pass every organism at the given location to the visitor.
+     * No objects are created in the process.
+     * @param row The desired row.
+     * @param col The desired column.
+     * @param visitor The visitor to receive the organisms.
+     */
+    public void visitOccupants(int row, int col, OccupantVisitor visitor)
+    {
+        int cell = cellIndex(row, col);
+        int base = cell * capacity;
+        for(int counter = 0; counter < counts[cell]; counter++)
+            visitor.visit(organisms[slots[base + counter]], row, col);
+    }
+    
+    /**
+     * Pass every organism in the field to the visitor, location by location.
+     * No objects are created in the process.
+     * @param visitor The visitor to receive the organisms.
+     */
+    public void visitAll(OccupantVisitor visitor)
+    {
+        Organism[] organisms = this.organisms;
+        int cell = 0;
+        for(int row = 0; row < depth; row++) {
+            for(int col = 0; col < width; col++, cell++) {
+                int base = cell * capacity;
+                for(int counter = 0; counter < counts[cell]; counter++)
+                    visitor.visit(organisms[slots[base + counter]], row, col);
+            }
+        }
     }
     
     /**
@@ -135,8 +797,13 @@ public class Field
      */
     public Location randomAdjacentLocation(Location location)
     {
-        List<Location> adjacent = adjacentLocations(location);
-        return adjacent.get(0);
+        Neighbourhood.Cursor cursor = cursor();
+        adjacentCells(cellIndex(location.getRow(), location.getCol()), cursor);
+        if(cursor.hasNext()) {
+            int cell = cursor.next();
+            return locationOf(cell);
+        }
+        return location;
     }
     
     /**
@@ -153,28 +820,12 @@ public class Field
     public List<Location> getFreeAdjacentLocations(Location location, Object testedOrganism)
     {
         List<Location> free = new LinkedList<>();
-        List<Location> adjacent = adjacentLocations(location);
-        for(Location next : adjacent) {
-            List<Object> organisms = getObjectsAt(next);
-            
-            if(organisms.isEmpty()) {
-                free.add(next);
-            }
-            else
-            {
-                boolean containsSame = false;
-                for(Object organism : organisms)
-                {
-                    if(organism.getClass() == testedOrganism.getClass())
-                    {
-                        containsSame = true;
-                        break;
-                    }
-                }
-                
-                if(!containsSame)
-                    free.add(next);
-            }
+        Neighbourhood.Cursor cursor = cursor();
+        adjacentCells(cellIndex(location.getRow(), location.getCol()), cursor);
+        while(cursor.hasNext()) {
+            int cell = cursor.next();
+            if(isFreeFor(cell, testedOrganism))
+                free.add(locationOf(cell));
         }
         return free;
     }
@@ -186,17 +837,34 @@ public class Field
      */
     public List<Object> getSameAdjecentOccupants(Location location, Object testedOrganism)
     {
-        List<Object> organisms = new ArrayList<>();
-        List<Location> adjacent = adjacentLocations(location);
-        for(Location next : adjacent) {
-            List<Object> occupants = getObjectsAt(next);
-            
-            for(Object occupant : occupants)    // if the list is empty the loop is not executed
+        return getSameAdjecentOccupants(cellIndex(location.getRow(), location.getCol()), testedOrganism);
+    }
+    
+    /**
+     * Get a shuffled list of the adjacent organisms of the same type.
+     * @param cell Get the organisms in the cells adjacent to this.
+     * @param testedOrganism The organism whose type is looked for.
+     * @return A list of adjacent organisms of the same type.
+     */
+    public List<Object> getSameAdjecentOccupants(int cell, Object testedOrganism)
+    {
+        List<Object> same = new ArrayList<>();
+        int bit = bitOf(testedOrganism);
+        Neighbourhood.Cursor cursor = cursor();
+        adjacentCells(cell, cursor);
+        while(cursor.hasNext()) {
+            int next = cursor.next();
+            if((masks[next] & bit) == 0)
+                continue;
+            int base = next * capacity;
+            for(int counter = 0; counter < counts[next]; counter++) {
+                Organism occupant = organisms[slots[base + counter]];
                 if(occupant.getClass() == testedOrganism.getClass())
-                    organisms.add(occupant);
+                    same.add(occupant);
+            }
         }
         
-        return organisms;
+        return same;
     }
     
     /**
@@ -209,15 +877,77 @@ public class Field
      */
     public Location freeAdjacentLocation(Location location, Object organism)
     {
-        // The available free ones.
-        List<Location> free = getFreeAdjacentLocations(location, organism);
-        if(free.size() > 0) {
-            return free.get(0);
+        int cell = freeAdjacentCell(cellIndex(location.getRow(), location.getCol()), organism);
+        if(cell >= 0) {
+            return locationOf(cell);
         }
         else {
             return null;
         }
     }
+    
+    /**
+     * Try to find a cell adjacent to the given one that is free
+     * from the point of view of the specified organism.
+     * @param cell The index of the cell from which to search.
+     * @param testedOrganism The organism for which the cells are tested.
+     * @return The index of a random free adjacent cell, or -1 if there is none.
+     */
+    public int freeAdjacentCell(int cell, Object testedOrganism)
+    {
+        Neighbourhood.Cursor cursor = cursor();
+        adjacentCells(cell, cursor);
+        while(cursor.hasNext()) {
+            int next = cursor.next();
+            if(isFreeFor(next, testedOrganism))
+                return next;
+        }
+        return -1;
+    }
+    
+    /**
+     * Walk the cells adjacent to the given one in a random order,
+     * passing each of them to the visitor until it accepts one.
+     * The walk creates no objects. The visitor must not walk
+     * another neighbourhood of this field itself.
+     * @param cell The index of the cell from which to search.
+     * @param visitor The visitor testing the cells.
+     * @return The index of the cell accepted by the visitor, or -1 if none was.
+     */
+    public int findAdjacentCell(int cell, CellVisitor visitor)
+    {
+        Neighbourhood.Cursor cursor = cursor();
+        adjacentCells(cell, cursor);
+        while(cursor.hasNext()) {
+            int next = cursor.next();
+            if(visitor.visit(next))
+                return next;
+        }
+        return -1;
+    }
+    
+    /**
+     * Position the cursor at the start of a random ordering of the cells
+     * adjacent to the given one. The cursor will not return the cell
+     * itself, and all the cells it returns lie within the grid.
+     * @param cell The index of the cell from which to generate adjacencies.
+     * @param cursor The cursor to reposition.
+     */
+    public void adjacentCells(int cell, Neighbourhood.Cursor cursor)
+    {
+        neighbourhood.shuffled(cell, Randomizer.getRandom(), cursor);
+    }
+    
+    /**
+     * Return the cursor reserved for walking neighbourhoods on the
+     * current thread. It is shared by all the methods of the field,
+     * so it must not be held across calls to them.
+     * @return The current thread's cursor.
+     */
+    public Neighbourhood.Cursor cursor()
+    {
+        return cursors.get();
+    }
 
     /**
      * Return a shuffled list of locations adjacent to the given one.
@@ -232,30 +962,129 @@ public class Field
         // The list of locations to be returned.
         List<Location> locations = new LinkedList<>();
         if(location != null) {
-            int row = location.getRow();
-            int col = location.getCol();
-            for(int roffset = -1; roffset <= 1; roffset++) {
-                int nextRow = row + roffset;
-                if(nextRow >= 0 && nextRow < depth) {
-                    for(int coffset = -1; coffset <= 1; coffset++) {
-                        int nextCol = col + coffset;
-                        // Exclude invalid locations and the original location.
-                        if(nextCol >= 0 && nextCol < width && (roffset != 0 || coffset != 0)) {
-                            locations.add(new Location(nextRow, nextCol));
-                        }
-                    }
-                }
+            // The cursor walks the locations in a random order. Several other
+            // methods rely on the list being in a random order.
+            Neighbourhood.Cursor cursor = cursor();
+            adjacentCells(cellIndex(location.getRow(), location.getCol()), cursor);
+            while(cursor.hasNext()) {
+                int cell = cursor.next();
+                locations.add(locationOf(cell));
             }
-            
-            // Shuffle the list. Several other methods rely on the list
-            // being in a random order.
-            Collections.shuffle(locations, rand);
         }
         return locations;
     }
     
+    /**
+     * Return the index of the cell at the given position.
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @return The index of the cell in the row-major order.
+     */
+    public int cellIndex(int row, int col)
+    {
+        return row * width + col;
+    }
+    
+    /**
+     * Return the location of the given cell. Locations are only a view
+     * of the cells; the field itself works with the cell indices.
+     * @param cell The index of the cell.
+     * @return A new location with the row and column of the cell.
+     */
+    public Location locationOf(int cell)
+    {
+        return new Location(rowOf(cell), colOf(cell));
+    }
+    
+    /**
+     * Return the row of the given cell.
+     * @param cell The index of the cell.
+     * @return The row of the cell.
+     */
+    public int rowOf(int cell)
+    {
+        return cell / width;
+    }
+    
+    /**
+     * Return the column of the given cell.
+     * @param cell The index of the cell.
+     * @return The column of the cell.
+     */
+    public int colOf(int cell)
+    {
+        return cell % width;
+    }
+    
+    /**
+     * Create a counter for every possible species.
+     * @return The counters.
+     */
+    private static LongAdder[] newPopulation()
+    {
+        LongAdder[] counters = new LongAdder[Integer.SIZE];
+        for(int number = 0; number < counters.length; number++)
+            counters[number] = new LongAdder();
+        return counters;
+    }
+    
+    /**
+     * Return the bit standing for the species of the given object.
+     * @param organism The object whose species is wanted.
+     * @return A mask with only the species' bit set.
+     */
+    private static int bitOf(Object organism)
+    {
+        if(organism instanceof Organism)
+            return ((Organism) organism).getSpeciesBit();
+        return Species.bitOf(organism.getClass());
+    }
+    
+    /**
+     * Return the handle of the organism, registering the organism
+     * with the field if it does not have one yet.
+     * @param organism The organism whose handle is wanted.
+     * @return The organism's handle.
+     */
+    private int handleOf(Organism organism)
+    {
+        Organism[] table = organisms;
+        int handle = organism.getHandle();
+        if(handle >= 0 && handle < table.length && table[handle] == organism)
+            return handle;
+        return register(organism);
+    }
+    
+    /**
+     * Give the organism a new handle. Organisms in different parts of
+     * the field may be registered by different threads at the same time:
+     * the table is only written under the lock, so an organism a thread
+     * did not find in a table it read before another thread grew it is
+     * looked for again before it is given a second handle, and a grown
+     * table is only published once it holds the new organism.
+     * @param organism The organism to register.
+     * @return The organism's handle.
+     */
+    private synchronized int register(Organism organism)
+    {
+        Organism[] table = organisms;
+        int handle = organism.getHandle();
+        if(handle >= 0 && handle < table.length && table[handle] == organism)
+            return handle;
+        if(freeCount > 0) {
+            handle = freeHandles[--freeCount];
+        }
+        else {
+            handle = nextHandle++;
+            if(handle == table.length)
+                table = Arrays.copyOf(table, handle * 2);
+        }
+        table[handle] = organism;
+        organism.setHandle(handle);
+        organisms = table;
+        return handle;
+    }
     
-
     /**
      * Return the depth of the field.
      * @return The depth of the field.
@@ -273,4 +1102,31 @@ public class Field
     {
         return width;
     }
+    
+    /**
+     * A visitor testing the cells of the field one at a time.
+     */
+    public interface CellVisitor
+    {
+        /**
+         * Test a cell.
+         * @param cell The index of the cell.
+         * @return true to accept the cell and stop the walk.
+         */
+        boolean visit(int cell);
+    }
+    
+    /**
+     * A visitor receiving the organisms of the field one at a time.
+     */
+    public interface OccupantVisitor
+    {
+        /**
+         * Receive an organism and its position.
+         * @param occupant The organism.
+         * @param row The row of the organism's location.
+         * @param col The column of the organism's location.
+         */
+        void visit(Organism occupant, int row, int col);
+    }
 }
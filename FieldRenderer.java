@@ -0,0 +1,214 @@
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Render a field in two stages. The simulation thread takes a snapshot
+ * of the field: the number of the species shown in every cell, that of
+ * its highest organism by display rank (see Species). Only the tiles of
+ * the field changed since the last snapshot are looked at again, and
+ * the bands of tiles are disjoint, so they can be looked at in parallel
+ * for large fields. Any thread can then render a snapshot into a raster
+ * of packed ARGB pixels, one pixel for every cell, row by row, in the
+ * colours of the species, again in parallel for large fields. The
+ * colours and ranks are kept by species number, so that both stages
+ * only read arrays.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.08
+ */
+public class FieldRenderer
+{
+    // The colour of empty cells, followed by the colours of the species
+    // by species number, as packed ARGB pixels. The array is replaced
+    // whenever a colour changes, since it is read by the rendering thread.
+    private volatile int[] palette;
+    // The display ranks of the species as last taken from Species,
+    // by species number; the lower the rank, the higher the species.
+    private int[] ranks;
+    // The species shown in every cell as of the last snapshot.
+    private byte[] shown;
+    // The versions of the field's tiles as of the last snapshot, or null
+    // if the whole field has to be looked at.
+    private int[] snapshotVersions;
+    // The field the last snapshot was taken of.
+    private Field snapshotField;
+    // Whether the bands of tiles and the rows of pixels are done in parallel.
+    private boolean parallel;
+
+    /**
+     * Create a renderer.
+     * @param emptyColor The colour of empty cells.
+     * @param unknownColor The colour of species that have no defined colour.
+     */
+    public FieldRenderer(Color emptyColor, Color unknownColor)
+    {
+        int[] colors = new int[Integer.SIZE + 1];
+        Arrays.fill(colors, unknownColor.getRGB());
+        colors[0] = emptyColor.getRGB();
+        palette = colors;
+        ranks = new int[Integer.SIZE];
+    }
+
+    /**
+     * Define the colour of a species.
+     * @param speciesClass The class of the species.
+     * @param color The colour of the species.
+     */
+    public synchronized void setColor(Class<?> speciesClass, Color color)
+    {
+        int[] colors = palette.clone();
+        colors[Species.numberOf(speciesClass) + 1] = color.getRGB();
+        palette = colors;
+    }
+
+    /**
+     * Set whether the bands of tiles and the rows of pixels are done in parallel.
+     * @param parallel true to work in parallel.
+     */
+    public void setParallel(boolean parallel)
+    {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Make the next snapshot look at the whole field.
+     */
+    public void invalidate()
+    {
+        snapshotVersions = null;
+    }
+
+    /**
+     * Take a snapshot of a field. Only to be called by the thread
+     * changing the field, between steps.
+     * @param step The current step.
+     * @param day The current day.
+     * @param field The field.
+     * @param populationDetails The populations of the field.
+     * @return The snapshot.
+     */
+    public FrameSnapshot snapshot(int step, Day day, Field field, String populationDetails)
+    {
+        int[] newRanks = Species.getDisplayRanks();
+        if(!Arrays.equals(ranks, newRanks)) {
+            ranks = newRanks;
+            snapshotVersions = null;
+        }
+        if(snapshotVersions == null || field != snapshotField) {
+            snapshotField = field;
+            snapshotVersions = new int[field.getTileCount()];
+            shown = new byte[field.getDepth() * field.getWidth()];
+            lookAll(field, true);
+        }
+        else {
+            lookAll(field, false);
+        }
+        return new FrameSnapshot(step, String.valueOf(day.getDayState()), populationDetails,
+                                 field.getDepth(), field.getWidth(), shown.clone());
+    }
+
+    /**
+     * Look at the changed tiles of a field, band by band.
+     * @param field The field.
+     * @param all Whether all the tiles are looked at.
+     */
+    private void lookAll(Field field, boolean all)
+    {
+        int bands = field.getTileCount() / field.getTileCols();
+        if(parallel) {
+            IntStream.range(0, bands).parallel().forEach(band -> lookAtBand(field, band, all));
+        }
+        else {
+            for(int band = 0; band < bands; band++) {
+                lookAtBand(field, band, all);
+            }
+        }
+    }
+
+    /**
+     * Look at the changed tiles of one band of tiles.
+     * @param field The field.
+     * @param band The row of tiles.
+     * @param all Whether all the tiles are looked at.
+     */
+    private void lookAtBand(Field field, int band, boolean all)
+    {
+        int tileSize = field.getTileSize();
+        int width = field.getWidth();
+        int top = band * tileSize;
+        int bottom = Math.min(top + tileSize, field.getDepth());
+        for(int tile = band * field.getTileCols(); tile < (band + 1) * field.getTileCols(); tile++) {
+            int version = field.getTileVersion(tile);
+            if(!all && version == snapshotVersions[tile]) {
+                continue;
+            }
+            snapshotVersions[tile] = version;
+            int left = tile % field.getTileCols() * tileSize;
+            int right = Math.min(left + tileSize, width);
+            for(int row = top; row < bottom; row++) {
+                int cell = row * width + left;
+                for(int col = left; col < right; col++, cell++) {
+                    shown[cell] = speciesShown(field, cell);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the species shown in a cell: that of its highest organism,
+     * the later of two equally high ones.
+     * @param field The field.
+     * @param cell The index of the cell.
+     * @return The number of the species, or FrameSnapshot.EMPTY.
+     */
+    private byte speciesShown(Field field, int cell)
+    {
+        int count = field.getOccupantCount(cell);
+        if(count == 0) {
+            return FrameSnapshot.EMPTY;
+        }
+        int shownNumber = Integer.numberOfTrailingZeros(field.getOccupant(cell, 0).getSpeciesBit());
+        for(int index = 1; index < count; index++) {
+            int number = Integer.numberOfTrailingZeros(field.getOccupant(cell, index).getSpeciesBit());
+            if(ranks[number] <= ranks[shownNumber]) {
+                shownNumber = number;
+            }
+        }
+        return (byte) shownNumber;
+    }
+
+    /**
+     * Render a snapshot into a raster.
+     * @param frame The snapshot.
+     * @param pixels The raster, holding frame.getWidth() pixels a row.
+     */
+    public void render(FrameSnapshot frame, int[] pixels)
+    {
+        int[] colors = palette;
+        int width = frame.getWidth();
+        if(parallel) {
+            IntStream.range(0, frame.getDepth()).parallel().forEach(row -> renderRow(frame, pixels, colors, row * width, width));
+        }
+        else {
+            for(int row = 0; row < frame.getDepth(); row++) {
+                renderRow(frame, pixels, colors, row * width, width);
+            }
+        }
+    }
+
+    /**
+     * Render one row of a snapshot.
+     * @param frame The snapshot.
+     * @param pixels The raster.
+     * @param colors The palette.
+     * @param start The index of the first cell of the row.
+     * @param width The number of cells in the row.
+     */
+    private static void renderRow(FrameSnapshot frame, int[] pixels, int[] colors, int start, int width)
+    {
+        for(int cell = start; cell < start + width; cell++) {
+            pixels[cell] = colors[frame.speciesAt(cell) + 1];
+        }
+    }
+}
@@ -1,12 +1,15 @@
 import java.awt.Color;
 import java.util.HashMap;
-import java.util.List;
 
 /**
  * This class collects and provides some statistical data on the state 
  * of a field. It is flexible: it will create and maintain a counter 
  * for any class of object that is found within the field.
  * 
+ * The counts are taken from the population counters the field keeps up
+ * to date as organisms are placed and cleared, so no scan of the field
+ * is needed. A full scan is only made to check those counters.
+ * 
  * @author David J. Barnes and Michael Kölling
  *          extended by Kamil Kuzara and Hedi Gharbi
  * @version 2016.02.29
@@ -37,7 +40,7 @@ public class FieldStats
     {
         StringBuffer buffer = new StringBuffer();
         if(!countsValid) {
-            generateCounts(field);
+            updateCounts(field);
         }
         for(Class key : counters.keySet()) {
             Counter info = counters.get(key);
@@ -96,7 +99,7 @@ public class FieldStats
         // How many counts are non-zero.
         int nonZero = 0;
         if(!countsValid) {
-            generateCounts(field);
+            updateCounts(field);
         }
         for(Class key : counters.keySet()) {
             Counter info = counters.get(key);
@@ -107,6 +110,47 @@ public class FieldStats
         return nonZero > 1;
     }
     
+    /**
+     * Check the population counters of the field against a full scan
+     * of the field. Afterwards the counts are those of the scan.
+     * @param field The field to check.
+     * @return true if the counters agree with the scan.
+     */
+    public boolean checkCounts(Field field)
+    {
+        generateCounts(field);
+        for(int number = 0; number < Species.count(); number++) {
+            Counter count = counters.get(Species.classOf(number));
+            int scanned = count != null ? count.getCount() : 0;
+            if(scanned != field.getPopulation(number)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Take the counts from the population counters of the field.
+     * @param field The field to take the counts from.
+     */
+    private void updateCounts(Field field)
+    {
+        reset();
+        for(int number = 0; number < Species.count(); number++) {
+            int population = field.getPopulation(number);
+            Class<?> speciesClass = Species.classOf(number);
+            Counter count = counters.get(speciesClass);
+            if(count == null && population > 0) {
+                count = new Counter(speciesClass.getName());
+                counters.put(speciesClass, count);
+            }
+            if(count != null) {
+                count.add(population);
+            }
+        }
+        countsValid = true;
+    }
+    
     /**
      * Generate counts of the number of foxes and rabbits.
      * These are not kept up to date as foxes and rabbits
@@ -117,16 +161,7 @@ public class FieldStats
     private void generateCounts(Field field)
     {
         reset();
-        for(int row = 0; row < field.getDepth(); row++) {
-            for(int col = 0; col < field.getWidth(); col++) {
-                List<Object> organisms = field.getObjectsAt(row, col);
-                if(!organisms.isEmpty()){
-                    for(Object next : organisms) {
-                        incrementCount(next.getClass());
-                    }
-                }
-            }
-         }
+        field.visitAll((organism, row, col) -> incrementCount(organism.getClass()));
         countsValid = true;
     }
 }
@@ -10,75 +10,18 @@ import java.util.List;
  */
 public class Fox extends Predator
 {
-    // Characteristics shared by all foxes (class variables).
-    
-    // The age at which a fox can start to breed.
-    private static final int REPRODUCTION_AGE = 12;
-    // The age to which a fox can live.
-    private static final int MAX_AGE = 150;
-    // The likelihood of a fox breeding.
-    private static final double REPRODUCTION_PROBABILITY = 0.12;
-    // The maximum number of births.
-    private static final int MAX_REPRODUCTION_SIZE = 2;
-    // The food value of a single prey animal. In effect, this is the
-    // number of steps a fox can go before it has to eat again.
-    private static final int FOOD_VALUE = 20;
-    
-    
     /**
      * Create a fox. A fox can be created as a new born (age zero
      * and not hungry) or with a random age and food level.
      * 
      * @param randomAge If true, the fox will have random age and hunger level.
-     * @param MAX_AGE The maximum age of the fox.
-     * @param FOOD_VALUE The food value of the fox.
      * @param field The field currently occupied.
-     * @param location The location within the field.
+     * @param cell The index of the cell within the field.
      * @param geneList The genes possessed by the fox.
      */
-    public Fox(boolean randomAge, Field field, Location location, List<Gene> geneList)
-    {
-        super(randomAge, MAX_AGE, FOOD_VALUE, field, location, geneList);
-    }
-    
-    /**
-     * This method returns the minimum age for the fox to be able to breed.
-     */
-    public int getReproductionAge()
+    public Fox(boolean randomAge, Field field, int cell, List<Gene> geneList)
     {
-        return REPRODUCTION_AGE;
-    }
-    
-    /**
-     * This method returns the maximum age the fox can live.
-     */
-    public int getMaxAge()
-    {
-        return MAX_AGE;
-    }
-    
-    /**
-     * This method returns the likelihood of the fox's reproduction.
-     */
-    public double getReproductionProbability()
-    {
-        return REPRODUCTION_PROBABILITY;
-    }
-    
-    /**
-     * This method returns the maximum number of births that the fox can give.
-     */
-    public int getMaxReproductionSize()
-    {
-        return MAX_REPRODUCTION_SIZE;
-    }
-    
-    /**
-     * This method returns the number of steps left for the fox to be able to eat again.
-     */
-    public int getFoodValue()
-    {
-        return FOOD_VALUE;
+        super(randomAge, field, cell, geneList);
     }
     
     /**
@@ -86,9 +29,12 @@ public class Fox extends Predator
      * New births will be made into free adjacent locations.
      * @param newFoxes A list to return newly born foxes.
      */ 
-    public void giveBirth(List<Organism> newFoxes, List<Gene> childrenGenes, Field field, Location location)
+    public void giveBirth(List<Organism> newFoxes, List<Gene> childrenGenes, Field field, int cell)
     {
-        Fox young = new Fox(false, field, location, childrenGenes);
+        Animal young = recycle(field, cell, childrenGenes);
+        if(young == null) {
+            young = new Fox(false, field, cell, childrenGenes);
+        }
         newFoxes.add(young);
     }
     
@@ -0,0 +1,96 @@
+/**
+ * An immutable picture of the simulation at one step, taken by the
+ * simulation thread and shown by the view later on another thread.
+ * It keeps, for every cell, the number of the species shown in it
+ * (see FieldRenderer), together with the texts of the status labels,
+ * so that showing it needs nothing from the field.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.08
+ */
+public class FrameSnapshot
+{
+    // The value of an empty cell.
+    public static final byte EMPTY = -1;
+
+    // The step shown.
+    private final int step;
+    // The state of the day at the step.
+    private final String dayState;
+    // The populations at the step.
+    private final String populationDetails;
+    // The depth and width of the field.
+    private final int depth, width;
+    // The number of the species shown in every cell, row by row, or EMPTY.
+    private final byte[] species;
+
+    /**
+     * Create a frame.
+     * @param step The step shown.
+     * @param dayState The state of the day at the step.
+     * @param populationDetails The populations at the step.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param species The species shown in every cell, row by row; the
+     *                frame takes the array over, so it must not be changed.
+     */
+    public FrameSnapshot(int step, String dayState, String populationDetails, int depth, int width, byte[] species)
+    {
+        this.step = step;
+        this.dayState = dayState;
+        this.populationDetails = populationDetails;
+        this.depth = depth;
+        this.width = width;
+        this.species = species;
+    }
+
+    /**
+     * @return The step shown.
+     */
+    public int getStep()
+    {
+        return step;
+    }
+
+    /**
+     * @return The state of the day at the step.
+     */
+    public String getDayState()
+    {
+        return dayState;
+    }
+
+    /**
+     * @return The populations at the step.
+     */
+    public String getPopulationDetails()
+    {
+        return populationDetails;
+    }
+
+    /**
+     * @return The depth of the field.
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * @return The width of the field.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Return the species shown in a cell.
+     * @param cell The index of the cell.
+     * @return The number of the species, or EMPTY.
+     */
+    public int speciesAt(int cell)
+    {
+        return species[cell];
+    }
+}
@@ -1,5 +1,7 @@
 /**
  * Represent a location in a rectangular grid.
+ * The simulation itself identifies locations by the index of their
+ * cell in the field; a Location is a readable view of such an index.
  * 
  * @author David J. Barnes and Michael Kölling
  * @version 2016.02.29
@@ -45,14 +47,15 @@ public class Location
     }
     
     /**
-     * Use the top 16 bits for the row value and the bottom for
-     * the column. Except for very big grids, this should give a
-     * unique hash code for each (row, col) pair.
+     * Spread the row over all the bits with a large odd multiplier
+     * and add the column. Unlike shifting the row into the top 16 bits,
+     * this does not make whole rows collide once a grid is wider
+     * than 65536 columns.
      * @return A hashcode for the location.
      */
     public int hashCode()
     {
-        return (row << 16) + col;
+        return row * 0x9E3779B1 + col;
     }
     
     /**
@@ -0,0 +1,215 @@
+import java.util.Random;
+
+/**
+ * Precomputed neighbourhoods of the cells of a rectangular grid.
+ * The grid is addressed by cell indices in row-major order. Every cell
+ * belongs to one of the classes interior, edge or corner, and all the cells
+ * of a class share a table of index offsets to their neighbours. Random
+ * orderings of the neighbours are taken from a table holding every
+ * permutation of up to eight elements, so walking a shuffled neighbourhood
+ * creates no objects.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.01
+ */
+public class Neighbourhood
+{
+    // The largest number of neighbours a cell can have.
+    private static final int MAX_NEIGHBOURS = 8;
+    // Flags describing on which borders of the grid a cell lies.
+    private static final int TOP = 1, BOTTOM = 2, LEFT = 4, RIGHT = 8;
+    // The number of different cell classes given by the flags.
+    private static final int CLASSES = 16;
+    // The factorials of 0 to MAX_NEIGHBOURS.
+    private static final int[] FACTORIALS = new int[MAX_NEIGHBOURS + 1];
+    // For every size n, all the permutations of n elements, n entries each.
+    private static final byte[][] PERMUTATIONS = new byte[MAX_NEIGHBOURS + 1][];
+
+    static {
+        FACTORIALS[0] = 1;
+        for(int n = 1; n <= MAX_NEIGHBOURS; n++)
+            FACTORIALS[n] = FACTORIALS[n - 1] * n;
+        for(int n = 0; n <= MAX_NEIGHBOURS; n++)
+            PERMUTATIONS[n] = permutations(n);
+    }
+
+    // The depth and width of the grid.
+    private int depth, width;
+    // The offsets of the neighbours for each cell class.
+    private int[][] offsets;
+
+    /**
+     * Precompute the neighbourhoods of a grid of the given size.
+     * @param depth The depth of the grid.
+     * @param width The width of the grid.
+     */
+    public Neighbourhood(int depth, int width)
+    {
+        this.depth = depth;
+        this.width = width;
+        offsets = new int[CLASSES][];
+        for(int cellClass = 0; cellClass < CLASSES; cellClass++)
+            offsets[cellClass] = offsetsFor(cellClass);
+    }
+
+    /**
+     * Return the number of neighbours of the given cell.
+     * @param cell The index of the cell.
+     * @return The number of cells adjacent to it.
+     */
+    public int countOf(int cell)
+    {
+        return offsets[classOf(cell)].length;
+    }
+
+    /**
+     * Position the cursor at the start of a random ordering of the
+     * neighbours of the given cell.
+     * @param cell The index of the cell whose neighbours are walked.
+     * @param rand The random generator choosing the ordering.
+     * @param cursor The cursor to reposition.
+     */
+    public void shuffled(int cell, Random rand, Cursor cursor)
+    {
+        int[] cellOffsets = offsets[classOf(cell)];
+        int size = cellOffsets.length;
+        cursor.reset(cell, cellOffsets, size * rand.nextInt(FACTORIALS[size]));
+    }
+
+    /**
+     * Position the cursor at the start of the neighbours of the given cell,
+     * in a fixed order.
+     * @param cell The index of the cell whose neighbours are walked.
+     * @param cursor The cursor to reposition.
+     */
+    public void ordered(int cell, Cursor cursor)
+    {
+        // The first permutation of each size is the identity.
+        cursor.reset(cell, offsets[classOf(cell)], 0);
+    }
+
+    /**
+     * Return the class of the given cell.
+     * @param cell The index of the cell.
+     * @return The combination of border flags of the cell.
+     */
+    private int classOf(int cell)
+    {
+        int row = cell / width;
+        int col = cell - row * width;
+        int cellClass = 0;
+        if(row == 0)
+            cellClass |= TOP;
+        if(row == depth - 1)
+            cellClass |= BOTTOM;
+        if(col == 0)
+            cellClass |= LEFT;
+        if(col == width - 1)
+            cellClass |= RIGHT;
+        return cellClass;
+    }
+
+    /**
+     * Compute the neighbour offsets of a cell class.
+     * @param cellClass The combination of border flags.
+     * @return The index offsets of the cells adjacent to a cell of that class.
+     */
+    private int[] offsetsFor(int cellClass)
+    {
+        int[] found = new int[MAX_NEIGHBOURS];
+        int count = 0;
+        for(int roffset = -1; roffset <= 1; roffset++) {
+            if((roffset < 0 && (cellClass & TOP) != 0) || (roffset > 0 && (cellClass & BOTTOM) != 0))
+                continue;
+            for(int coffset = -1; coffset <= 1; coffset++) {
+                if((coffset < 0 && (cellClass & LEFT) != 0) || (coffset > 0 && (cellClass & RIGHT) != 0))
+                    continue;
+                // Exclude the original location.
+                if(roffset != 0 || coffset != 0)
+                    found[count++] = roffset * width + coffset;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(found, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Generate all the permutations of n elements, one after another.
+     * The first permutation is the identity.
+     * @param n The number of elements.
+     * @return An array of n! permutations of n entries each.
+     */
+    private static byte[] permutations(int n)
+    {
+        byte[] result = new byte[FACTORIALS[n] * n];
+        byte[] current = new byte[n];
+        for(int index = 0; index < FACTORIALS[n]; index++) {
+            // Decode the index in the factorial number system.
+            boolean[] used = new boolean[n];
+            int rest = index;
+            for(int position = 0; position < n; position++) {
+                int choice = rest / FACTORIALS[n - 1 - position];
+                rest %= FACTORIALS[n - 1 - position];
+                int element = 0;
+                while(used[element] || choice > 0) {
+                    if(!used[element])
+                        choice--;
+                    element++;
+                }
+                used[element] = true;
+                current[position] = (byte) element;
+            }
+            System.arraycopy(current, 0, result, index * n, n);
+        }
+        return result;
+    }
+
+    /**
+     * A reusable cursor walking the neighbours of one cell.
+     * A cursor is repositioned by Neighbourhood.shuffled or
+     * Neighbourhood.ordered and then read with hasNext and next.
+     */
+    public static class Cursor
+    {
+        // The cell whose neighbours are walked.
+        private int origin;
+        // The offsets of the neighbours.
+        private int[] offsets;
+        // The permutation table for the number of neighbours.
+        private byte[] permutation;
+        // The start of the chosen permutation within the table.
+        private int start;
+        // The number of neighbours already returned.
+        private int position;
+
+        /**
+         * Reposition the cursor.
+         */
+        private void reset(int origin, int[] offsets, int start)
+        {
+            this.origin = origin;
+            this.offsets = offsets;
+            this.permutation = PERMUTATIONS[offsets.length];
+            this.start = start;
+            position = 0;
+        }
+
+        /**
+         * @return true if there are neighbours left to walk.
+         */
+        public boolean hasNext()
+        {
+            return offsets != null && position < offsets.length;
+        }
+
+        /**
+         * Return the next neighbour.
+         * @return The index of the next adjacent cell.
+         */
+        public int next()
+        {
+            return origin + offsets[permutation[start + position++]];
+        }
+    }
+}
@@ -1,3 +1,4 @@
+import java.nio.ByteBuffer;
 import java.util.Random;
 import java.util.List;
 import java.util.HashMap;
@@ -12,10 +13,8 @@ import java.util.HashMap;
 public abstract class Organism
 {
     // Characteristics shared by all organisms (class variables).
-    // A shared random number generator to control reproduction.
-    private static final Random rand = Randomizer.getRandom();
     // A shared mapping of the virus types to their gene equivalences.
-    private static HashMap<Virus.VirusType, Animal.Gene> diseaseMap;
+    private static final HashMap<Virus.VirusType, Animal.Gene> diseaseMap = new HashMap<>();
     // The number by which the stepsLeft variable decreases when an organism is infected with the TYPE1 virus.
     private static final int TYPE1_STEPS_DECREASE = 2;
     // The number by which the stepsLeft variable decreases when an organism is infected with the TYPE2 virus.
@@ -23,34 +22,99 @@ public abstract class Organism
     // The number by which the stepsLeft variable decreases when an organism is infected with the TYPE3 virus.
     private static final int TYPE3_STEPS_DECREASE = 8;
     
+    static {
+        diseaseMap.put(Virus.VirusType.TYPE1, Animal.Gene.TYPE1);
+        diseaseMap.put(Virus.VirusType.TYPE2, Animal.Gene.TYPE2);
+        diseaseMap.put(Virus.VirusType.TYPE3, Animal.Gene.TYPE3);
+    }
+    
     // Individual characteristics (instance fields).
     // Whether the organism is alive or not.
     private boolean alive;
     // The organism's field.
     private Field field;
-    // The organism's position in the field.
-    private Location location;
+    // The organism's position in the field, packed into the index of its cell,
+    // or -1 if the organism is not in the field.
+    private int cell;
+    // The cell the organism intends to occupy at the end of a buffered step,
+    // or -1 if it intends to stay where it is.
+    private int nextCell;
     // The organism's age.
     private int age;
     // The number of steps left for the organism to live. It may be affected by a disease.
     private int stepsLeft;
+    // The handle under which the field stores the organism, or -1 if it has none.
+    private int handle;
+    // The organism's position in the orders of the last checkpoint a store
+    // saved it in, and the number of that checkpoint, or 0 if it was never saved.
+    private int savedIndex;
+    private int savedMark;
+    // The bit standing for the organism's species in the field's masks.
+    private int speciesBit;
+    // The block of the field's store holding the organism's age, steps left
+    // and food level, or null if the organism keeps them itself.
+    private OrganismStore.Block block;
+    // The organism's slot in its block.
+    private int slot;
+    // The step up to which the organism's age is known while it is dormant
+    // in a scheduler, or -1 if the organism acts every step.
+    private int syncStep;
+    // The step at which a dormant organism wakes up.
+    private int wakeStep;
+    // Whether the organism was woken up to breed, so that its breeding succeeds.
+    private boolean breedDue;
+    // The traits of the organism's species, taken from the parameters of its field.
+    private Parameters.Traits traits;
     
     /**
      * Constructor for the new objects of type Organism.
      * 
      * @param randomAge Whether the plant has a random age or not.
-     * @param maxAge The maximum age to which the animal may live.
      * @param field The field currently occupied.
-     * @param location The location within the field.
+     * @param cell The index of the cell within the field.
+     */
+    public Organism(boolean randomAge, Field field, int cell)
+    {
+        init(randomAge, field, cell);
+    }
+    
+    /**
+     * Bring a dead organism from a pool back to life as a newborn
+     * organism in the given cell.
+     * 
+     * @param field The field the organism is born into.
+     * @param cell The index of the cell within the field.
      */
-    public Organism(boolean randomAge, int maxAge, Field field, Location location)
+    void reinitialise(Field field, int cell)
+    {
+        init(false, field, cell);
+    }
+    
+    /**
+     * Set up the state of a new organism. Used by the constructor
+     * and to bring dead organisms back to life.
+     * 
+     * @param randomAge Whether the organism has a random age or not.
+     * @param field The field currently occupied.
+     * @param cell The index of the cell within the field.
+     */
+    private void init(boolean randomAge, Field field, int cell)
     {
         alive = true;
+        handle = -1;
+        savedMark = 0;
+        syncStep = -1;
+        breedDue = false;
+        speciesBit = Species.bitOf(getClass());
+        traits = field.getParameters().traitsOf(speciesBit);
+        int maxAge = traits.getMaxAge();
+        this.cell = -1;
+        nextCell = -1;
         this.field = field;
-        setLocation(location);
+        setCell(cell);
         
         if(randomAge) {
-            age = rand.nextInt(maxAge);
+            age = Randomizer.getRandom().nextInt(maxAge);
             stepsLeft = maxAge - age;
         }
         else {
@@ -58,43 +122,234 @@ public abstract class Organism
             stepsLeft = maxAge;
         }
         
-        if(diseaseMap == null)
-        {
-            diseaseMap = new HashMap<>();
-            diseaseMap.put(Virus.VirusType.TYPE1, Animal.Gene.TYPE1);
-            diseaseMap.put(Virus.VirusType.TYPE2, Animal.Gene.TYPE2);
-            diseaseMap.put(Virus.VirusType.TYPE3, Animal.Gene.TYPE3);
+        if(field.getStore() != null) {
+            store(field.getStore());
         }
     }
     
     /**
      * This method returns the minimum age for the organism to be able to reproduce.
      */
-    abstract public int getReproductionAge();
+    public int getReproductionAge()
+    {
+        return traits.getReproductionAge();
+    }
     
     /**
      * This method returns the maximum age the organism can live.
      */
-    abstract public int getMaxAge();
+    public int getMaxAge()
+    {
+        return traits.getMaxAge();
+    }
     
     /**
      * This method returns the likelihood of the organism's reproduction.
      */
-    abstract public double getReproductionProbability();
+    public double getReproductionProbability()
+    {
+        return traits.getReproductionProbability();
+    }
     
     /**
      * This method returns the maximum number of new organisms that the organism can give.
      */
-    abstract public int getMaxReproductionSize();
+    public int getMaxReproductionSize()
+    {
+        return traits.getMaxReproductionSize();
+    }
+    
+    /**
+     * Return the traits of the organism's species in the current run.
+     * @return The traits, taken from the parameters of the organism's field.
+     */
+    protected Parameters.Traits getTraits()
+    {
+        return traits;
+    }
+    
+    /**
+     * Make this organism act - that is: make it grow older and,
+     * if it survives, do whatever it wants/needs to do.
+     * 
+     * @param newOrganisms A list to receive newly created organisms.
+     * @param day The current day.
+     */
+    public void act(List<Organism> newOrganisms, Day day)
+    {
+        markChanged();
+        growOlder();
+        if(isAlive()) {
+            live(newOrganisms, day);
+        }
+    }
     
     /**
-     * Make this organism act - that is: make it do
-     * whatever it wants/needs to do.
+     * Make the organism one step older. This could result in its death.
+     * Only the organism's own state is changed.
+     */
+    abstract protected void growOlder();
+    
+    /**
+     * Make this organism do whatever it wants/needs to do during a step,
+     * once it has grown older and survived.
      * 
      * @param newOrganisms A list to receive newly created organisms.
      * @param day The current day.
      */
-    abstract public void act(List<Organism> newOrganisms, Day day);
+    abstract protected void live(List<Organism> newOrganisms, Day day);
+    
+    /**
+     * Return whether the organism may be left dormant in a scheduler,
+     * i.e. whether it only ages, grows and tries to breed on its own.
+     * @return true if the organism can be scheduled.
+     */
+    boolean isSchedulable()
+    {
+        return false;
+    }
+    
+    /**
+     * Make the organism dormant from the given step on, and work out
+     * when it wakes up: at the next successful breeding attempt or at
+     * its death of old age, whichever comes first. The attempts that fail
+     * in between are skipped, by sampling their number from a geometric
+     * distribution.
+     * @param step The step the organism's state is up to date with.
+     */
+    void enrol(int step)
+    {
+        markChanged();
+        syncStep = step;
+        // The step at which the organism dies of old age.
+        int deathStep = step + 1 + Math.min(getMaxAge() - age, stepsLeft);
+        // The first step at which the organism can breed.
+        int firstAttempt = step + Math.max(1, getReproductionAge() - age);
+        wakeStep = deathStep;
+        double probability = getReproductionProbability();
+        if(probability > 0 && firstAttempt < deathStep) {
+            long failures = 0;
+            if(probability < 1) {
+                double uniform = Randomizer.getRandom().nextDouble();
+                failures = (long) Math.floor(Math.log(1 - uniform) / Math.log(1 - probability));
+            }
+            if(firstAttempt + failures < deathStep) {
+                wakeStep = (int) (firstAttempt + failures);
+            }
+        }
+    }
+    
+    /**
+     * Make a dormant organism act at the step it wakes up, and work out
+     * when it wakes up next if it survives.
+     * @param newOrganisms A list to receive newly created organisms.
+     * @param day The current day.
+     * @param step The current step.
+     */
+    void wake(List<Organism> newOrganisms, Day day, int step)
+    {
+        catchUp(step - 1);
+        breedDue = true;
+        act(newOrganisms, day);
+        breedDue = false;
+        if(alive) {
+            enrol(step);
+        }
+    }
+    
+    /**
+     * Bring the state of a dormant organism up to date with the given step,
+     * as if it had acted in every step in between without breeding.
+     * @param step The step to catch up with.
+     */
+    void catchUp(int step)
+    {
+        int elapsed = step - syncStep;
+        if(syncStep >= 0 && elapsed > 0) {
+            markChanged();
+            age += elapsed;
+            stepsLeft -= elapsed;
+            passTime(elapsed);
+            syncStep = step;
+        }
+    }
+    
+    /**
+     * Bring a dormant organism up to date with the given step and make
+     * it act every step again.
+     * @param step The step to catch up with.
+     */
+    void leaveScheduler(int step)
+    {
+        catchUp(step);
+        markChanged();
+        syncStep = -1;
+    }
+    
+    /**
+     * Return whether the organism is dormant in a scheduler.
+     * @return true if the organism is scheduled.
+     */
+    boolean isScheduled()
+    {
+        return syncStep >= 0;
+    }
+    
+    /**
+     * Return the step at which a dormant organism wakes up.
+     * @return The waking step.
+     */
+    int getWakeStep()
+    {
+        return wakeStep;
+    }
+    
+    /**
+     * Let the given number of steps pass for a dormant organism, changing
+     * whatever it changes by itself in every step apart from its age.
+     * @param steps The number of steps.
+     */
+    protected void passTime(int steps)
+    {
+    }
+    
+    /**
+     * Note that the organism's state has changed, so that readers of the
+     * field such as checkpoint stores look at its cell again.
+     */
+    protected void markChanged()
+    {
+        if(cell >= 0 && field != null) {
+            field.markChanged(cell);
+        }
+    }
+    
+    /**
+     * Record an event of the organism with the event recorder of its field, if any.
+     * @param kind The kind of event.
+     * @param otherSpeciesBit The species of the other organism, or 0 if there is none.
+     * @param otherCell The other cell, or -1 if there is none.
+     * @param detail The detail of the event, or -1 if there is none.
+     */
+    protected void logEvent(EventLog.Kind kind, int otherSpeciesBit, int otherCell, int detail)
+    {
+        EventRecorder eventRecorder = field != null ? field.getEventRecorder() : null;
+        if(eventRecorder != null) {
+            eventRecorder.record(kind, speciesBit, cell, otherSpeciesBit, otherCell, detail);
+        }
+    }
+    
+    /**
+     * Record the birth of an organism of the same species, born to this one.
+     * @param newCell The cell of the newborn organism.
+     */
+    protected void logBirth(int newCell)
+    {
+        EventRecorder eventRecorder = field != null ? field.getEventRecorder() : null;
+        if(eventRecorder != null) {
+            eventRecorder.record(EventLog.Kind.BIRTH, speciesBit, newCell, speciesBit, cell, -1);
+        }
+    }
     
     /**
      * Check whether the organism is alive or not.
@@ -110,6 +365,12 @@ public abstract class Organism
      */
     protected void incrementAge(int maxAge)
     {
+        if(block != null) {
+            if(block.incrementAge(slot)) {
+                setDead();
+            }
+            return;
+        }
         age++;
         stepsLeft--;
         if(age > maxAge || stepsLeft < 0) {
@@ -119,25 +380,57 @@ public abstract class Organism
     
     /**
      * Indicate that the organism is no longer alive.
-     * It is removed from the field.
+     * It is removed from the field. During a buffered step the field
+     * is left alone; the organism is simply not placed in the next step.
      */
     protected void setDead()
     {
+        if(alive) {
+            logEvent(EventLog.Kind.DEATH, 0, -1, -1);
+        }
         alive = false;
-        if(location != null) {
-            field.clear(location);
-            location = null;
-            field = null;
+        unstore();
+        if(cell >= 0 && !field.isBuffered()) {
+            field.clear(cell, this);
+            detach();
         }
     }
     
     /**
-     * Return the organism's location.
-     * @return The organism's location.
+     * Give up the organism's handle and its link to the field.
+     * Used once a dead organism has been cleared from the field,
+     * or dropped from it at the end of a buffered step.
+     */
+    void detach()
+    {
+        if(field != null) {
+            field.release(this);
+        }
+        cell = -1;
+        nextCell = -1;
+        field = null;
+    }
+    
+    /**
+     * Return the organism's location. The location is created on
+     * demand; the organism itself only keeps the index of its cell.
+     * @return The organism's location, or null if it is not in the field.
      */
     protected Location getLocation()
     {
-        return location;
+        if(cell < 0) {
+            return null;
+        }
+        return field.locationOf(cell);
+    }
+    
+    /**
+     * Return the index of the cell holding the organism.
+     * @return The index of the organism's cell in its field, or -1 if it is not in the field.
+     */
+    protected int getCell()
+    {
+        return cell;
     }
     
     /**
@@ -146,11 +439,208 @@ public abstract class Organism
      */
     protected void setLocation(Location newLocation)
     {
-        if(location != null) {
-            field.clear(location);
+        setCell(field.cellIndex(newLocation.getRow(), newLocation.getCol()));
+    }
+    
+    /**
+     * Place the organism in the given cell of its field.
+     * @param newCell The index of the organism's new cell.
+     */
+    protected void setCell(int newCell)
+    {
+        if(field.isBuffered()) {
+            // The move is only an intent until the step is resolved.
+            nextCell = newCell;
+            return;
+        }
+        if(cell >= 0) {
+            field.clear(cell, this);
+            if(cell != newCell) {
+                logEvent(EventLog.Kind.MOVE, 0, newCell, -1);
+            }
+        }
+        cell = newCell;
+        field.place(this, newCell);
+    }
+    
+    /**
+     * Return the cell the organism intends to occupy at the end of
+     * a buffered step.
+     * @return The index of the intended cell, or -1 if the organism intends to stay.
+     */
+    int getNextCell()
+    {
+        return nextCell;
+    }
+    
+    /**
+     * Settle the organism in the cell it was placed in at the end
+     * of a buffered step.
+     * @param newCell The index of the organism's new cell.
+     */
+    void settle(int newCell)
+    {
+        if(cell >= 0 && cell != newCell) {
+            logEvent(EventLog.Kind.MOVE, 0, newCell, -1);
+        }
+        cell = newCell;
+        nextCell = -1;
+    }
+    
+    /**
+     * Return the handle under which the field stores the organism.
+     * @return The organism's handle, or -1 if it has none.
+     */
+    int getHandle()
+    {
+        return handle;
+    }
+    
+    /**
+     * Set the handle under which the field stores the organism.
+     * Only the field manages the handles.
+     * @param handle The organism's new handle.
+     */
+    void setHandle(int handle)
+    {
+        this.handle = handle;
+    }
+    
+    /**
+     * Return the organism's position in the orders of the last checkpoint
+     * a store saved it in.
+     * @param mark The number of the checkpoint asked about.
+     * @return The organism's position, or -1 if it was not saved in that checkpoint.
+     */
+    int getSavedIndex(int mark)
+    {
+        return mark != 0 && savedMark == mark ? savedIndex : -1;
+    }
+    
+    /**
+     * Set the organism's position in the orders of a checkpoint.
+     * Only checkpoint stores manage the positions.
+     * @param mark The number of the checkpoint.
+     * @param index The organism's position.
+     */
+    void setSavedIndex(int mark, int index)
+    {
+        savedMark = mark;
+        savedIndex = index;
+    }
+    
+    /**
+     * Take a dead organism of the same species out of the pool of the
+     * given field, to be reinitialised as a newborn organism.
+     * @param field The field the newborn organism is born into.
+     * @return A dead organism of the species, or null if none is pooled.
+     */
+    protected Organism fromPool(Field field)
+    {
+        OrganismPool pool = field.getPool();
+        if(pool == null) {
+            return null;
         }
-        location = newLocation;
-        field.place(this, newLocation);
+        return pool.acquire(speciesBit);
+    }
+    
+    /**
+     * Move the organism's age, steps left and food level into a store.
+     * @param store The store of the organism's field.
+     */
+    void store(OrganismStore store)
+    {
+        if(block == null) {
+            OrganismStore.Block newBlock = store.blockOf(this);
+            slot = newBlock.add(this, age, stepsLeft, getFoodLevel());
+            block = newBlock;
+        }
+    }
+    
+    /**
+     * Move the organism's age, steps left and food level out of its store,
+     * back into the organism. Nothing happens if they are not stored.
+     */
+    void unstore()
+    {
+        if(block != null) {
+            OrganismStore.Block oldBlock = block;
+            block = null;
+            age = oldBlock.getAge(slot);
+            stepsLeft = oldBlock.getStepsLeft(slot);
+            setFoodLevel(oldBlock.getFoodLevel(slot));
+            oldBlock.remove(slot);
+        }
+    }
+    
+    /**
+     * Return the block of the store holding the organism's state.
+     * @return The organism's block, or null if the organism is not stored.
+     */
+    OrganismStore.Block getBlock()
+    {
+        return block;
+    }
+    
+    /**
+     * Return the organism's slot in its block.
+     * @return The slot, only meaningful if the organism is stored.
+     */
+    int getSlot()
+    {
+        return slot;
+    }
+    
+    /**
+     * Write the organism's state into a checkpoint (see Checkpoint).
+     * Subclasses write their own state after that of their superclass.
+     * @param out The buffer to write to, with room for the organism.
+     */
+    void writeState(ByteBuffer out)
+    {
+        out.putInt(block != null ? block.getAge(slot) : age);
+        out.putInt(block != null ? block.getStepsLeft(slot) : stepsLeft);
+        out.putInt(syncStep);
+        out.putInt(wakeStep);
+    }
+    
+    /**
+     * Read the organism's state back from a checkpoint, in the order
+     * in which writeState wrote it. The organism must not be stored.
+     * @param in The buffer to read from.
+     */
+    void readState(ByteBuffer in)
+    {
+        age = in.getInt();
+        stepsLeft = in.getInt();
+        syncStep = in.getInt();
+        wakeStep = in.getInt();
+    }
+    
+    /**
+     * Return the organism's food level. Organisms that do not eat have none.
+     * @return The food level.
+     */
+    int getFoodLevel()
+    {
+        return 0;
+    }
+    
+    /**
+     * Set the organism's food level. Organisms that do not eat ignore it.
+     * @param foodLevel The new food level.
+     */
+    void setFoodLevel(int foodLevel)
+    {
+    }
+    
+    /**
+     * Return the bit standing for the organism's species.
+     * @return A mask with only the organism's species bit set.
+     */
+    int getSpeciesBit()
+    {
+        return speciesBit;
     }
     
     /**
@@ -169,8 +659,13 @@ public abstract class Organism
      */
     protected int breed()
     {
+        Random rand = Randomizer.getRandom();
         int births = 0;
-        if(rand.nextDouble() <= getReproductionProbability()) {
+        if(breedDue) {
+            // The attempt was scheduled to succeed.
+            births = rand.nextInt(getMaxReproductionSize()) + 1;
+        }
+        else if(rand.nextDouble() <= getReproductionProbability()) {
             births = rand.nextInt(getMaxReproductionSize()) + 1;
         }
         return births;
@@ -182,7 +677,8 @@ public abstract class Organism
      */
     protected boolean canBreed()
     {
-        return age >= getReproductionAge();
+        int currentAge = block != null ? block.getAge(slot) : age;
+        return currentAge >= getReproductionAge();
     }
     
     /**
@@ -207,6 +703,10 @@ public abstract class Organism
      */
     protected void decreaseStepsLeft(int value)
     {
+        if(block != null) {
+            block.decreaseStepsLeft(slot, value);
+            return;
+        }
         stepsLeft -= value;
     }
     
@@ -229,24 +729,16 @@ public abstract class Organism
     }
     
     /**
-     * Return true if the organism is higher in the class hierarchy
-     * than the other specified organism. When comparing two organisms of the
-     * same type true is returned.
+     * Return true if the organism is displayed higher than the other
+     * specified organism, according to the display ranks of their species
+     * (see Species.setDisplayHierarchy). When comparing two organisms of
+     * the same rank true is returned.
      * 
      * @param organism The organism to compare with.
-     * @param organismHierarchy The hierarchy of the organisms in the simulation.
      */
-    public boolean isHigher(Organism organism, List<Class> organismHierarchy)
+    public boolean isHigher(Organism organism)
     {
-        int indexOfThis = organismHierarchy.indexOf(this.getClass());
-        int indexOfOther = organismHierarchy.indexOf(organism.getClass());
-        
-        if(indexOfThis <= indexOfOther){
-            return true;
-        }
-        else {
-            return false;
-        }
-        
+        return Species.getDisplayRank(Integer.numberOfTrailingZeros(speciesBit))
+            <= Species.getDisplayRank(Integer.numberOfTrailingZeros(organism.speciesBit));
     }
 }
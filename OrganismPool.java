@@ -0,0 +1,113 @@
+import java.util.Arrays;
+
+/**
+ * A pool of dead organisms, kept to be brought back to life as newborn
+ * organisms of the same species instead of creating new objects.
+ * The steps of the simulation release the organisms they drop once
+ * nothing refers to them any more, and the organisms giving birth
+ * acquire them (see Organism.fromPool). At most a given number of
+ * organisms is kept for every species; the others are left to the
+ * garbage collector.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.08
+ */
+public class OrganismPool
+{
+    // The largest number of organisms kept for one species.
+    private int capacity;
+    // The organisms kept, one stack for every species number.
+    private Organism[][] free;
+    private int[] freeCounts;
+    // The statistics of the pool.
+    private long acquired, missed, released, discarded;
+
+    /**
+     * Create an empty pool.
+     * @param capacity The largest number of organisms kept for one species.
+     */
+    public OrganismPool(int capacity)
+    {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("The capacity of a pool must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        free = new Organism[Integer.SIZE][];
+        freeCounts = new int[Integer.SIZE];
+    }
+
+    /**
+     * Take a dead organism of the given species out of the pool.
+     * The organism must be reinitialised before it is used.
+     * @param speciesBit The bit of the species.
+     * @return A dead organism of the species, or null if there is none.
+     */
+    public synchronized Organism acquire(int speciesBit)
+    {
+        int number = Integer.numberOfTrailingZeros(speciesBit);
+        if(freeCounts[number] == 0) {
+            missed++;
+            return null;
+        }
+        acquired++;
+        Organism organism = free[number][--freeCounts[number]];
+        free[number][freeCounts[number]] = null;
+        return organism;
+    }
+
+    /**
+     * Put a dead organism into the pool, unless the pool of its species
+     * is full. Nothing may refer to the organism any more.
+     * @param organism The dead organism.
+     */
+    public synchronized void release(Organism organism)
+    {
+        int number = Integer.numberOfTrailingZeros(organism.getSpeciesBit());
+        if(freeCounts[number] == capacity) {
+            discarded++;
+            return;
+        }
+        if(free[number] == null) {
+            free[number] = new Organism[Math.min(capacity, 64)];
+        }
+        else if(freeCounts[number] == free[number].length) {
+            free[number] = Arrays.copyOf(free[number], Math.min(capacity, free[number].length * 2));
+        }
+        released++;
+        free[number][freeCounts[number]++] = organism;
+    }
+
+    /**
+     * Return the largest number of organisms kept for one species.
+     * @return The capacity of the pool.
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Return the number of organisms in the pool.
+     * @return The number of organisms kept for all the species.
+     */
+    public synchronized int size()
+    {
+        int size = 0;
+        for(int count : freeCounts) {
+            size += count;
+        }
+        return size;
+    }
+
+    /**
+     * Describe the use of the pool.
+     * @return A string with the numbers of organisms taken from the pool,
+     *         of births the pool could not serve, and of organisms
+     *         released into the pool or discarded because it was full.
+     */
+    public synchronized String getStatistics()
+    {
+        return "Reused: " + acquired + " Created: " + missed + " Released: " + released
+            + " Discarded: " + discarded + " Pooled: " + size();
+    }
+}
@@ -0,0 +1,276 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An optional store for the state of the organisms that changes every
+ * step: their ages, the steps they have left and their food levels.
+ * The state of every species is kept in a block of parallel arrays,
+ * indexed by the organism's slot in the block. The slots of dead
+ * organisms are reused for newborn ones.
+ *
+ * Since a species has one maximum age and either does or does not get
+ * hungry, all the organisms of a block grow older in a few tight loops
+ * over the arrays, without calling the organisms themselves. Only the
+ * organisms that die are called, to be set dead.
+ *
+ * An organism whose field has a store keeps its state in the store
+ * while it is alive (see Organism.store); once it dies, the state is
+ * copied back into the organism.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.08
+ */
+public class OrganismStore
+{
+    // The blocks of the species, indexed by the species' numbers.
+    private Block[] blocks;
+
+    /**
+     * Create an empty store.
+     */
+    public OrganismStore()
+    {
+        blocks = new Block[Integer.SIZE];
+    }
+
+    /**
+     * Return the block holding the state of the given organism's species,
+     * creating the block if there is none yet.
+     * @param organism The organism.
+     * @return The block of its species.
+     */
+    synchronized Block blockOf(Organism organism)
+    {
+        int number = Integer.numberOfTrailingZeros(organism.getSpeciesBit());
+        if(blocks[number] == null) {
+            blocks[number] = new Block(organism.getMaxAge(), organism instanceof Animal);
+        }
+        return blocks[number];
+    }
+
+    /**
+     * Make all the stored organisms one step older and hungrier, and set
+     * dead those that die of old age, disease or hunger.
+     */
+    public void growOlder()
+    {
+        List<Organism> dying = new ArrayList<>();
+        for(Block block : blocks) {
+            if(block != null) {
+                block.growOlder(dying);
+            }
+        }
+        for(Organism organism : dying) {
+            organism.setDead();
+        }
+    }
+
+    /**
+     * Return the number of organisms in the store.
+     * @return The number of slots in use.
+     */
+    public int size()
+    {
+        int size = 0;
+        for(Block block : blocks) {
+            if(block != null) {
+                size += block.top - block.freeCount;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * The state of the organisms of one species.
+     */
+    static class Block
+    {
+        // The initial number of slots of a block.
+        private static final int INITIAL_CAPACITY = 256;
+
+        // The age to which the organisms of the species can live.
+        private final int maxAge;
+        // Whether the organisms of the species get hungry.
+        private final boolean hungers;
+        // The state of the organisms, indexed by their slots.
+        private int[] ages;
+        private int[] stepsLeft;
+        private int[] foodLevels;
+        // The organisms, or null for a free slot.
+        private Organism[] owners;
+        // The number of slots ever used.
+        private int top;
+        // The free slots below the top, used before new ones.
+        private int[] freeSlots;
+        private int freeCount;
+
+        /**
+         * Create an empty block.
+         * @param maxAge The age to which the organisms can live.
+         * @param hungers Whether the organisms get hungry.
+         */
+        private Block(int maxAge, boolean hungers)
+        {
+            this.maxAge = maxAge;
+            this.hungers = hungers;
+            ages = new int[INITIAL_CAPACITY];
+            stepsLeft = new int[INITIAL_CAPACITY];
+            foodLevels = new int[INITIAL_CAPACITY];
+            owners = new Organism[INITIAL_CAPACITY];
+            freeSlots = new int[INITIAL_CAPACITY];
+        }
+
+        /**
+         * Give a slot to an organism.
+         * @param owner The organism.
+         * @param age The organism's age.
+         * @param steps The organism's steps left.
+         * @param foodLevel The organism's food level.
+         * @return The organism's slot.
+         */
+        synchronized int add(Organism owner, int age, int steps, int foodLevel)
+        {
+            int slot;
+            if(freeCount > 0) {
+                slot = freeSlots[--freeCount];
+            }
+            else {
+                if(top == owners.length) {
+                    grow();
+                }
+                slot = top++;
+            }
+            owners[slot] = owner;
+            ages[slot] = age;
+            stepsLeft[slot] = steps;
+            foodLevels[slot] = foodLevel;
+            return slot;
+        }
+
+        /**
+         * Free the slot of an organism.
+         * @param slot The slot to free.
+         */
+        synchronized void remove(int slot)
+        {
+            owners[slot] = null;
+            freeSlots[freeCount++] = slot;
+        }
+
+        /**
+         * Make the organisms of the block older and hungrier, and collect
+         * those that die.
+         * @param dying The list receiving the organisms that die.
+         */
+        private void growOlder(List<Organism> dying)
+        {
+            int[] ages = this.ages;
+            int[] stepsLeft = this.stepsLeft;
+            int[] foodLevels = this.foodLevels;
+            // Free slots are updated as well; they are overwritten when reused.
+            for(int slot = 0; slot < top; slot++) {
+                ages[slot]++;
+                stepsLeft[slot]--;
+            }
+            if(hungers) {
+                for(int slot = 0; slot < top; slot++) {
+                    foodLevels[slot]--;
+                }
+            }
+            for(int slot = 0; slot < top; slot++) {
+                if(ages[slot] > maxAge || stepsLeft[slot] < 0 || (hungers && foodLevels[slot] <= 0)) {
+                    if(owners[slot] != null) {
+                        dying.add(owners[slot]);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Make an organism one step older.
+         * @param slot The organism's slot.
+         * @return true if the organism dies of old age or disease.
+         */
+        boolean incrementAge(int slot)
+        {
+            ages[slot]++;
+            stepsLeft[slot]--;
+            return ages[slot] > maxAge || stepsLeft[slot] < 0;
+        }
+
+        /**
+         * Make an organism one step hungrier.
+         * @param slot The organism's slot.
+         * @return true if the organism dies of hunger.
+         */
+        boolean incrementHunger(int slot)
+        {
+            return --foodLevels[slot] <= 0;
+        }
+
+        /**
+         * Return the age of an organism. Synchronized, since animals look
+         * at the ages of their partners while the arrays may grow on other
+         * threads.
+         * @param slot The organism's slot.
+         * @return The organism's age.
+         */
+        synchronized int getAge(int slot)
+        {
+            return ages[slot];
+        }
+
+        /**
+         * @param slot The organism's slot.
+         * @return The organism's steps left.
+         */
+        synchronized int getStepsLeft(int slot)
+        {
+            return stepsLeft[slot];
+        }
+
+        /**
+         * Decrease the steps left of an organism.
+         * @param slot The organism's slot.
+         * @param value The number by which the steps left decrease.
+         */
+        synchronized void decreaseStepsLeft(int slot, int value)
+        {
+            stepsLeft[slot] -= value;
+        }
+
+        /**
+         * @param slot The organism's slot.
+         * @return The organism's food level.
+         */
+        synchronized int getFoodLevel(int slot)
+        {
+            return foodLevels[slot];
+        }
+
+        /**
+         * Set the food level of an organism. Synchronized, since newborn
+         * animals set theirs while the arrays may grow on other threads.
+         * @param slot The organism's slot.
+         * @param foodLevel The new food level.
+         */
+        synchronized void setFoodLevel(int slot, int foodLevel)
+        {
+            foodLevels[slot] = foodLevel;
+        }
+
+        /**
+         * Double the number of slots.
+         */
+        private void grow()
+        {
+            int capacity = owners.length * 2;
+            ages = Arrays.copyOf(ages, capacity);
+            stepsLeft = Arrays.copyOf(stepsLeft, capacity);
+            foodLevels = Arrays.copyOf(foodLevels, capacity);
+            owners = Arrays.copyOf(owners, capacity);
+            freeSlots = Arrays.copyOf(freeSlots, capacity);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pace the run loop of a simulation shown live. A pacer runs in one of
+ * three modes:
+ *
+ * - as fast as possible: every step follows the last one at once and
+ *   every step is shown;
+ * - at a target number of steps a second: every step is shown, and the
+ *   loop waits until the step is due. The steps are due at fixed times
+ *   from the start of the run, so the time a step takes does not add up
+ *   from step to step; a loop that falls more than a second behind gives
+ *   up the lost steps instead of rushing through them;
+ * - at a target number of frames a second: the steps are made as fast
+ *   as possible, but a step is only shown when a frame is due. The steps
+ *   in between are not shown.
+ *
+ * The run loop calls stepDone after every step and asks isFrameDue
+ * before showing a step. The pacer counts the steps and frames, so that
+ * the rates achieved can be reported.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.08
+ */
+public class Pacer
+{
+    /**
+     * The modes of a pacer.
+     */
+    public enum Mode
+    {
+        FASTEST,
+        STEPS_PER_SECOND,
+        FRAMES_PER_SECOND;
+    }
+
+    // The largest delay after which a late loop is allowed to catch up.
+    private static final long MAX_LAG = TimeUnit.SECONDS.toNanos(1);
+
+    // The mode of the pacer.
+    private Mode mode;
+    // The time between two steps or frames, in nanoseconds.
+    private long period;
+    // The time the run started at, in nanoseconds.
+    private long startTime;
+    // The time the next step or frame is due at, in nanoseconds.
+    private long dueTime;
+    // The numbers of steps made, frames shown and steps not shown.
+    private long steps, frames, skipped;
+    // The number of steps given up by a late loop.
+    private long dropped;
+    // Whether the last step has been shown.
+    private boolean shown;
+
+    /**
+     * Create a pacer.
+     * @param mode The mode of the pacer.
+     * @param rate The target number of steps or frames a second;
+     *             ignored if the pacer runs as fast as possible.
+     */
+    public Pacer(Mode mode, double rate)
+    {
+        if(mode != Mode.FASTEST && !(rate > 0)) {
+            throw new IllegalArgumentException("The rate of a pacer must be positive: " + rate);
+        }
+        this.mode = mode;
+        period = mode == Mode.FASTEST ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        start();
+    }
+
+    /**
+     * Create a pacer running as fast as possible.
+     * @return The pacer.
+     */
+    public static Pacer fastest()
+    {
+        return new Pacer(Mode.FASTEST, 0);
+    }
+
+    /**
+     * Create a pacer making the given number of steps a second.
+     * @param rate The number of steps a second.
+     * @return The pacer.
+     */
+    public static Pacer stepsPerSecond(double rate)
+    {
+        return new Pacer(Mode.STEPS_PER_SECOND, rate);
+    }
+
+    /**
+     * Create a pacer showing the given number of frames a second.
+     * @param rate The number of frames a second.
+     * @return The pacer.
+     */
+    public static Pacer framesPerSecond(double rate)
+    {
+        return new Pacer(Mode.FRAMES_PER_SECOND, rate);
+    }
+
+    /**
+     * Start counting the steps and frames of a run from now.
+     */
+    public void start()
+    {
+        startTime = System.nanoTime();
+        dueTime = startTime;
+        steps = 0;
+        frames = 0;
+        skipped = 0;
+        dropped = 0;
+        shown = true;
+    }
+
+    /**
+     * Return whether the step just made is to be shown. If it is, the
+     * frame is counted as shown.
+     * @return true if the step is to be shown.
+     */
+    public boolean isFrameDue()
+    {
+        if(mode == Mode.FRAMES_PER_SECOND) {
+            long now = System.nanoTime();
+            if(now - dueTime < 0) {
+                return false;
+            }
+            dueTime = nextDue(dueTime, now);
+        }
+        frames++;
+        shown = true;
+        return true;
+    }
+
+    /**
+     * Count a step as made, and wait until the next step is due.
+     */
+    public void stepDone()
+    {
+        steps++;
+        if(!shown) {
+            skipped++;
+        }
+        shown = false;
+        if(mode == Mode.STEPS_PER_SECOND) {
+            dueTime = nextDue(dueTime, System.nanoTime());
+            waitUntil(dueTime);
+        }
+    }
+
+    /**
+     * Return whether the last step made has not been shown, so that
+     * the run loop can show the final state of a run.
+     * @return true if the last step was skipped.
+     */
+    public boolean isLastStepSkipped()
+    {
+        return !shown;
+    }
+
+    /**
+     * Return the time at which the next step or frame is due, giving up
+     * the ones missed by more than the largest delay.
+     * @param due The time the last step or frame was due at.
+     * @param now The current time.
+     * @return The time the next one is due at.
+     */
+    private long nextDue(long due, long now)
+    {
+        long next = due + period;
+        if(now - next > MAX_LAG) {
+            long lost = (now - next) / period;
+            dropped += lost;
+            next += lost * period;
+        }
+        return next;
+    }
+
+    /**
+     * Sleep until the given time.
+     * @param time The time to wake up at, in nanoseconds.
+     */
+    private void waitUntil(long time)
+    {
+        long left = time - System.nanoTime();
+        if(left > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(left);
+            }
+            catch(InterruptedException ie) {
+                // wake up
+            }
+        }
+    }
+
+    /**
+     * Return the number of steps made a second since the start.
+     * @return The step rate achieved.
+     */
+    public double getStepRate()
+    {
+        return rate(steps);
+    }
+
+    /**
+     * Return the number of frames shown a second since the start.
+     * @return The frame rate achieved.
+     */
+    public double getFrameRate()
+    {
+        return rate(frames);
+    }
+
+    /**
+     * Return the mode of the pacer.
+     * @return The mode.
+     */
+    public Mode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * Describe the rates achieved.
+     * @return A string with the numbers of steps and frames a second,
+     *         and with the numbers of steps not shown and of steps
+     *         given up by a late loop.
+     */
+    public String getStatistics()
+    {
+        return String.format("Steps/s: %.1f Frames/s: %.1f Skipped: %d Dropped: %d",
+                             getStepRate(), getFrameRate(), skipped, dropped);
+    }
+
+    /**
+     * Return the number of events a second since the start.
+     * @param count The number of events.
+     * @return The rate of the events.
+     */
+    private double rate(long count)
+    {
+        long elapsed = System.nanoTime() - startTime;
+        return elapsed > 0 ? count * 1e9 / elapsed : 0;
+    }
+}
@@ -0,0 +1,357 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sweep the parameters of the simulation. Some parameters are varied
+ * between a lowest and a highest value, either over a full grid of
+ * evenly spaced levels or over a Latin hypercube: a given number of
+ * points that together take every stratum of every varied parameter
+ * once. The other parameters keep their base values. Every point is run
+ * a number of times; replicate number r of every point uses the same
+ * seed, so that the points are compared on the same random streams.
+ * The runs share nothing, so they are spread over a fixed number of
+ * threads, and the final populations of every run are written out.
+ *
+ * A sweep can be described by a properties file, e.g.
+ *
+ *     design=latin
+ *     points=40
+ *     replicates=4
+ *     steps=500
+ *     vary.Fox.maxAge=100:200
+ *     vary.Rabbit.reproductionProbability=0.1:0.4
+ *
+ * where a grid design gives the number of levels after the range,
+ * e.g. "vary.Fox.maxAge=100:200:5". The file may also give the depth,
+ * width and seed of the runs, and a properties file with the base
+ * parameters under "parameters".
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.08
+ */
+public class ParameterSweep
+{
+    // The parameters the points are based on.
+    private Parameters base;
+    // The number of steps of every run.
+    private int steps;
+    // The depth and width of the fields.
+    private int depth, width;
+    // The seed from which the seeds of the runs are derived.
+    private long seed;
+    // The number of runs of every point.
+    private int replicates;
+    // The number of threads making the runs.
+    private int threads;
+    // The names, lowest and highest values and grid levels of the varied parameters.
+    private List<String> names;
+    private List<double[]> ranges;
+    // The points of the design, by point and varied parameter.
+    private List<double[]> points;
+    // The final populations, by point, replicate and species number.
+    private int[][][] populations;
+    // The number of steps made, by point and replicate.
+    private int[][] stepsMade;
+
+    /**
+     * Prepare a sweep.
+     * @param base The parameters the points are based on.
+     * @param steps The number of steps of every run.
+     * @param depth The depth of the fields.
+     * @param width The width of the fields.
+     * @param seed The seed of the sweep.
+     * @param replicates The number of runs of every point.
+     * @param threads The number of threads making the runs.
+     */
+    public ParameterSweep(Parameters base, int steps, int depth, int width, long seed, int replicates, int threads)
+    {
+        if(steps < 0 || replicates <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("Invalid sweep: " + replicates + " replicates of " + steps + " steps on " + threads + " threads");
+        }
+        this.base = base;
+        this.steps = steps;
+        this.depth = depth;
+        this.width = width;
+        this.seed = seed;
+        this.replicates = replicates;
+        this.threads = threads;
+        names = new ArrayList<>();
+        ranges = new ArrayList<>();
+        points = new ArrayList<>();
+    }
+
+    /**
+     * Vary a parameter.
+     * @param name The name of the parameter, e.g. "Fox.maxAge".
+     * @param lowest The lowest value.
+     * @param highest The highest value.
+     * @param levels The number of values the parameter takes in a grid design.
+     */
+    public void vary(String name, double lowest, double highest, int levels)
+    {
+        if(base.get(name) == null) {
+            throw new IllegalArgumentException("Unknown parameter: " + name);
+        }
+        if(levels <= 0 || highest < lowest) {
+            throw new IllegalArgumentException("Invalid range of " + name);
+        }
+        names.add(name);
+        ranges.add(new double[] {lowest, highest, levels});
+    }
+
+    /**
+     * Make the design a full grid: every combination of the levels of
+     * the varied parameters, evenly spaced between their lowest and
+     * highest values.
+     */
+    public void designGrid()
+    {
+        points.clear();
+        int[] level = new int[names.size()];
+        while(true) {
+            double[] point = new double[names.size()];
+            for(int factor = 0; factor < point.length; factor++) {
+                double[] range = ranges.get(factor);
+                int levels = (int) range[2];
+                point[factor] = levels == 1 ? range[0] : range[0] + level[factor] * (range[1] - range[0]) / (levels - 1);
+            }
+            points.add(point);
+            // Count through the levels, the last parameter fastest.
+            int factor = level.length - 1;
+            while(factor >= 0 && ++level[factor] == (int) ranges.get(factor)[2]) {
+                level[factor--] = 0;
+            }
+            if(factor < 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Make the design a Latin hypercube of the given number of points.
+     * The range of every varied parameter is cut into as many strata as
+     * there are points; every stratum is taken by one point, at a random
+     * value within it, and the strata of the parameters are paired at random.
+     * @param count The number of points.
+     */
+    public void designLatinHypercube(int count)
+    {
+        if(count <= 0) {
+            throw new IllegalArgumentException("The number of points must be positive: " + count);
+        }
+        points.clear();
+        for(int point = 0; point < count; point++) {
+            points.add(new double[names.size()]);
+        }
+        for(int factor = 0; factor < names.size(); factor++) {
+            // The design has streams of its own, apart from those of the runs.
+            RandomStream rand = Randomizer.stream(seed, -1, factor);
+            int[] strata = new int[count];
+            for(int stratum = 0; stratum < count; stratum++) {
+                strata[stratum] = stratum;
+            }
+            for(int stratum = count - 1; stratum > 0; stratum--) {
+                int other = rand.nextInt(stratum + 1);
+                int swapped = strata[stratum];
+                strata[stratum] = strata[other];
+                strata[other] = swapped;
+            }
+            double[] range = ranges.get(factor);
+            for(int point = 0; point < count; point++) {
+                double position = (strata[point] + rand.nextDouble()) / count;
+                points.get(point)[factor] = range[0] + position * (range[1] - range[0]);
+            }
+        }
+    }
+
+    /**
+     * Return the parameters of a point of the design.
+     * @param point The number of the point.
+     * @return The base parameters with the values of the point.
+     */
+    public Parameters parametersOf(int point)
+    {
+        Parameters parameters = base;
+        double[] values = points.get(point);
+        for(int factor = 0; factor < values.length; factor++) {
+            parameters = parameters.with(names.get(factor), values[factor]);
+        }
+        return parameters;
+    }
+
+    /**
+     * Make all the runs of all the points, waiting for them to finish.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public void run() throws InterruptedException
+    {
+        populations = new int[points.size()][replicates][];
+        stepsMade = new int[points.size()][replicates];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<SimulationEngine>> results = new ArrayList<>();
+            for(int point = 0; point < points.size(); point++) {
+                Parameters parameters = parametersOf(point);
+                for(int replicate = 0; replicate < replicates; replicate++) {
+                    long runSeed = Randomizer.derive(seed, replicate);
+                    results.add(executor.submit(() -> runOne(parameters, runSeed)));
+                }
+            }
+            for(int point = 0; point < points.size(); point++) {
+                for(int replicate = 0; replicate < replicates; replicate++) {
+                    SimulationEngine engine = results.get(point * replicates + replicate).get();
+                    populations[point][replicate] = countsOf(engine.getField());
+                    stepsMade[point][replicate] = engine.getStep();
+                }
+            }
+        }
+        catch(ExecutionException e) {
+            throw new IllegalStateException("A run of the sweep failed", e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Make one run.
+     * @param parameters The parameters of the run.
+     * @param runSeed The seed of the run.
+     * @return The engine, after the run.
+     */
+    private SimulationEngine runOne(Parameters parameters, long runSeed)
+    {
+        SimulationEngine engine = new SimulationEngine(depth, width, runSeed, parameters);
+        engine.simulate(steps);
+        return engine;
+    }
+
+    /**
+     * Return the populations of all the species in a field.
+     * @param field The field.
+     * @return The populations, by species number.
+     */
+    private static int[] countsOf(Field field)
+    {
+        int[] counts = new int[Species.count()];
+        for(int number = 0; number < counts.length; number++) {
+            counts[number] = field.getPopulation(number);
+        }
+        return counts;
+    }
+
+    /**
+     * Write the results of the runs as comma-separated values, one line
+     * for every run: the point, the replicate, the values of the varied
+     * parameters, the number of steps made and the final populations.
+     * @param fileName The name of the file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void writeResults(String fileName) throws IOException
+    {
+        try(PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(fileName)))) {
+            StringBuilder header = new StringBuilder("point,replicate");
+            for(String name : names) {
+                header.append(',').append(name);
+            }
+            header.append(",steps");
+            for(int number = 0; number < Species.count(); number++) {
+                header.append(',').append(Species.classOf(number).getName());
+            }
+            out.println(header);
+
+            for(int point = 0; point < points.size(); point++) {
+                Parameters parameters = parametersOf(point);
+                for(int replicate = 0; replicate < replicates; replicate++) {
+                    StringBuilder line = new StringBuilder();
+                    line.append(point).append(',').append(replicate);
+                    for(String name : names) {
+                        line.append(',').append(parameters.get(name));
+                    }
+                    line.append(',').append(stepsMade[point][replicate]);
+                    int[] counts = populations[point][replicate];
+                    for(int number = 0; number < Species.count(); number++) {
+                        line.append(',').append(number < counts.length ? counts[number] : 0);
+                    }
+                    out.println(line);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the number of points of the design.
+     * @return The number of points.
+     */
+    public int getPointCount()
+    {
+        return points.size();
+    }
+
+    /**
+     * Run the sweep described by a properties file and write its results.
+     * @param args The name of the sweep file and of the results file,
+     *             optionally followed by the number of threads.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if(args.length < 2) {
+            System.out.println("Usage: ParameterSweep sweep.properties results.csv [threads]");
+            return;
+        }
+        Properties sweepFile = new Properties();
+        try(Reader reader = Files.newBufferedReader(Paths.get(args[0]))) {
+            sweepFile.load(reader);
+        }
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        Parameters base = Parameters.getDefaults();
+        if(sweepFile.getProperty("parameters") != null) {
+            Path baseFile = Paths.get(args[0]).resolveSibling(sweepFile.getProperty("parameters").trim());
+            base = Parameters.load(baseFile);
+        }
+        int steps = Integer.parseInt(sweepFile.getProperty("steps", "500").trim());
+        int depth = Integer.parseInt(sweepFile.getProperty("depth", "" + SimulationEngine.DEFAULT_DEPTH).trim());
+        int width = Integer.parseInt(sweepFile.getProperty("width", "" + SimulationEngine.DEFAULT_WIDTH).trim());
+        long seed = Long.parseLong(sweepFile.getProperty("seed", "" + Randomizer.getSeed()).trim());
+        int replicates = Integer.parseInt(sweepFile.getProperty("replicates", "1").trim());
+        ParameterSweep sweep = new ParameterSweep(base, steps, depth, width, seed, replicates, threads);
+
+        for(String key : new TreeSet<>(sweepFile.stringPropertyNames())) {
+            if(key.startsWith("vary.")) {
+                String[] range = sweepFile.getProperty(key).trim().split(":");
+                int levels = range.length > 2 ? Integer.parseInt(range[2]) : 2;
+                sweep.vary(key.substring("vary.".length()), Double.parseDouble(range[0]), Double.parseDouble(range[1]), levels);
+            }
+        }
+        String design = sweepFile.getProperty("design", "grid").trim();
+        if(design.equals("latin")) {
+            sweep.designLatinHypercube(Integer.parseInt(sweepFile.getProperty("points", "10").trim()));
+        }
+        else if(design.equals("grid")) {
+            sweep.designGrid();
+        }
+        else {
+            throw new IllegalArgumentException("Unknown design: " + design);
+        }
+
+        long start = System.nanoTime();
+        sweep.run();
+        long elapsed = System.nanoTime() - start;
+        sweep.writeResults(args[1]);
+        System.out.println("Points: " + sweep.getPointCount() + " Runs: " + sweep.getPointCount() * replicates
+            + " Time: " + elapsed / 1000000 + " ms");
+    }
+}
@@ -0,0 +1,336 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The parameters of a simulation run: the traits of every species and
+ * the probabilities with which the species are created in the field.
+ * The parameters are named "Species.trait", e.g. "Fox.maxAge", and can
+ * be loaded from a properties file; the parameters the file leaves out
+ * keep their default values. For viruses, reproducing means spreading.
+ *
+ * Parameters are immutable, so one object can be shared by all the
+ * organisms of a run, or by several runs. Every organism keeps the
+ * traits of its species at hand (see Organism.getTraits).
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.08
+ */
+public class Parameters
+{
+    // The names of the traits.
+    public static final String REPRODUCTION_AGE = "reproductionAge";
+    public static final String MAX_AGE = "maxAge";
+    public static final String REPRODUCTION_PROBABILITY = "reproductionProbability";
+    public static final String MAX_REPRODUCTION_SIZE = "maxReproductionSize";
+    public static final String FOOD_VALUE = "foodValue";
+    public static final String CREATION_PROBABILITY = "creationProbability";
+
+    // The default parameters.
+    private static final Parameters DEFAULTS;
+
+    static {
+        Map<String, String> values = new TreeMap<>();
+        // Species, reproduction age, maximum age, reproduction probability,
+        // maximum reproduction size, food value and creation probability.
+        addDefaults(values, Fox.class, 12, 150, 0.12, 2, 20, 0.05);
+        addDefaults(values, Wolf.class, 15, 140, 0.14, 2, 11, 0.04);
+        addDefaults(values, Mosquito.class, 2, 30, 0.09, 8, 5, 0.01);
+        addDefaults(values, Rabbit.class, 5, 50, 0.24, 6, 25, 0.08);
+        addDefaults(values, Sheep.class, 7, 100, 0.10, 8, 15, 0.05);
+        addDefaults(values, Plant.class, 5, 100, 0.1, 2, 0, 0.25);
+        addDefaults(values, Virus.class, 15, 100, 0.1, 2, 0, 0.02);
+        DEFAULTS = new Parameters(values);
+    }
+
+    // The values of the parameters, by name.
+    private final Map<String, String> values;
+    // The traits of the species, by species number.
+    private final Traits[] traits;
+
+    /**
+     * Create the parameters with the given values.
+     * @param values The values of all the parameters, by name.
+     */
+    private Parameters(Map<String, String> values)
+    {
+        this.values = Collections.unmodifiableMap(values);
+        traits = new Traits[Integer.SIZE];
+        for(int number = 0; number < Species.count(); number++) {
+            String prefix = Species.classOf(number).getName() + ".";
+            if(values.containsKey(prefix + MAX_AGE)) {
+                traits[number] = new Traits(this, prefix);
+            }
+        }
+    }
+
+    /**
+     * Return the default parameters.
+     * @return The parameters with their default values.
+     */
+    public static Parameters getDefaults()
+    {
+        return DEFAULTS;
+    }
+
+    /**
+     * Load parameters from a properties file. The parameters missing
+     * from the file keep their default values.
+     * @param file The file to load.
+     * @return The parameters.
+     * @throws IOException If the file cannot be read.
+     */
+    public static Parameters load(Path file) throws IOException
+    {
+        Properties properties = new Properties();
+        try(Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        }
+        Parameters parameters = DEFAULTS;
+        for(String name : properties.stringPropertyNames()) {
+            parameters = parameters.with(name, properties.getProperty(name).trim());
+        }
+        return parameters;
+    }
+
+    /**
+     * Return a copy of these parameters with one value changed.
+     * @param name The name of the parameter, e.g. "Fox.maxAge".
+     * @param value The new value.
+     * @return The changed parameters.
+     * @throws IllegalArgumentException If there is no such parameter or the value is invalid.
+     */
+    public Parameters with(String name, String value)
+    {
+        if(!values.containsKey(name)) {
+            throw new IllegalArgumentException("Unknown parameter: " + name);
+        }
+        Map<String, String> changed = new TreeMap<>(values);
+        changed.put(name, value);
+        Parameters parameters = new Parameters(changed);
+        // Check that the value can be read.
+        parameters.getDouble(name);
+        return parameters;
+    }
+
+    /**
+     * Return a copy of these parameters with one value changed. The value
+     * is rounded if the parameter is a whole number.
+     * @param name The name of the parameter.
+     * @param value The new value.
+     * @return The changed parameters.
+     */
+    public Parameters with(String name, double value)
+    {
+        if(isWhole(name)) {
+            return with(name, Long.toString(Math.round(value)));
+        }
+        return with(name, Double.toString(value));
+    }
+
+    /**
+     * Return the names of all the parameters.
+     * @return The names, in alphabetical order.
+     */
+    public Set<String> getNames()
+    {
+        return values.keySet();
+    }
+
+    /**
+     * Return the value of a parameter.
+     * @param name The name of the parameter.
+     * @return The value, as written in a properties file.
+     */
+    public String get(String name)
+    {
+        return values.get(name);
+    }
+
+    /**
+     * Return the traits of the species with the given bit.
+     * @param speciesBit The bit of the species (see Species.bitOf).
+     * @return The traits of the species.
+     * @throws IllegalArgumentException If there are no parameters for the species.
+     */
+    public Traits traitsOf(int speciesBit)
+    {
+        Traits speciesTraits = traits[Integer.numberOfTrailingZeros(speciesBit)];
+        if(speciesTraits == null) {
+            throw new IllegalArgumentException("No parameters for species "
+                + Species.classOf(Integer.numberOfTrailingZeros(speciesBit)).getName());
+        }
+        return speciesTraits;
+    }
+
+    /**
+     * Return the traits of the given species.
+     * @param speciesClass The class of the species.
+     * @return The traits of the species.
+     */
+    public Traits traitsOf(Class<? extends Organism> speciesClass)
+    {
+        return traitsOf(Species.bitOf(speciesClass));
+    }
+
+    /**
+     * Return whether a parameter is a whole number.
+     * @param name The name of the parameter.
+     * @return true if the value of the parameter is a whole number.
+     */
+    public static boolean isWhole(String name)
+    {
+        return !name.endsWith("." + REPRODUCTION_PROBABILITY) && !name.endsWith("." + CREATION_PROBABILITY);
+    }
+
+    /**
+     * Write the parameters as lines of a properties file.
+     * @return The parameters, one "name=value" line each.
+     */
+    public String toString()
+    {
+        StringBuilder text = new StringBuilder();
+        for(Map.Entry<String, String> entry : values.entrySet()) {
+            text.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Return the value of a parameter as a number.
+     * @param name The name of the parameter.
+     * @return The value.
+     */
+    private double getDouble(String name)
+    {
+        try {
+            return Double.parseDouble(values.get(name));
+        }
+        catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value of " + name + ": " + values.get(name));
+        }
+    }
+
+    /**
+     * Return the value of a parameter that is a whole number.
+     * @param name The name of the parameter.
+     * @return The value.
+     */
+    private int getInt(String name)
+    {
+        try {
+            return Integer.parseInt(values.get(name));
+        }
+        catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value of " + name + ": " + values.get(name));
+        }
+    }
+
+    /**
+     * Add the default values of a species.
+     */
+    private static void addDefaults(Map<String, String> values, Class<? extends Organism> speciesClass, int reproductionAge,
+                                    int maxAge, double reproductionProbability, int maxReproductionSize,
+                                    int foodValue, double creationProbability)
+    {
+        String prefix = speciesClass.getName() + ".";
+        values.put(prefix + REPRODUCTION_AGE, Integer.toString(reproductionAge));
+        values.put(prefix + MAX_AGE, Integer.toString(maxAge));
+        values.put(prefix + REPRODUCTION_PROBABILITY, Double.toString(reproductionProbability));
+        values.put(prefix + MAX_REPRODUCTION_SIZE, Integer.toString(maxReproductionSize));
+        values.put(prefix + FOOD_VALUE, Integer.toString(foodValue));
+        values.put(prefix + CREATION_PROBABILITY, Double.toString(creationProbability));
+    }
+
+    /**
+     * The traits of one species, read once from the parameters.
+     */
+    public static class Traits
+    {
+        // The age at which an organism can start to breed.
+        private final int reproductionAge;
+        // The age to which an organism can live.
+        private final int maxAge;
+        // The likelihood of an organism breeding.
+        private final double reproductionProbability;
+        // The maximum number of births.
+        private final int maxReproductionSize;
+        // The number of steps an animal can go without eating.
+        private final int foodValue;
+        // The probability that an organism is created in any given cell.
+        private final double creationProbability;
+
+        /**
+         * Read the traits of a species.
+         * @param parameters The parameters.
+         * @param prefix The name of the species followed by a dot.
+         */
+        private Traits(Parameters parameters, String prefix)
+        {
+            reproductionAge = parameters.getInt(prefix + REPRODUCTION_AGE);
+            maxAge = parameters.getInt(prefix + MAX_AGE);
+            reproductionProbability = parameters.getDouble(prefix + REPRODUCTION_PROBABILITY);
+            maxReproductionSize = parameters.getInt(prefix + MAX_REPRODUCTION_SIZE);
+            foodValue = parameters.getInt(prefix + FOOD_VALUE);
+            creationProbability = parameters.getDouble(prefix + CREATION_PROBABILITY);
+            if(maxAge <= 0 || maxReproductionSize <= 0) {
+                throw new IllegalArgumentException("The maximum age and reproduction size of "
+                    + prefix.substring(0, prefix.length() - 1) + " must be positive");
+            }
+        }
+
+        /**
+         * @return The age at which an organism can start to breed.
+         */
+        public int getReproductionAge()
+        {
+            return reproductionAge;
+        }
+
+        /**
+         * @return The age to which an organism can live.
+         */
+        public int getMaxAge()
+        {
+            return maxAge;
+        }
+
+        /**
+         * @return The likelihood of an organism breeding.
+         */
+        public double getReproductionProbability()
+        {
+            return reproductionProbability;
+        }
+
+        /**
+         * @return The maximum number of births.
+         */
+        public int getMaxReproductionSize()
+        {
+            return maxReproductionSize;
+        }
+
+        /**
+         * @return The number of steps an animal can go without eating.
+         */
+        public int getFoodValue()
+        {
+            return foodValue;
+        }
+
+        /**
+         * @return The probability that an organism is created in any given cell.
+         */
+        public double getCreationProbability()
+        {
+            return creationProbability;
+        }
+    }
+}
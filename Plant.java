@@ -1,3 +1,4 @@
+import java.nio.ByteBuffer;
 import java.util.Random;
 import java.util.List;
 
@@ -11,16 +12,8 @@ import java.util.List;
 public class Plant extends Organism
 {
     // Characteristics shared by all plants (class variables).
-    // The age at which a plant can start to reproduce.
-    private static final int REPRODUCTION_AGE = 5;
-    // The age to which a plant can live.
-    private static final int MAX_AGE = 100;
     // The maximum height a plant can reach.
     private static final int MAX_HEIGHT = 5;
-    // The likelihood of a plant reproducing.
-    private static final double REPRODUCTION_PROBABILITY = 0.1;
-    // The maximum number of new plants resulting from reproduction.
-    private static final int MAX_REPRODUCTION_SIZE = 2;
     
     // The plant's height
     private int height;
@@ -30,14 +23,14 @@ public class Plant extends Organism
      * 
      * @param randomAge Whether the plant has a random age or not.
      * @param field The field currently occupied.
-     * @param location The location within the field.
+     * @param cell The index of the cell within the field.
      */
-    public Plant(boolean randomAge, Field field, Location location)
+    public Plant(boolean randomAge, Field field, int cell)
     {
-        super(randomAge, MAX_AGE, field, location);
+        super(randomAge, field, cell);
         
         if(randomAge) {
-            Random rand = new Random();
+            Random rand = Randomizer.getRandom();
             height = rand.nextInt(MAX_HEIGHT);
         }
         else {
@@ -46,50 +39,75 @@ public class Plant extends Organism
     }
     
     /**
-     * This method returns the minimum age for the plant to be able to reproduce.
+     * Bring a dead plant from a pool back to life as a new plant.
+     * 
+     * @param field The field the plant grows in.
+     * @param cell The index of the cell within the field.
+     */
+    void reinitialise(Field field, int cell)
+    {
+        super.reinitialise(field, cell);
+        height = 0;
+    }
+    
+    /**
+     * Write the plant's state into a checkpoint.
+     * @param out The buffer to write to, with room for the plant.
+     */
+    void writeState(ByteBuffer out)
+    {
+        super.writeState(out);
+        out.putInt(height);
+    }
+    
+    /**
+     * Read the plant's state back from a checkpoint.
+     * @param in The buffer to read from.
      */
-    public int getReproductionAge()
+    void readState(ByteBuffer in)
     {
-        return REPRODUCTION_AGE;
+        super.readState(in);
+        height = in.getInt();
     }
     
     /**
-     * This method returns the maximum age the plant can live.
+     * Plants only age, grow and try to reproduce on their own, so
+     * they can be left dormant between their attempts.
+     * @return true
      */
-    public int getMaxAge()
+    boolean isSchedulable()
     {
-        return MAX_AGE;
+        return true;
     }
     
     /**
-     * This method returns the likelihood of the plant's reproduction.
+     * Let the plant grow for the given number of steps.
+     * @param steps The number of steps.
      */
-    public double getReproductionProbability()
+    protected void passTime(int steps)
     {
-        return REPRODUCTION_PROBABILITY;
+        if(height <= MAX_HEIGHT)
+            height = Math.min(height + steps, MAX_HEIGHT + 1);
     }
     
     /**
-     * This method returns the maximum number of new plants that the plant can give.
+     * Make the plant older. It may cease to exist of old age.
      */
-    public int getMaxReproductionSize()
+    protected void growOlder()
     {
-        return MAX_REPRODUCTION_SIZE;
+        incrementAge(getMaxAge());
     }
     
     /**
      * This is what the plant does - it grows. 
-     * Sometimes it will reproduce or cease to exist of old age.
+     * Sometimes it will reproduce.
      * 
      * @param newPlants A list to return newly created plants.
      */
-    public void act(List<Organism> newPlants, Day day)
+    protected void live(List<Organism> newPlants, Day day)
     {
-        incrementAge(MAX_AGE);
-        if(isAlive()) {
-            grow();
-            reproduce(newPlants);
-        }
+        grow();
+        reproduce(newPlants);
     }
     
     /**
@@ -99,10 +117,7 @@ public class Plant extends Organism
      */
     private void reproduce(List<Organism> newPlants)
     {
-        // New plants are created into adjacent locations.
-        // Get a list of adjacent free locations.
         Field field = getField();
-        List<Location> free = field.getFreeAdjacentLocations(getLocation(), this);
         int births = 0;
         
         if(canBreed())
@@ -110,9 +125,18 @@ public class Plant extends Organism
             births = breed();
         }
         
-        for(int b = 0; b < births && free.size() > 0; b++) {
-            Location loc = free.remove(0);
-            createNew(newPlants, field, loc);
+        // New plants are created into free adjacent locations.
+        if(births > 0) {
+            Neighbourhood.Cursor cursor = field.cursor();
+            field.adjacentCells(getCell(), cursor);
+            while(births > 0 && cursor.hasNext()) {
+                int cell = cursor.next();
+                if(field.isFreeFor(cell, this)) {
+                    createNew(newPlants, field, cell);
+                    logBirth(cell);
+                    births--;
+                }
+            }
         }
     }
     
@@ -121,9 +145,15 @@ public class Plant extends Organism
      * 
      * @param newPlants A list to return newly created plants.
      */
-    private void createNew(List<Organism> newPlants, Field field, Location location)
+    private void createNew(List<Organism> newPlants, Field field, int cell)
     {
-        Plant young = new Plant(false, field, location);
+        Plant young = (Plant) fromPool(field);
+        if(young != null) {
+            young.reinitialise(field, cell);
+        }
+        else {
+            young = new Plant(false, field, cell);
+        }
         newPlants.add(young);
     }
     
@@ -141,6 +171,12 @@ public class Plant extends Organism
      */
     public void decreaseHeight()
     {
+        // A dormant plant's height is worked out when it is needed.
+        Field field = getField();
+        if(isScheduled() && field != null && field.getScheduler() != null) {
+            catchUp(field.getScheduler().getStep());
+        }
+        markChanged();
         height -= 3;
         if(height <= 0) {
             setDead();
@@ -14,14 +14,12 @@ public abstract class Predator extends Animal
      * and not hungry) or with a random age and food level.
      * 
      * @param randomAge If true, the predator will have random age and hunger level.
-     * @param maxAge The maximum age of the predator.
-     * @param foodValue The food value of the predator.
      * @param field The field currently occupied.
-     * @param location The location within the field.
+     * @param cell The index of the cell within the field.
      * @param geneList The genes possessed by the predator.
      */
-    public Predator(boolean randomAge, int maxAge, int foodValue, Field field, Location location, List<Gene> geneList)
+    public Predator(boolean randomAge, Field field, int cell, List<Gene> geneList)
     {
-        super(randomAge, maxAge, foodValue, field, location, geneList);
+        super(randomAge, field, cell, geneList);
     }
 }
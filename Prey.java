@@ -14,14 +14,12 @@ public abstract class Prey extends Animal
      * zero (a new born) or with a random age.
      * 
      * @param randomAge If true, the prey animal will have random age and hunger level.
-     * @param maxAge The maximum age of the prey animal.
-     * @param foodValue The food value of the prey animal.
      * @param field The field currently occupied.
-     * @param location The location within the field.
+     * @param cell The index of the cell within the field.
      * @param geneList The genes possessed by the prey animal.
      */
-    public Prey(boolean randomAge, int maxAge, int foodValue, Field field, Location location, List<Gene> geneList)
+    public Prey(boolean randomAge, Field field, int cell, List<Gene> geneList)
     {
-        super(randomAge, maxAge, foodValue, field, location, geneList);
+        super(randomAge, field, cell, geneList);
     }
 }
@@ -10,74 +10,18 @@ import java.util.List;
  */
 public class Rabbit extends Prey
 {
-    // Characteristics shared by all rabbits (class variables).
-
-    // The age at which a rabbit can start to breed.
-    private static final int REPRODUCTION_AGE = 5;
-    // The age to which a rabbit can live.
-    private static final int MAX_AGE = 50;
-    // The likelihood of a rabbit breeding.
-    private static final double REPRODUCTION_PROBABILITY = 0.24;
-    // The maximum number of births.
-    private static final int MAX_REPRODUCTION_SIZE = 6;
-    // The food value of a single food portion. In effect, this is the
-    // number of steps a rabbit can go before it has to eat again.
-    private static final int FOOD_VALUE = 25;
-    
     /**
      * Create a new rabbit. A rabbit may be created with age
      * zero (a new born) or with a random age.
      * 
      * @param randomAge If true, the rabbit will have random age and hunger level.
-     * @param MAX_AGE The maximum age of the rabbit.
-     * @param FOOD_VALUE The food value of the rabbit.
      * @param field The field currently occupied.
-     * @param location The location within the field.
+     * @param cell The index of the cell within the field.
      * @param geneList The genes possessed by the rabbit.
      */
-    public Rabbit(boolean randomAge, Field field, Location location, List<Gene> geneList)
-    {
-        super(randomAge, MAX_AGE, FOOD_VALUE, field, location, geneList);
-    }
-    
-    /**
-     * This method returns the minimum age for the rabbit to be able to breed.
-     */
-    public int getReproductionAge()
-    {
-        return REPRODUCTION_AGE;
-    }
-    
-    /**
-     * This method returns the maximum age the rabbit can live.
-     */
-    public int getMaxAge()
-    {
-        return MAX_AGE;
-    }
-    
-    /**
-     * This method returns the likelihood of the rabbit's reproduction.
-     */
-    public double getReproductionProbability()
-    {
-        return REPRODUCTION_PROBABILITY;
-    }
-    
-    /**
-     * This method returns the maximum number of births that the rabbit can give.
-     */
-    public int getMaxReproductionSize()
+    public Rabbit(boolean randomAge, Field field, int cell, List<Gene> geneList)
     {
-        return MAX_REPRODUCTION_SIZE;
-    }
-    
-    /**
-     * This method returns the number of steps left before the rabbit has to eat again.
-     */
-    public int getFoodValue()
-    {
-        return FOOD_VALUE;
+        super(randomAge, field, cell, geneList);
     }
     
     /**
@@ -85,9 +29,12 @@ public class Rabbit extends Prey
      * New births will be made into free adjacent locations.
      * @param newRabbits A list to return newly born rabbits.
      */
-    public void giveBirth(List<Organism> newRabbits, List<Gene> childrenGenes, Field field, Location location)
+    public void giveBirth(List<Organism> newRabbits, List<Gene> childrenGenes, Field field, int cell)
     {
-        Rabbit young = new Rabbit(false, field, location, childrenGenes);
+        Animal young = recycle(field, cell, childrenGenes);
+        if(young == null) {
+            young = new Rabbit(false, field, cell, childrenGenes);
+        }
         newRabbits.add(young);
     }
     
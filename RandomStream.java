@@ -0,0 +1,145 @@
+import java.util.Random;
+
+/**
+ * A fast random generator for a single thread, based on SplitMix64.
+ * Unlike java.util.Random it needs no atomic operations, and its
+ * sequences are well spread even for closely related seeds, so that
+ * separate streams can be derived for every step, tile or organism
+ * from a single seed (see Randomizer.stream).
+ *
+ * A stream must not be shared between threads.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.08
+ */
+public class RandomStream extends Random
+{
+    // The version of the serialized form, which holds the state below.
+    private static final long serialVersionUID = 1L;
+    // The increment of the state between two numbers.
+    private static final long GAMMA = 0x9E3779B97F4A7C15L;
+    // The factor turning 53 random bits into a double in [0, 1).
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    // The state of the generator. It is set by setSeed, which
+    // the constructor of Random calls.
+    private long state;
+
+    /**
+     * Create a stream with the given seed.
+     * @param seed The seed of the stream.
+     */
+    public RandomStream(long seed)
+    {
+        super(seed);
+    }
+
+    /**
+     * Restart the stream from the given seed.
+     * @param seed The new seed.
+     */
+    public void setSeed(long seed)
+    {
+        state = seed;
+    }
+
+    /**
+     * Return the current state of the stream, from which it can be
+     * restarted with setSeed.
+     * @return The state of the stream.
+     */
+    public long getState()
+    {
+        return state;
+    }
+
+    /**
+     * Create a new stream, independent of this one, from its next number.
+     * @return The new stream.
+     */
+    public RandomStream split()
+    {
+        return new RandomStream(mix(nextLong()));
+    }
+
+    /**
+     * @return The next random long.
+     */
+    public long nextLong()
+    {
+        state += GAMMA;
+        return mix(state);
+    }
+
+    /**
+     * @return The next random int.
+     */
+    public int nextInt()
+    {
+        return (int) (nextLong() >>> 32);
+    }
+
+    /**
+     * Return a random int between 0 (inclusive) and the bound (exclusive).
+     * @param bound The bound, greater than zero.
+     * @return The random int.
+     */
+    public int nextInt(int bound)
+    {
+        if(bound <= 0) {
+            throw new IllegalArgumentException("The bound must be positive: " + bound);
+        }
+        // Multiply 31 random bits by the bound, rejecting the few values that
+        // would make the result uneven.
+        long product = (nextLong() >>> 33) * bound;
+        long low = product & 0x7FFFFFFFL;
+        if(low < bound) {
+            long threshold = (0x80000000L - bound) % bound;
+            while(low < threshold) {
+                product = (nextLong() >>> 33) * bound;
+                low = product & 0x7FFFFFFFL;
+            }
+        }
+        return (int) (product >>> 31);
+    }
+
+    /**
+     * @return The next random double between 0 (inclusive) and 1 (exclusive).
+     */
+    public double nextDouble()
+    {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    /**
+     * @return The next random boolean.
+     */
+    public boolean nextBoolean()
+    {
+        return nextLong() < 0;
+    }
+
+    /**
+     * Produce the given number of random bits, for the methods inherited
+     * from Random.
+     * @param bits The number of bits, at most 32.
+     * @return The random bits.
+     */
+    protected int next(int bits)
+    {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    /**
+     * Scramble the bits of a value, as the output function of SplitMix64.
+     * Closely related values give unrelated results.
+     * @param value The value to scramble.
+     * @return The scrambled value.
+     */
+    public static long mix(long value)
+    {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+}
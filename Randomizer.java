@@ -1,52 +1,140 @@
-import java.util.Random;
-
-/**
- * Provide control over the randomization of the simulation. By using the shared, fixed-seed 
- * randomizer, repeated runs will perform exactly the same (which helps with testing). Set 
- * 'useShared' to false to get different random behaviour every time.
- * 
- * @author David J. Barnes and Michael Kölling
- * @version 2016.02.29
- */
-public class Randomizer
-{
-    // The default seed for control of randomization.
-    private static final int SEED = 1111;
-    // A shared Random object, if required.
-    private static final Random rand = new Random(SEED);
-    // Determine whether a shared random generator is to be provided.
-    private static final boolean useShared = true;
-
-    /**
-     * Constructor for objects of class Randomizer
-     */
-    public Randomizer()
-    {
-    }
-
-    /**
-     * Provide a random generator.
-     * @return A random object.
-     */
-    public static Random getRandom()
-    {
-        if(useShared) {
-            return rand;
-        }
-        else {
-            return new Random();
-        }
-    }
-    
-    /**
-     * Reset the randomization.
-     * This will have no effect if randomization is not through
-     * a shared Random generator.
-     */
-    public static void reset()
-    {
-        if(useShared) {
-            rand.setSeed(SEED);
-        }
-    }
-}
+import java.util.Random;
+
+/**
+ * Provide control over the randomization of the simulation. By using the shared, fixed-seed 
+ * randomizer, repeated runs will perform exactly the same (which helps with testing). Set 
+ * 'useShared' to false to get different random behaviour every time.
+ * 
+ * For parallel and reproducible runs, independent streams are derived from a seed and 
+ * any number of keys, such as the step and the tile (see stream). A stream is bound to 
+ * the thread using it, and all the randomness of the simulation goes through getRandom, 
+ * so the organisms draw from the stream of the part of the work they belong to.
+ * 
+ * @author David J. Barnes and Michael Kölling
+ *          extended by Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.08
+ */
+public class Randomizer
+{
+    // The default seed for control of randomization.
+    private static final int SEED = 1111;
+    // The seed from which simulations derive their streams by default.
+    private static long seed = SEED;
+    // A shared Random object, if required.
+    private static final Random rand = new Random(SEED);
+    // Determine whether a shared random generator is to be provided.
+    private static final boolean useShared = true;
+    // Random generators bound to single threads, e.g. while they work on one tile.
+    private static final ThreadLocal<Random> bound = new ThreadLocal<>();
+
+    /**
+     * Constructor for objects of class Randomizer
+     */
+    public Randomizer()
+    {
+    }
+
+    /**
+     * Provide a random generator. If a generator has been bound to
+     * the current thread, that generator is provided.
+     * @return A random object.
+     */
+    public static Random getRandom()
+    {
+        Random threadRandom = bound.get();
+        if(threadRandom != null) {
+            return threadRandom;
+        }
+        if(useShared) {
+            return rand;
+        }
+        else {
+            return new Random();
+        }
+    }
+    
+    /**
+     * Bind a random generator to the current thread. Until it is
+     * unbound, getRandom will provide it on this thread only.
+     * @param threadRandom The generator to bind, or null to unbind.
+     * @return The generator bound before, or null if there was none.
+     */
+    public static Random bind(Random threadRandom)
+    {
+        Random previous = bound.get();
+        if(threadRandom != null) {
+            bound.set(threadRandom);
+        }
+        else {
+            bound.remove();
+        }
+        return previous;
+    }
+    
+    /**
+     * Derive a stream from a seed and a key. Different keys give
+     * independent streams, and the same seed and key always give
+     * the same stream.
+     * @param seed The seed of the simulation.
+     * @param key The key, e.g. the number of the step.
+     * @return A new stream.
+     */
+    public static RandomStream stream(long seed, long key)
+    {
+        return new RandomStream(derive(seed, key));
+    }
+    
+    /**
+     * Derive a stream from a seed and two keys, e.g. the step
+     * and the tile.
+     * @param seed The seed of the simulation.
+     * @param key The first key.
+     * @param subkey The second key.
+     * @return A new stream.
+     */
+    public static RandomStream stream(long seed, long key, long subkey)
+    {
+        return new RandomStream(derive(derive(seed, key), subkey));
+    }
+    
+    /**
+     * Derive a new seed from a seed and a key.
+     * @param seed The seed.
+     * @param key The key.
+     * @return The derived seed.
+     */
+    public static long derive(long seed, long key)
+    {
+        return RandomStream.mix(RandomStream.mix(seed) + (key + 1) * 0x9E3779B97F4A7C15L);
+    }
+    
+    /**
+     * Return the seed from which simulations derive their streams by default.
+     * @return The default seed.
+     */
+    public static long getSeed()
+    {
+        return seed;
+    }
+    
+    /**
+     * Set the seed from which new simulations derive their streams.
+     * @param newSeed The new default seed.
+     */
+    public static void setSeed(long newSeed)
+    {
+        seed = newSeed;
+    }
+    
+    /**
+     * Reset the randomization.
+     * This will have no effect if randomization is not through
+     * a shared Random generator.
+     */
+    public static void reset()
+    {
+        if(useShared) {
+            rand.setSeed(SEED);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Hand the frames of the simulation over to a rendering thread. The
+ * simulation thread publishes a frame into a single slot and carries
+ * on at once; the rendering thread takes the newest frame out of the
+ * slot and shows it. A frame still in the slot when the next one is
+ * published is stale and is dropped, so a slow display costs frames,
+ * not steps.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.08
+ */
+public class RenderPipeline
+{
+    // The frame waiting to be shown, or null if there is none.
+    private final AtomicReference<FrameSnapshot> slot;
+    // What shows a frame, called on the rendering thread.
+    private final Consumer<FrameSnapshot> display;
+    // The rendering thread.
+    private final Thread thread;
+    // Whether the pipeline has been shut down.
+    private volatile boolean stopped;
+    // The numbers of frames published, shown and dropped.
+    private volatile long published, shown, dropped;
+
+    /**
+     * Create a pipeline and start its rendering thread.
+     * @param name The name of the rendering thread.
+     * @param display What shows a frame, called on the rendering thread.
+     */
+    public RenderPipeline(String name, Consumer<FrameSnapshot> display)
+    {
+        slot = new AtomicReference<>();
+        this.display = display;
+        thread = new Thread(this::renderFrames, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Publish a frame to be shown, dropping the frame waiting to be shown, if any.
+     * Only to be called by one thread, the simulation thread.
+     * @param frame The frame.
+     */
+    public void publish(FrameSnapshot frame)
+    {
+        published++;
+        if(slot.getAndSet(frame) != null) {
+            dropped++;
+        }
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Show the frames published, the newest one each time, until the
+     * pipeline is shut down.
+     */
+    private void renderFrames()
+    {
+        while(!stopped) {
+            FrameSnapshot frame = slot.getAndSet(null);
+            if(frame == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            display.accept(frame);
+            shown++;
+        }
+    }
+
+    /**
+     * Stop the rendering thread. Frames published afterwards are not shown.
+     */
+    public void shutdown()
+    {
+        stopped = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Describe the use of the pipeline.
+     * @return A string with the numbers of frames published, shown and dropped.
+     */
+    public String getStatistics()
+    {
+        return "Published: " + published + " Shown: " + shown + " Dropped: " + dropped;
+    }
+}
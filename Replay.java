@@ -0,0 +1,466 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Go back and forth in a run. A run is fully determined by its seed,
+ * its parameters and its state at any step, so any later step can be
+ * reached again by restoring an earlier state and simulating from it.
+ * A replay keeps two kinds of earlier states:
+ *
+ * - the checkpoints of a store, saved at regular intervals while the run
+ *   is recorded, and kept for good (see CheckpointStore);
+ * - if asked for (see setHistory), a ring of compressed snapshots of the
+ *   most recent steps, kept in memory for stepping backwards.
+ *
+ * To seek a step, the replay takes the latest of these states at or
+ * before the step, or the current state if that is later, and simulates
+ * the steps in between without showing them. If none is kept, the run is
+ * made again from its starting position, which takes time in proportion
+ * to the step. The engine it ends up with replaces the current one.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.08
+ */
+public class Replay implements SimulationObserver
+{
+    // The number of checkpoints after which the store starts again from a base,
+    // so that a checkpoint is restored through a few deltas only.
+    private static final int BASE_INTERVAL = 16;
+
+    // The engine in its current state, or null before the first seek.
+    private SimulationEngine engine;
+    // The store of the checkpoints of the run, or null if there is none.
+    private CheckpointStore store;
+    // The number of steps between the checkpoints saved, or 0 to save none.
+    private int checkpointInterval;
+    // The last step saved in the store.
+    private int lastSaved;
+    // The ring of recent snapshots, compressed full checkpoints, and their steps.
+    private byte[][] snapshots;
+    private int[] snapshotSteps;
+    // The index of the oldest snapshot in the ring and the number of snapshots.
+    private int oldest, count;
+    // The number of steps between the snapshots.
+    private int snapshotInterval;
+    // The last step observed and the seed of the run.
+    private int lastStep;
+    private long seed;
+    // Whether the steps observed are being replayed by a seek.
+    private boolean seeking;
+    // The recorder of the statistics of the steps, or null if there is none.
+    private TimeSeriesRecorder timeSeries;
+    // Told of the store when it is given up, or null.
+    private Consumer<CheckpointStore> storeDropped;
+
+    /**
+     * Create a replay of a run being made. Unless they were set on the
+     * store, it is given a base interval and no compaction, so that every
+     * checkpoint saved can be sought and is restored through a few deltas.
+     * @param engine The engine of the run.
+     * @param store The store of the checkpoints of the run, or null if there is none.
+     */
+    public Replay(SimulationEngine engine, CheckpointStore store)
+    {
+        this.store = store;
+        lastSaved = -1;
+        snapshots = new byte[0][];
+        snapshotSteps = new int[0];
+        snapshotInterval = 1;
+        if(store != null) {
+            if(!store.isConfigured()) {
+                store.setCompactionInterval(0);
+                store.setBaseInterval(BASE_INTERVAL);
+            }
+            for(int step : store.getSteps()) {
+                lastSaved = Math.max(lastSaved, step);
+            }
+        }
+        if(engine != null) {
+            attach(engine);
+        }
+    }
+
+    /**
+     * Create a replay of a recorded run.
+     * @param store The store of the checkpoints of the run.
+     */
+    public Replay(CheckpointStore store)
+    {
+        this(null, store);
+    }
+
+    /**
+     * Save a checkpoint into the store every given number of steps.
+     * @param steps The number of steps between the checkpoints, or 0 to save none.
+     */
+    public void setCheckpointInterval(int steps)
+    {
+        checkpointInterval = steps;
+        if(engine != null) {
+            keep(engine.getStep(), false);
+        }
+    }
+
+    /**
+     * Be told when the store is given up because the run was reset with
+     * another seed, so that its owner can close it. No checkpoint is
+     * saved into the store after that.
+     * @param listener Told of the store given up, or null.
+     */
+    public void setStoreDropped(Consumer<CheckpointStore> listener)
+    {
+        storeDropped = listener;
+    }
+
+    /**
+     * Keep snapshots of the most recent steps, for stepping backwards.
+     * None are kept by default. A snapshot is a full checkpoint, written
+     * and compressed on the simulation thread when it is due, so it costs
+     * time and memory in proportion to the population: on the default
+     * field, about 10 ms and 110 KB. The snapshots kept so far are given up.
+     * @param size The number of snapshots kept, or 0 to keep none.
+     * @param interval The number of steps between the snapshots.
+     */
+    public void setHistory(int size, int interval)
+    {
+        snapshots = new byte[size][];
+        snapshotSteps = new int[size];
+        snapshotInterval = Math.max(1, interval);
+        clearHistory();
+        if(engine != null) {
+            keep(engine.getStep(), true);
+        }
+    }
+
+    /**
+     * Give up the snapshots kept so far.
+     */
+    private void clearHistory()
+    {
+        Arrays.fill(snapshots, null);
+        oldest = 0;
+        count = 0;
+    }
+
+    /**
+     * Record the statistics of the steps of the run, following the engine
+     * through seeks, so that the steps simulated by a seek forwards are
+     * recorded whichever state they are simulated from.
+     * @param recorder The recorder, or null to record none.
+     */
+    public void setTimeSeries(TimeSeriesRecorder recorder)
+    {
+        timeSeries = recorder;
+        if(timeSeries != null && engine != null) {
+            timeSeries.attach(engine);
+        }
+    }
+
+    /**
+     * Return the engine in its current state.
+     * @return The engine, or null before the first seek of a recorded run.
+     */
+    public SimulationEngine getEngine()
+    {
+        return engine;
+    }
+
+    /**
+     * Follow another run, such as one restored from a checkpoint. The
+     * snapshots kept so far are given up.
+     * @param newEngine The engine of the run.
+     */
+    public void setEngine(SimulationEngine newEngine)
+    {
+        clearHistory();
+        attach(newEngine);
+    }
+
+    /**
+     * Stop keeping the checkpoints and snapshots of the steps of the run.
+     */
+    public void detach()
+    {
+        if(engine != null) {
+            engine.removeObserver(this);
+        }
+    }
+
+    /**
+     * Keep the checkpoints and snapshots of the steps made by an engine.
+     * @param newEngine The engine.
+     */
+    private void attach(SimulationEngine newEngine)
+    {
+        if(engine != null) {
+            engine.removeObserver(this);
+        }
+        engine = newEngine;
+        lastStep = engine.getStep();
+        seed = engine.getSeed();
+        engine.addObserver(this);
+        keep(engine.getStep(), true);
+        if(timeSeries != null) {
+            timeSeries.attach(engine);
+        }
+    }
+
+    /**
+     * Keep the checkpoint and snapshot of a step, if they are due.
+     * @param step The step completed.
+     * @param day The day at the step.
+     * @param field The field at the step.
+     */
+    public void stepCompleted(int step, Day day, Field field)
+    {
+        if((step < lastStep || engine.getSeed() != seed) && !seeking) {
+            // The run was reset: the snapshots belong to another run, and
+            // so do the checkpoints if the seed changed.
+            clearHistory();
+            if(engine.getSeed() != seed) {
+                seed = engine.getSeed();
+                CheckpointStore dropped = store;
+                store = null;
+                if(dropped != null && storeDropped != null) {
+                    storeDropped.accept(dropped);
+                }
+            }
+        }
+        lastStep = step;
+        if(!seeking) {
+            keep(step, true);
+        }
+    }
+
+    /**
+     * Keep the checkpoint and snapshot of the current step of the engine, if they are due.
+     * @param step The current step.
+     * @param snapshot Whether to keep a snapshot if one is due.
+     */
+    private void keep(int step, boolean snapshot)
+    {
+        try {
+            if(store != null && checkpointInterval > 0 && step % checkpointInterval == 0 && step > lastSaved) {
+                store.save(engine);
+                lastSaved = step;
+            }
+            if(snapshot && snapshots.length > 0 && step % snapshotInterval == 0 && findSnapshot(step) != step) {
+                addSnapshot(step, compress(engine));
+            }
+        }
+        catch(IOException e) {
+            throw new IllegalStateException("Cannot keep the state of step " + step, e);
+        }
+    }
+
+    /**
+     * Go to a step of the run. The nearest earlier state is restored, or
+     * the run is reset to its starting position if none is kept, and the
+     * steps in between are simulated, without being shown.
+     * @param step The step to go to.
+     * @return The engine at the step, which replaces the current one.
+     * @throws IOException If the state needed cannot be restored, or if no
+     *                     state of a recorded run is kept at or before the step.
+     */
+    public SimulationEngine seek(int step) throws IOException
+    {
+        int current = engine != null && engine.getStep() <= step ? engine.getStep() : -1;
+        int snapshot = findSnapshot(step);
+        int checkpoint = -1;
+        if(store != null) {
+            for(int saved : store.getSteps()) {
+                if(saved <= step) {
+                    checkpoint = Math.max(checkpoint, saved);
+                }
+            }
+        }
+
+        SimulationEngine start;
+        boolean restart = false;
+        if(current >= 0 && current >= snapshot && current >= checkpoint) {
+            start = engine;
+        }
+        else if(snapshot >= 0 && snapshot >= checkpoint) {
+            start = decompress(snapshots[indexOf(snapshot)]);
+        }
+        else if(checkpoint >= 0) {
+            start = store.load(checkpoint);
+        }
+        else if(engine != null) {
+            // The run is determined by its seed, so it can be made again from the start.
+            start = engine;
+            restart = true;
+        }
+        else {
+            throw new IOException("No state kept at or before step " + step);
+        }
+
+        if(start != engine) {
+            if(engine != null) {
+                engine.setSequential();
+            }
+            attach(start);
+        }
+        // Fast forward, keeping the checkpoints and snapshots of new steps only.
+        seeking = true;
+        try {
+            if(restart) {
+                engine.reset();
+            }
+            while(engine.getStep() < step && engine.isViable()) {
+                engine.simulateOneStep();
+                // Only the snapshots of the last steps before the target would stay in the ring.
+                keep(engine.getStep(), step - engine.getStep() < snapshots.length * snapshotInterval);
+            }
+        }
+        finally {
+            seeking = false;
+        }
+        return engine;
+    }
+
+    /**
+     * Go back one step.
+     * @return The engine at the step before, which replaces the current one.
+     * @throws IOException If there is no step before, or if the state
+     *                     needed cannot be restored.
+     */
+    public SimulationEngine stepBack() throws IOException
+    {
+        if(engine == null || engine.getStep() == 0) {
+            throw new IOException("No step before the current one");
+        }
+        return seek(engine.getStep() - 1);
+    }
+
+    /**
+     * Return the latest step of a snapshot at or before a step.
+     * @param step The step.
+     * @return The step of the snapshot, or -1 if there is none.
+     */
+    private int findSnapshot(int step)
+    {
+        int found = -1;
+        for(int index = 0; index < count; index++) {
+            int snapshotStep = snapshotSteps[(oldest + index) % snapshots.length];
+            if(snapshotStep <= step && snapshotStep > found) {
+                found = snapshotStep;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Return the index in the ring of the snapshot of a step.
+     * @param step The step of a snapshot in the ring.
+     * @return The index.
+     */
+    private int indexOf(int step)
+    {
+        for(int index = 0; index < count; index++) {
+            int ringIndex = (oldest + index) % snapshots.length;
+            if(snapshotSteps[ringIndex] == step) {
+                return ringIndex;
+            }
+        }
+        throw new IllegalArgumentException("No snapshot of step " + step);
+    }
+
+    /**
+     * Put a snapshot in the ring, in place of the oldest one if the ring is full.
+     * @param step The step of the snapshot.
+     * @param snapshot The compressed snapshot.
+     */
+    private void addSnapshot(int step, byte[] snapshot)
+    {
+        int index = (oldest + count) % snapshots.length;
+        if(count == snapshots.length) {
+            oldest = (oldest + 1) % snapshots.length;
+        }
+        else {
+            count++;
+        }
+        snapshots[index] = snapshot;
+        snapshotSteps[index] = step;
+    }
+
+    /**
+     * Take a compressed snapshot of the state of an engine.
+     * @param source The engine.
+     * @return The compressed full checkpoint.
+     */
+    private static byte[] compress(SimulationEngine source) throws IOException
+    {
+        Checkpoint.Output out = new Checkpoint.Output(ByteBuffer.allocate(1 << 16));
+        Checkpoint.write(source, out);
+        ByteBuffer checkpoint = out.getBuffer();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(checkpoint.array(), 0, checkpoint.position());
+            deflater.finish();
+            // The length of the checkpoint comes first.
+            byte[] compressed = new byte[checkpoint.position() / 2 + 64];
+            ByteBuffer.wrap(compressed).putInt(checkpoint.position());
+            int length = 4;
+            while(!deflater.finished()) {
+                if(length == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            return Arrays.copyOf(compressed, length);
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Restore an engine from a compressed snapshot.
+     * @param snapshot The compressed snapshot.
+     * @return A new engine in the state of the snapshot.
+     */
+    private static SimulationEngine decompress(byte[] snapshot) throws IOException
+    {
+        byte[] checkpoint = new byte[ByteBuffer.wrap(snapshot).getInt()];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(snapshot, 4, snapshot.length - 4);
+            int length = 0;
+            while(length < checkpoint.length && !inflater.finished()) {
+                length += inflater.inflate(checkpoint, length, checkpoint.length - length);
+            }
+        }
+        catch(DataFormatException e) {
+            throw new IOException("Corrupt snapshot", e);
+        }
+        finally {
+            inflater.end();
+        }
+        return Checkpoint.read(new Checkpoint.Input(ByteBuffer.wrap(checkpoint)));
+    }
+
+    /**
+     * Describe the states kept.
+     * @return A string with the steps of the snapshots and the number of checkpoints.
+     */
+    public String getStatistics()
+    {
+        long bytes = 0;
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        for(int index = 0; index < count; index++) {
+            int ringIndex = (oldest + index) % snapshots.length;
+            bytes += snapshots[ringIndex].length;
+            first = Math.min(first, snapshotSteps[ringIndex]);
+            last = Math.max(last, snapshotSteps[ringIndex]);
+        }
+        return "Snapshots: " + count + (count > 0 ? " (steps " + first + "-" + last + ", " + bytes + " bytes)" : "")
+               + " Checkpoints: " + (store != null ? store.getCount() : 0);
+    }
+}
@@ -0,0 +1,130 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A calendar of the steps at which dormant organisms wake up. Plants and
+ * viruses only age and grow between their breeding attempts, so instead
+ * of acting every step they are woken at the next step at which something
+ * can happen to them (see Organism.wake); the ages and heights in between
+ * are caught up when they are needed.
+ *
+ * The calendar is a ring of buckets, one for each step of a revolution.
+ * An organism waking more than a revolution ahead stays in its bucket
+ * until its step comes round.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.08
+ */
+public class Scheduler
+{
+    // The number of buckets, a power of two.
+    private static final int BUCKETS = 256;
+
+    // The organisms waking at the steps of one revolution, by step.
+    private List<List<Organism>> buckets;
+    // The step being made.
+    private int step;
+    // The number of organisms in the calendar.
+    private int size;
+
+    /**
+     * Create an empty calendar.
+     */
+    public Scheduler()
+    {
+        buckets = new ArrayList<>();
+        for(int bucket = 0; bucket < BUCKETS; bucket++) {
+            buckets.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Enter an organism in the calendar, at the step it wakes up.
+     * @param organism The organism, whose waking step is set.
+     */
+    public void schedule(Organism organism)
+    {
+        buckets.get(organism.getWakeStep() & (BUCKETS - 1)).add(organism);
+        size++;
+    }
+
+    /**
+     * Take the organisms waking at the given step out of the calendar,
+     * in the order they were entered.
+     * @param wakeStep The step.
+     * @return The organisms waking at the step.
+     */
+    public List<Organism> takeDue(int wakeStep)
+    {
+        List<Organism> bucket = buckets.get(wakeStep & (BUCKETS - 1));
+        List<Organism> due = new ArrayList<>();
+        int later = 0;
+        for(Organism organism : bucket) {
+            if(organism.getWakeStep() <= wakeStep) {
+                due.add(organism);
+            }
+            else {
+                bucket.set(later++, organism);
+            }
+        }
+        bucket.subList(later, bucket.size()).clear();
+        size -= due.size();
+        return due;
+    }
+
+    /**
+     * Take all the organisms out of the calendar.
+     * @return The organisms, in the order of their buckets.
+     */
+    public List<Organism> takeAll()
+    {
+        List<Organism> all = new ArrayList<>(size);
+        for(List<Organism> bucket : buckets) {
+            all.addAll(bucket);
+            bucket.clear();
+        }
+        size = 0;
+        return all;
+    }
+
+    /**
+     * Return all the organisms in the calendar without taking them out.
+     * Entering them in this order into an empty calendar restores it.
+     * @return The organisms, in the order of their buckets.
+     */
+    public List<Organism> getAll()
+    {
+        List<Organism> all = new ArrayList<>(size);
+        for(List<Organism> bucket : buckets) {
+            all.addAll(bucket);
+        }
+        return all;
+    }
+
+    /**
+     * Return the step being made.
+     * @return The current step.
+     */
+    public int getStep()
+    {
+        return step;
+    }
+
+    /**
+     * Set the step being made.
+     * @param step The current step.
+     */
+    public void setStep(int step)
+    {
+        this.step = step;
+    }
+
+    /**
+     * Return the number of organisms in the calendar.
+     * @return The number of organisms, including dead ones not yet taken out.
+     */
+    public int size()
+    {
+        return size;
+    }
+}
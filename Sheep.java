@@ -10,74 +10,18 @@ import java.util.List;
  */
 public class Sheep extends Prey
 {
-    // Characteristics shared by all sheep (class variables).
-
-    // The age at which a sheep can start to breed.
-    private static final int REPRODUCTION_AGE = 7;
-    // The age to which a sheep can live.
-    private static final int MAX_AGE = 100;
-    // The likelihood of a sheep breeding.
-    private static final double REPRODUCTION_PROBABILITY = 0.10;
-    // The maximum number of births.
-    private static final int MAX_REPRODUCTION_SIZE = 8;
-    // The food value of a single food portion. In effect, this is the
-    // number of steps a sheep can go before it has to eat again.
-    private static final int FOOD_VALUE = 15;
-    
     /**
      * Create a new sheep. A sheep may be created with age
      * zero (a new born) or with a random age.
      * 
      * @param randomAge If true, the sheep will have random age and hunger level.
-     * @param MAX_AGE The maximum age of the sheep.
-     * @param FOOD_VALUE The food value of the sheep.
      * @param field The field currently occupied.
-     * @param location The location within the field.
+     * @param cell The index of the cell within the field.
      * @param geneList The genes possessed by the sheep.
      */
-    public Sheep(boolean randomAge, Field field, Location location, List<Gene> geneList)
-    {
-        super(randomAge, MAX_AGE, FOOD_VALUE, field, location, geneList);
-    }
-    
-    /**
-     * This method returns the minimum age for the sheep to be able to breed.
-     */
-    public int getReproductionAge()
-    {
-        return REPRODUCTION_AGE;
-    }
-    
-    /**
-     * This method returns the maximum age the sheep can live.
-     */
-    public int getMaxAge()
-    {
-        return MAX_AGE;
-    }
-    
-    /**
-     * This method returns the likelihood of the sheep's reproduction.
-     */
-    public double getReproductionProbability()
-    {
-        return REPRODUCTION_PROBABILITY;
-    }
-    
-    /**
-     * This method returns the maximum number of births that the sheep can give.
-     */
-    public int getMaxReproductionSize()
+    public Sheep(boolean randomAge, Field field, int cell, List<Gene> geneList)
     {
-        return MAX_REPRODUCTION_SIZE;
-    }
-    
-    /**
-     * This method returns the number of steps left before the sheep has to to eat again.
-     */
-    public int getFoodValue()
-    {
-        return FOOD_VALUE;
+        super(randomAge, field, cell, geneList);
     }
     
     /**
@@ -85,9 +29,12 @@ public class Sheep extends Prey
      * New births will be made into free adjacent locations.
      * @param newSheep A list to return newly born sheep.
      */ 
-    public void giveBirth(List<Organism> newSheep, List<Gene> childrenGenes, Field field, Location location)
+    public void giveBirth(List<Organism> newSheep, List<Gene> childrenGenes, Field field, int cell)
     {
-        Sheep young = new Sheep(false, field, location, childrenGenes);
+        Animal young = recycle(field, cell, childrenGenes);
+        if(young == null) {
+            young = new Sheep(false, field, cell, childrenGenes);
+        }
         newSheep.add(young);
     }
     
@@ -0,0 +1,700 @@
+import java.util.Random;
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * The core of the predator-prey simulation. The engine keeps the field,
+ * the organisms and the day, and makes the steps of the simulation.
+ * It has no user interface of its own: observers can be attached to
+ * follow the simulation, e.g. a graphical view, but without them the
+ * engine runs as fast as it can, which suits batch runs.
+ * 
+ * All the randomness of a run is derived from the seed of the engine:
+ * every step, and every tile or part of a step, draws from a stream of
+ * its own (see Randomizer.stream), so a run can be repeated exactly and
+ * several engines can run side by side without sharing a generator.
+ * 
+ * A step does not look at the quiet parts of the field: the steps walk
+ * the organisms rather than the cells, the tiled steps only start the
+ * tiles holding organisms, and the buffered steps only empty and compare
+ * the tiles that may hold them (see Field.swapBuffers). Every organism
+ * still acts in every step, even in a tile that has not changed, since
+ * it grows older and hungrier; only plants and viruses can be left
+ * dormant until something can happen to them (see setScheduled).
+ * 
+ * @author David J. Barnes and Michael Kölling
+ *          extended by Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.01
+ */
+public class SimulationEngine
+{
+    // Constants representing configuration information for the simulation.
+    // The default width for the grid.
+    public static final int DEFAULT_WIDTH = 120;
+    // The default depth of the grid.
+    public static final int DEFAULT_DEPTH = 80;
+    // The width and depth of the tiles of parallel batch runs.
+    private static final int PARALLEL_TILE_SIZE = 16;
+    // The maximum number of organisms at one location.
+    private static final int MAX_ORGANISMS_AT_LOCATION = 3;
+
+    // List of organisms in the field.
+    private List<Organism> organisms;
+    // The current state of the field.
+    private Field field;
+    // The current step of the simulation.
+    private int step;
+    // The current day.
+    private Day day;
+    // The seed from which the random streams of the run are derived.
+    private long seed;
+    // The statistics used to decide whether the simulation is viable.
+    private FieldStats stats;
+    // The observers following the simulation.
+    private List<SimulationObserver> observers;
+    // The parallel steps of the simulation, or null if they are not used.
+    private TiledStep tiledStep;
+    // The double-buffered steps of the simulation, or null if they are not used.
+    private BufferedStep bufferedStep;
+    // Whether the population counters are checked against a scan after every step.
+    private boolean checkingCounts;
+    
+    /**
+     * Construct a simulation engine with a field of default size.
+     */
+    public SimulationEngine()
+    {
+        this(DEFAULT_DEPTH, DEFAULT_WIDTH);
+    }
+    
+    /**
+     * Create a simulation engine with a field of the given size.
+     * @param depth Depth of the field. Must be greater than zero.
+     * @param width Width of the field. Must be greater than zero.
+     */
+    public SimulationEngine(int depth, int width)
+    {
+        this(depth, width, Randomizer.getSeed());
+    }
+    
+    /**
+     * Create a simulation engine with a field of the given size,
+     * whose run is derived from the given seed.
+     * @param depth Depth of the field. Must be greater than zero.
+     * @param width Width of the field. Must be greater than zero.
+     * @param seed The seed of the run.
+     */
+    public SimulationEngine(int depth, int width, long seed)
+    {
+        this(depth, width, seed, Parameters.getDefaults());
+    }
+    
+    /**
+     * Create a simulation engine with a field of the given size, whose
+     * run is derived from the given seed and has the given parameters.
+     * @param depth Depth of the field. Must be greater than zero.
+     * @param width Width of the field. Must be greater than zero.
+     * @param seed The seed of the run.
+     * @param parameters The parameters of the species.
+     */
+    public SimulationEngine(int depth, int width, long seed, Parameters parameters)
+    {
+        this(depth, width, seed, parameters, true);
+    }
+    
+    /**
+     * Create a simulation engine with a field of the given size, which
+     * is left empty unless it is populated.
+     * @param depth Depth of the field. Must be greater than zero.
+     * @param width Width of the field. Must be greater than zero.
+     * @param seed The seed of the run.
+     * @param parameters The parameters of the species.
+     * @param populated Whether to set up a starting position, or to
+     *                  leave the field empty for a restored state.
+     */
+    SimulationEngine(int depth, int width, long seed, Parameters parameters, boolean populated)
+    {
+        if(width <= 0 || depth <= 0) {
+            System.out.println("The dimensions must be greater than zero.");
+            System.out.println("Using default values.");
+            depth = DEFAULT_DEPTH;
+            width = DEFAULT_WIDTH;
+        }
+        
+        organisms = new ArrayList<>();
+        field = new Field(depth, width, MAX_ORGANISMS_AT_LOCATION, parameters);
+        day = new Day();
+        stats = new FieldStats();
+        observers = new ArrayList<>();
+        this.seed = seed;
+        
+        // Setup a valid starting point.
+        if(populated) {
+            reset();
+        }
+    }
+    
+    /**
+     * Attach an observer to the simulation. The observer is shown
+     * the current state straight away.
+     * @param observer The observer to attach.
+     */
+    public void addObserver(SimulationObserver observer)
+    {
+        observers.add(observer);
+        observer.stepCompleted(step, day, field);
+    }
+    
+    /**
+     * Detach an observer from the simulation.
+     * @param observer The observer to detach.
+     */
+    public void removeObserver(SimulationObserver observer)
+    {
+        observers.remove(observer);
+    }
+    
+    /**
+     * Make the following steps in parallel. The field is split into tiles,
+     * and tiles that do not touch act at the same time. For a given seed,
+     * the results do not depend on the number of threads.
+     * @param tileSize The width and depth of a tile, at least 2.
+     * @param parallelism The number of threads to use.
+     */
+    public void setParallel(int tileSize, int parallelism)
+    {
+        setScheduled(false);
+        setSequential();
+        tiledStep = new TiledStep(field, tileSize, parallelism);
+    }
+    
+    /**
+     * Make the following steps with a double-buffered field. The organisms
+     * only read the state of the previous step and record their intents,
+     * which are then resolved in a fixed order. For a given seed, the
+     * results do not depend on the number of threads.
+     * @param parallelism The number of threads to use.
+     */
+    public void setBuffered(int parallelism)
+    {
+        setScheduled(false);
+        setSequential();
+        bufferedStep = new BufferedStep(field, parallelism);
+    }
+    
+    /**
+     * Make the following steps with a double-buffered field, optionally
+     * keeping the changing state of the organisms in a store, where they
+     * all grow older in tight loops.
+     * @param parallelism The number of threads to use.
+     * @param stored Whether to keep the organisms' state in a store.
+     */
+    public void setBuffered(int parallelism, boolean stored)
+    {
+        setBuffered(parallelism);
+        if(stored) {
+            OrganismStore store = new OrganismStore();
+            field.setStore(store);
+            for(Organism organism : organisms) {
+                organism.store(store);
+            }
+        }
+    }
+    
+    /**
+     * Make the following steps sequentially, one organism after another,
+     * changing the field directly.
+     */
+    public void setSequential()
+    {
+        if(field.getStore() != null) {
+            // Only the buffered steps let the organisms grow older in the store.
+            for(Organism organism : organisms) {
+                organism.unstore();
+            }
+            field.setStore(null);
+        }
+        if(tiledStep != null) {
+            tiledStep.shutdown();
+            tiledStep = null;
+        }
+        if(bufferedStep != null) {
+            bufferedStep.shutdown();
+            bufferedStep = null;
+        }
+    }
+    
+    /**
+     * Set whether plants and viruses are left dormant between the steps
+     * at which something can happen to them: a successful attempt to
+     * breed or their death of old age. Only the sequential steps wake
+     * dormant organisms, so the other kinds of steps are given up.
+     * @param scheduled Whether to leave plants and viruses dormant.
+     */
+    public void setScheduled(boolean scheduled)
+    {
+        Scheduler scheduler = field.getScheduler();
+        if(scheduled && scheduler == null) {
+            setSequential();
+            scheduler = new Scheduler();
+            scheduler.setStep(step);
+            field.setScheduler(scheduler);
+            enrolDormant();
+        }
+        else if(!scheduled && scheduler != null) {
+            OrganismPool pool = field.getPool();
+            for(Organism organism : scheduler.takeAll()) {
+                if(organism.isAlive()) {
+                    organism.leaveScheduler(step);
+                    organisms.add(organism);
+                }
+                else if(pool != null) {
+                    pool.release(organism);
+                }
+            }
+            field.setScheduler(null);
+        }
+    }
+    
+    /**
+     * Reuse dead organisms for newborn ones, keeping at most the given
+     * number of dead organisms of each species.
+     * @param capacity The largest number of dead organisms kept for a
+     *                 species, or 0 to stop pooling.
+     */
+    public void setPooling(int capacity)
+    {
+        field.setPool(capacity > 0 ? new OrganismPool(capacity) : null);
+    }
+    
+    /**
+     * Record the births, deaths, moves, feedings and infections of the
+     * following steps, e.g. in an EventLog.
+     * @param eventRecorder The recorder, or null to stop recording. A log
+     *                      is not closed when it is replaced.
+     */
+    public void setEventRecorder(EventRecorder eventRecorder)
+    {
+        field.setEventRecorder(eventRecorder);
+    }
+    
+    /**
+     * Return the recorder of the events of the simulation.
+     * @return The recorder, or null if there is none.
+     */
+    public EventRecorder getEventRecorder()
+    {
+        return field.getEventRecorder();
+    }
+    
+    /**
+     * Describe the use of the pool of dead organisms.
+     * @return The statistics of the pool, or null if there is none.
+     */
+    public String getPoolStatistics()
+    {
+        OrganismPool pool = field.getPool();
+        return pool != null ? pool.getStatistics() : null;
+    }
+    
+    /**
+     * Run the simulation from its current state for the given number of steps,
+     * without pausing between the steps.
+     * Stop before the given number of steps if it ceases to be viable.
+     * @param numSteps The number of steps to run for.
+     */
+    public void simulate(int numSteps)
+    {
+        for(int step = 1; step <= numSteps && isViable(); step++) {
+            simulateOneStep();
+        }
+    }
+    
+    /**
+     * Run the simulation from its current state for a single step.
+     * Iterate over the whole field updating the state of each
+     * organism.
+     */
+    public void simulateOneStep()
+    {
+        step++;
+        day.incrementTime();
+        EventRecorder eventRecorder = field.getEventRecorder();
+        if(eventRecorder != null) {
+            eventRecorder.setStep(step);
+        }
+
+        if(tiledStep != null) {
+            // Let the tiles act in parallel, each with a stream of its own.
+            organisms = tiledStep.step(organisms, day, Randomizer.derive(seed, step));
+        }
+        else if(bufferedStep != null) {
+            // Let the organisms act on the snapshot, then resolve their intents.
+            organisms = bufferedStep.step(organisms, day, Randomizer.derive(seed, step));
+        }
+        else {
+            Random previous = Randomizer.bind(Randomizer.stream(seed, step));
+            // Provide space for newborn organisms.
+            List<Organism> newOrganisms = new ArrayList<>();        
+            // Let all organisms act, moving the survivors down over the
+            // dead ones, so that the list is compacted in a single pass.
+            // The dead ones are collected to be pooled once the step is over.
+            List<Organism> dead = new ArrayList<>();
+            
+            // Dormant organisms whose step has come act before the others.
+            Scheduler scheduler = field.getScheduler();
+            if(scheduler != null) {
+                scheduler.setStep(step);
+                for(Organism organism : scheduler.takeDue(step)) {
+                    if(organism.isAlive()) {
+                        organism.wake(newOrganisms, day, step);
+                    }
+                    if(organism.isAlive()) {
+                        scheduler.schedule(organism);
+                    }
+                    else {
+                        dead.add(organism);
+                    }
+                }
+            }
+            
+            int size = organisms.size();
+            int survivors = 0;
+            for(int index = 0; index < size; index++) {
+                Organism organism = organisms.get(index);
+                organism.act(newOrganisms, day);
+                if(organism.isAlive()) {
+                    organisms.set(survivors++, organism);
+                }
+                else {
+                    dead.add(organism);
+                }
+            }
+            organisms.subList(survivors, size).clear();
+            OrganismPool pool = field.getPool();
+            if(pool != null) {
+                for(Organism organism : dead) {
+                    pool.release(organism);
+                }
+            }
+                   
+            // Add the newly created organisms to the main lists.
+            if(scheduler != null) {
+                for(Organism organism : newOrganisms) {
+                    if(organism.isSchedulable()) {
+                        organism.enrol(step);
+                        scheduler.schedule(organism);
+                    }
+                    else {
+                        organisms.add(organism);
+                    }
+                }
+            }
+            else {
+                organisms.addAll(newOrganisms);
+            }
+            Randomizer.bind(previous);
+        }
+        
+        stats.reset();
+        if(checkingCounts && !stats.checkCounts(field)) {
+            throw new IllegalStateException("The population counters disagree with the field at step " + step);
+        }
+        notifyObservers();
+    }
+    
+    /**
+     * Set whether the population counters kept by the field are checked
+     * against a full scan of the field after every step. The check is
+     * slow and only meant for testing.
+     * @param checking Whether to check the counters.
+     */
+    public void setCheckingCounts(boolean checking)
+    {
+        checkingCounts = checking;
+    }
+        
+    /**
+     * Reset the simulation to a starting position.
+     */
+    public void reset()
+    {
+        reset(seed);
+    }
+    
+    /**
+     * Reset the simulation to a starting position derived from a new seed.
+     * @param seed The seed of the new run.
+     */
+    public void reset(long seed)
+    {
+        this.seed = seed;
+        step = 0;
+        day.reset();
+        if(field.getStore() != null) {
+            for(Organism organism : organisms) {
+                organism.unstore();
+            }
+        }
+        organisms.clear();
+        Scheduler scheduler = field.getScheduler();
+        if(scheduler != null) {
+            scheduler.takeAll();
+            scheduler.setStep(step);
+        }
+        populate();
+        if(scheduler != null) {
+            enrolDormant();
+        }
+        
+        stats.reset();
+        notifyObservers();
+    }
+    
+    /**
+     * Determine whether the simulation should continue to run.
+     * @return true If there is more than one species alive.
+     */
+    public boolean isViable()
+    {
+        return stats.isViable(field);
+    }
+    
+    /**
+     * Get details of what is in the field.
+     * @return A string describing what is in the field.
+     */
+    public String getPopulationDetails()
+    {
+        return stats.getPopulationDetails(field);
+    }
+    
+    /**
+     * Return the current step of the simulation.
+     * @return The number of steps made since the last reset.
+     */
+    public int getStep()
+    {
+        return step;
+    }
+    
+    /**
+     * Return the seed of the current run.
+     * @return The seed from which the run is derived.
+     */
+    public long getSeed()
+    {
+        return seed;
+    }
+    
+    /**
+     * Return the current day.
+     * @return The day of the simulation.
+     */
+    public Day getDay()
+    {
+        return day;
+    }
+    
+    /**
+     * Return the field of the simulation.
+     * @return The field.
+     */
+    public Field getField()
+    {
+        return field;
+    }
+    
+    /**
+     * Return the parameters of the run.
+     * @return The parameters of the species.
+     */
+    public Parameters getParameters()
+    {
+        return field.getParameters();
+    }
+    
+    /**
+     * Return the organisms acting every step, in the order they act.
+     * Dormant organisms are kept by the scheduler of the field instead.
+     * @return The list of organisms, not to be changed.
+     */
+    List<Organism> getOrganisms()
+    {
+        return organisms;
+    }
+    
+    /**
+     * Return the tile size of the parallel steps.
+     * @return The width and depth of a tile, or 0 if the steps are not tiled.
+     */
+    int getTileSize()
+    {
+        return tiledStep != null ? tiledStep.getTileSize() : 0;
+    }
+    
+    /**
+     * Return the number of threads making the steps.
+     * @return The parallelism of the tiled or buffered steps, or 1 for sequential steps.
+     */
+    int getParallelism()
+    {
+        if(tiledStep != null) {
+            return tiledStep.getParallelism();
+        }
+        return bufferedStep != null ? bufferedStep.getParallelism() : 1;
+    }
+    
+    /**
+     * Return whether the steps are double-buffered.
+     * @return true if the steps are buffered.
+     */
+    boolean isBuffered()
+    {
+        return bufferedStep != null;
+    }
+    
+    /**
+     * Put the engine in a restored state. The organisms must already be
+     * in the field, and the steps must be sequential.
+     * @param step The step the state is at.
+     * @param day The day at the step.
+     * @param restored The organisms acting every step, in the order they act.
+     */
+    void restore(int step, Day day, List<Organism> restored)
+    {
+        this.step = step;
+        this.day = day;
+        organisms = new ArrayList<>(restored);
+        stats.reset();
+        notifyObservers();
+    }
+    
+    /**
+     * Tell all the observers about the current state.
+     */
+    private void notifyObservers()
+    {
+        for(SimulationObserver observer : observers) {
+            observer.stepCompleted(step, day, field);
+        }
+    }
+    
+    /**
+     * Move the organisms that can be left dormant from the list of
+     * organisms into the scheduler of the field.
+     */
+    private void enrolDormant()
+    {
+        Scheduler scheduler = field.getScheduler();
+        // The waking steps are drawn from a stream of their own.
+        Random previous = Randomizer.bind(Randomizer.stream(seed, step, -1));
+        int kept = 0;
+        for(Organism organism : organisms) {
+            if(organism.isAlive() && organism.isSchedulable()) {
+                organism.enrol(step);
+                scheduler.schedule(organism);
+            }
+            else {
+                organisms.set(kept++, organism);
+            }
+        }
+        organisms.subList(kept, organisms.size()).clear();
+        Randomizer.bind(previous);
+    }
+    
+    /**
+     * Randomly populate the field with organisms.
+     */
+    private void populate()
+    {
+        // The starting position draws from the stream of step 0.
+        RandomStream rand = Randomizer.stream(seed, 0);
+        Random previous = Randomizer.bind(rand);
+        // The probabilities that the species are created in any given grid position.
+        Parameters parameters = field.getParameters();
+        double foxProbability = parameters.traitsOf(Fox.class).getCreationProbability();
+        double rabbitProbability = parameters.traitsOf(Rabbit.class).getCreationProbability();
+        double wolfProbability = parameters.traitsOf(Wolf.class).getCreationProbability();
+        double mosquitoProbability = parameters.traitsOf(Mosquito.class).getCreationProbability();
+        double sheepProbability = parameters.traitsOf(Sheep.class).getCreationProbability();
+        double plantProbability = parameters.traitsOf(Plant.class).getCreationProbability();
+        double virusProbability = parameters.traitsOf(Virus.class).getCreationProbability();
+        field.clear();
+        for(int row = 0; row < field.getDepth(); row++) {
+            for(int col = 0; col < field.getWidth(); col++) {
+                int cell = field.cellIndex(row, col);
+                if(rand.nextDouble() <= foxProbability) {
+                    Fox fox = new Fox(true, field, cell, Animal.Gene.randomise());
+                    organisms.add(fox);
+                }
+                else if(rand.nextDouble() <= rabbitProbability) {
+                    Rabbit rabbit = new Rabbit(true, field, cell, Animal.Gene.randomise());
+                    organisms.add(rabbit);
+                }
+                else if(rand.nextDouble() <= wolfProbability) {
+                    Wolf wolf = new Wolf(true, field, cell, Animal.Gene.randomise());
+                    organisms.add(wolf);
+                }
+                else if(rand.nextDouble() <= mosquitoProbability) {
+                    Mosquito mosquito = new Mosquito(true, field, cell, Animal.Gene.randomise());
+                    organisms.add(mosquito);
+                }
+                else if(rand.nextDouble() <= sheepProbability) {
+                    Sheep sheep = new Sheep(true, field, cell, Animal.Gene.randomise());
+                    organisms.add(sheep);
+                }
+                else if(rand.nextDouble() <= plantProbability) {
+                    Plant plant = new Plant(true, field, cell);
+                    organisms.add(plant);
+                }
+                else if(rand.nextDouble() <= virusProbability) {
+                    Virus virus = new Virus(true, field, cell, Virus.VirusType.randomise());
+                    organisms.add(virus);
+                }
+                // else leave the location empty.
+            }
+        }
+        Randomizer.bind(previous);
+    }
+    
+    /**
+     * Run a simulation in batch mode, without a user interface,
+     * and print the population at the end.
+     * @param args The number of steps, optionally followed by
+     *             the depth and width of the field, by the
+     *             number of threads for a parallel run and by
+     *             "buffered" for a double-buffered run, "stored"
+     *             for a double-buffered run with an organism store,
+     *             or "scheduled" for a sequential run with dormant
+     *             plants and viruses.
+     */
+    public static void main(String[] args)
+    {
+        int numSteps = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int depth = args.length > 2 ? Integer.parseInt(args[1]) : DEFAULT_DEPTH;
+        int width = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_WIDTH;
+        
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        
+        SimulationEngine engine = new SimulationEngine(depth, width);
+        String mode = args.length > 4 ? args[4] : "";
+        if(mode.equals("buffered") || mode.equals("stored")) {
+            engine.setBuffered(Math.max(threads, 1), mode.equals("stored"));
+        }
+        else if(mode.equals("scheduled")) {
+            engine.setScheduled(true);
+        }
+        else if(threads > 0) {
+            engine.setParallel(PARALLEL_TILE_SIZE, threads);
+        }
+        long start = System.nanoTime();
+        engine.simulate(numSteps);
+        long elapsed = System.nanoTime() - start;
+        
+        System.out.println("Steps: " + engine.getStep());
+        System.out.println("Population: " + engine.getPopulationDetails());
+        System.out.println("Time: " + elapsed / 1000000 + " ms");
+        engine.setSequential();
+    }
+}
@@ -0,0 +1,21 @@
+/**
+ * An observer of a simulation. Observers are told about the state of
+ * the simulation after every step and after every reset, e.g. to display
+ * it or to record statistics. The simulation itself does not depend on
+ * any observer being present.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.01
+ */
+public interface SimulationObserver
+{
+    /**
+     * Receive the state of the simulation after a step has been made.
+     * After a reset, the step is zero.
+     * 
+     * @param step The step that has been completed.
+     * @param day The current day.
+     * @param field The field of the simulation.
+     */
+    void stepCompleted(int step, Day day, Field field);
+}
@@ -1,60 +1,52 @@
-import java.util.Random;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Path;
 
 /**
  * A simple predator-prey simulator, based on a rectangular field
  * containing rabbits and foxes.
+ * The simulator shows a simulation engine in a graphical view.
+ * For runs without a user interface, use SimulationEngine directly.
  * 
  * @author David J. Barnes and Michael Kölling
  *          extended by Kamil Kuzara and Hedi Gharbi
- * @version 2019.02.22
+ * @version 2019.03.01
  */
 public class Simulator
 {
-    // Constants representing configuration information for the simulation.
-    // The default width for the grid.
-    private static final int DEFAULT_WIDTH = 120;
-    // The default depth of the grid.
-    private static final int DEFAULT_DEPTH = 80;
-    // The maximum number of organisms at one location.
-    private static final int MAX_ORGANISMS_AT_LOCATION = 3;
-    // The probability that a fox will be created in any given grid position.
-    private static final double FOX_CREATION_PROBABILITY = 0.05;
-    // The probability that a wolf will be created in any given grid position.
-    private static final double WOLF_CREATION_PROBABILITY = 0.04;
-    // The probability that a mosquito will be created in any given grid position.
-    private static final double MOSQUITO_CREATION_PROBABILITY = 0.01;
-    // The probability that a rabbit will be created in any given grid position.
-    private static final double RABBIT_CREATION_PROBABILITY = 0.08;
-    // The probability that a sheep will be created in any given grid position.
-    private static final double SHEEP_CREATION_PROBABILITY = 0.05;
-    // The probability that a plant will be created in any given grid position.
-    private static final double PLANT_CREATION_PROBABILITY = 0.25;
-    // The probability that a virus will be created in any given grid position.
-    private static final double VIRUS_CREATION_PROBABILITY = 0.02;
-
-    // List of organisms in the field.
-    private List<Organism> organisms;
-    // The current state of the field.
-    private Field field;
-    // The current step of the simulation.
-    private int step;
+    // The default number of steps a second shown live.
+    private static final double DEFAULT_STEPS_PER_SECOND = 16;
+    // The number of locations from which the field is painted in parallel.
+    private static final int PARALLEL_PAINTING_SIZE = 512 * 512;
+    
+    // The engine running the simulation.
+    private SimulationEngine engine;
     // A graphical view of the simulation.
     private SimulatorView view;
-    // The current day.
-    private Day day;
     // List for maintaining the organism hierarchy.
-    private List<Class> organismHierarchy;
+    private List<Class<?>> organismHierarchy;
+    // The pacer of the run loop.
+    private Pacer pacer;
+    // The observer showing the steps of the engine in the view.
+    private SimulationObserver observer;
+    // The replay of the run, for seeking steps and stepping backwards.
+    private Replay replay;
+    // The store the run is recorded in, or null if it is not recorded.
+    private CheckpointStore recording;
+    // The number of recent snapshots kept for stepping backwards, none
+    // unless asked for, and the number of steps between them.
+    private int historySize, historyInterval;
+    // The recorder of the statistics of the steps, or null if they are not recorded.
+    private TimeSeriesRecorder timeSeries;
     
     /**
      * Construct a simulation field with default size.
      */
     public Simulator()
     {
-        this(DEFAULT_DEPTH, DEFAULT_WIDTH);
+        this(SimulationEngine.DEFAULT_DEPTH, SimulationEngine.DEFAULT_WIDTH);
     }
     
     /**
@@ -64,25 +56,18 @@ public class Simulator
      */
     public Simulator(int depth, int width)
     {
-        if(width <= 0 || depth <= 0) {
-            System.out.println("The dimensions must be greater than zero.");
-            System.out.println("Using default values.");
-            depth = DEFAULT_DEPTH;
-            width = DEFAULT_WIDTH;
-        }
-        
-        organisms = new ArrayList<>();
-        field = new Field(depth, width, MAX_ORGANISMS_AT_LOCATION);
-        day = new Day();
+        engine = new SimulationEngine(depth, width);
         
         //Create the organism hierarchy.
         organismHierarchy = new ArrayList<>();
         organismHierarchy.add(Animal.class);
         organismHierarchy.add(Plant.class);
         organismHierarchy.add(Virus.class);
+        Species.setDisplayHierarchy(organismHierarchy);
 
         // Create a view of the state of each location in the field.
-        view = new SimulatorView(depth, width);
+        Field field = engine.getField();
+        view = new SimulatorView(field.getDepth(), field.getWidth());
         view.setColor(Rabbit.class, Color.ORANGE);
         view.setColor(Fox.class, Color.BLUE);
         view.setColor(Wolf.class, Color.BLACK);
@@ -90,9 +75,21 @@ public class Simulator
         view.setColor(Sheep.class, Color.RED);
         view.setColor(Plant.class, Color.GREEN);
         view.setColor(Virus.class, Color.CYAN);
+        view.setParallelPainting(field.getDepth() * field.getWidth() >= PARALLEL_PAINTING_SIZE);
+        
+        pacer = Pacer.stepsPerSecond(DEFAULT_STEPS_PER_SECOND);
         
-        // Setup a valid starting point.
-        reset();
+        // Show the starting state in the view, and every step after it
+        // that the pacer does not skip.
+        observer = (step, day, currentField) -> {
+            if(pacer.isFrameDue()) {
+                view.showStatus(step, day, currentField);
+                view.setRateText(pacer.getStatistics());
+            }
+        };
+        engine.addObserver(observer);
+        
+        replay = new Replay(engine, null);
     }
     
     /**
@@ -111,37 +108,43 @@ public class Simulator
      */
     public void simulate(int numSteps)
     {
-        for(int step = 1; step <= numSteps && view.isViable(field); step++) {
+        pacer.start();
+        for(int step = 1; step <= numSteps && engine.isViable(); step++) {
             simulateOneStep();
-            delay(60);
+            pacer.stepDone();
+        }
+        if(pacer.isLastStepSkipped()) {
+            view.showStatus(engine.getStep(), engine.getDay(), engine.getField());
         }
+        view.setRateText(pacer.getStatistics());
+    }
+    
+    /**
+     * Set the pace of the run loop.
+     * @param pacer The pacer of the run loop, e.g. Pacer.framesPerSecond(30).
+     */
+    public void setPacer(Pacer pacer)
+    {
+        this.pacer = pacer;
+    }
+    
+    /**
+     * Return the pacer of the run loop, which reports the rates achieved.
+     * @return The pacer.
+     */
+    public Pacer getPacer()
+    {
+        return pacer;
     }
     
     /**
      * Run the simulation from its current state for a single step.
      * Iterate over the whole field updating the state of each
-     * fox and rabbit.
+     * organism.
      */
     public void simulateOneStep()
     {
-        step++;
-        day.incrementTime();
-
-        // Provide space for newborn organisms.
-        List<Organism> newOrganisms = new ArrayList<>();        
-        // Let all organisms act.
-        for(Iterator<Organism> it = organisms.iterator(); it.hasNext(); ) {
-            Organism organism = it.next();
-            organism.act(newOrganisms, day);
-            if(! organism.isAlive()) {
-                it.remove();
-            }
-        }
-               
-        // Add the newly created organisms to the main lists.
-        organisms.addAll(newOrganisms);
-
-        view.showStatus(step, day, field, organismHierarchy);
+        engine.simulateOneStep();
     }
         
     /**
@@ -149,75 +152,172 @@ public class Simulator
      */
     public void reset()
     {
-        step = 0;
-        day.reset();
-        organisms.clear();
-        populate();
-        
-        // Show the starting state in the view.
-        view.showStatus(step, day, field, organismHierarchy);
-    }
-    
-    /**
-     * Randomly populate the field with foxes and rabbits.
-     */
-    private void populate()
-    {
-        Random rand = Randomizer.getRandom();
-        field.clear();
-        for(int row = 0; row < field.getDepth(); row++) {
-            for(int col = 0; col < field.getWidth(); col++) {
-                if(rand.nextDouble() <= FOX_CREATION_PROBABILITY) {
-                    Location location = new Location(row, col);
-                    Fox fox = new Fox(true, field, location, Animal.Gene.randomise());
-                    organisms.add(fox);
-                }
-                else if(rand.nextDouble() <= RABBIT_CREATION_PROBABILITY) {
-                    Location location = new Location(row, col);
-                    Rabbit rabbit = new Rabbit(true, field, location, Animal.Gene.randomise());
-                    organisms.add(rabbit);
-                }
-                else if(rand.nextDouble() <= WOLF_CREATION_PROBABILITY) {
-                    Location location = new Location(row, col);
-                    Wolf wolf = new Wolf(true, field, location, Animal.Gene.randomise());
-                    organisms.add(wolf);
-                }
-                else if(rand.nextDouble() <= MOSQUITO_CREATION_PROBABILITY) {
-                    Location location = new Location(row, col);
-                    Mosquito mosquito = new Mosquito(true, field, location, Animal.Gene.randomise());
-                    organisms.add(mosquito);
-                }
-                else if(rand.nextDouble() <= SHEEP_CREATION_PROBABILITY) {
-                    Location location = new Location(row, col);
-                    Sheep sheep = new Sheep(true, field, location, Animal.Gene.randomise());
-                    organisms.add(sheep);
-                }
-                else if(rand.nextDouble() <= PLANT_CREATION_PROBABILITY) {
-                    Location location = new Location(row, col);
-                    Plant plant = new Plant(true, field, location);
-                    organisms.add(plant);
-                }
-                else if(rand.nextDouble() <= VIRUS_CREATION_PROBABILITY) {
-                    Location location = new Location(row, col);
-                    Virus virus = new Virus(true, field, location, Virus.VirusType.randomise());
-                    organisms.add(virus);
-                }
-                // else leave the location empty.
+        engine.reset();
+    }
+    
+    /**
+     * Save the state of the simulation in a checkpoint.
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void saveCheckpoint(Path file) throws IOException
+    {
+        Checkpoint.save(engine, file);
+    }
+    
+    /**
+     * Carry on the simulation from a checkpoint, and show its state.
+     * @param file The file to read.
+     * @throws IOException If the file cannot be read.
+     * @throws IllegalArgumentException If the field saved has another size than the view.
+     */
+    public void restoreCheckpoint(Path file) throws IOException
+    {
+        SimulationEngine restored = Checkpoint.load(file);
+        Field field = restored.getField();
+        if(field.getDepth() != engine.getField().getDepth() || field.getWidth() != engine.getField().getWidth()) {
+            restored.setSequential();
+            throw new IllegalArgumentException("The checkpoint holds a field of another size: "
+                                               + field.getDepth() + "x" + field.getWidth());
+        }
+        engine.removeObserver(observer);
+        engine.setSequential();
+        engine = restored;
+        engine.addObserver(observer);
+        replay.setEngine(engine);
+        view.showStatus(engine.getStep(), engine.getDay(), field);
+    }
+    
+    /**
+     * Record the run in a store of checkpoints, so that its steps can be
+     * sought later, also after a restart (see Replay). Any recording
+     * before is stopped.
+     * @param file The file of the store, which may hold an earlier recording of the run.
+     * @param interval The number of steps between the checkpoints.
+     * @throws IOException If the store cannot be opened.
+     */
+    public void setRecording(Path file, int interval) throws IOException
+    {
+        stopRecording();
+        recording = new CheckpointStore(file);
+        replay.detach();
+        replay = new Replay(engine, recording);
+        replay.setCheckpointInterval(interval);
+        // A reset with another seed starts another run, which is not recorded.
+        replay.setStoreDropped(store -> closeRecording());
+        if(historySize > 0) {
+            replay.setHistory(historySize, historyInterval);
+        }
+        replay.setTimeSeries(timeSeries);
+    }
+    
+    /**
+     * Stop recording the run in a store of checkpoints, if it is.
+     * @throws IOException If the store cannot be closed.
+     */
+    public void stopRecording() throws IOException
+    {
+        if(recording != null) {
+            replay.detach();
+            replay = new Replay(engine, null);
+            if(historySize > 0) {
+                replay.setHistory(historySize, historyInterval);
             }
+            replay.setTimeSeries(timeSeries);
+            closeRecording();
+        }
+    }
+    
+    /**
+     * Close the store the run is recorded in.
+     */
+    private void closeRecording()
+    {
+        try {
+            recording.close();
+        }
+        catch(IOException e) {
+            throw new IllegalStateException("Cannot close the recording " + recording, e);
+        }
+        finally {
+            recording = null;
+        }
+    }
+    
+    /**
+     * Record the statistics of the following steps in a columnar file (see
+     * TimeSeriesRecorder). Every step is recorded once: after seeking or
+     * stepping backwards, recording resumes past the last step recorded.
+     * Any recording of statistics before is closed.
+     * @param file The file to write, or null to stop recording statistics.
+     * @throws IOException If the file cannot be written.
+     */
+    public void setTimeSeries(Path file) throws IOException
+    {
+        if(timeSeries != null) {
+            timeSeries.close();
+            timeSeries = null;
+        }
+        if(file != null) {
+            timeSeries = new TimeSeriesRecorder(file);
         }
+        replay.setTimeSeries(timeSeries);
+    }
+    
+    /**
+     * Set how many recent steps can be stepped back to quickly without a
+     * recording. None can by default: every snapshot is a full checkpoint,
+     * compressed on the simulation thread, so keeping them slows every run
+     * down, the more so the larger the field. Without a snapshot or a
+     * checkpoint, a step is sought by making the run again from its start.
+     * @param snapshots The number of snapshots kept, or 0 to keep none.
+     * @param interval The number of steps between the snapshots.
+     */
+    public void setHistory(int snapshots, int interval)
+    {
+        historySize = snapshots;
+        historyInterval = interval;
+        replay.setHistory(snapshots, interval);
     }
     
     /**
-     * Pause for a given time.
-     * @param millisec  The time to pause for, in milliseconds
+     * Go to a step of the run, and show its state. The steps in between
+     * are simulated without being shown, from the nearest earlier state
+     * kept or from the start of the run.
+     * @param step The step to go to.
+     * @throws IOException If a checkpoint of the recording cannot be restored.
      */
-    private void delay(int millisec)
+    public void seek(int step) throws IOException
     {
+        engine.removeObserver(observer);
         try {
-            Thread.sleep(millisec);
+            engine = replay.seek(step);
         }
-        catch (InterruptedException ie) {
-            // wake up
+        finally {
+            engine.addObserver(observer);
         }
+        view.showStatus(engine.getStep(), engine.getDay(), engine.getField());
+    }
+    
+    /**
+     * Go back one step, and show its state.
+     * @throws IOException If there is no step before, or if a checkpoint
+     *                     of the recording cannot be restored.
+     */
+    public void stepBack() throws IOException
+    {
+        if(engine.getStep() == 0) {
+            throw new IOException("No step before the current one");
+        }
+        seek(engine.getStep() - 1);
+    }
+    
+    /**
+     * Return the engine running the simulation.
+     * @return The simulation engine.
+     */
+    public SimulationEngine getEngine()
+    {
+        return engine;
     }
 }
@@ -1,16 +1,23 @@
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.lang.reflect.InvocationTargetException;
 import javax.swing.*;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.List;
 
 /**
  * A graphical view of the simulation grid.
  * The view displays a colored rectangle for each location 
  * representing its contents. It uses a default background color.
  * Colors for each type of species can be defined using the
- * setColor method.
+ * setColor method. The field is rendered into an image with one
+ * pixel for each location, which is scaled to the view when shown.
+ *
+ * The thread running the simulation only takes a snapshot of every
+ * step shown and hands it over to a rendering thread, dropping the
+ * frames the display cannot keep up with. The rendering thread paints
+ * the snapshot into a spare image; the images are swapped and the labels
+ * set on the event dispatch thread, where all the Swing work is done.
  * 
  * @author David J. Barnes and Michael Kölling
  *          extended by Kamil Kuzara and Hedi Gharbi
@@ -27,13 +34,16 @@ public class SimulatorView extends JFrame
     private final String STEP_PREFIX = "Step: ";
     private final String DAY_STATE_PREFIX = "Day state: ";
     private final String POPULATION_PREFIX = "Population: ";
-    private JLabel stepLabel, dayStateLabel, population, infoLabel;
+    private JLabel stepLabel, dayStateLabel, population, infoLabel, rateLabel;
     private FieldView fieldView;
     
-    // A map for storing colors for participants in the simulation
-    private Map<Class, Color> colors;
+    // The renderer painting the field into the view's image, which
+    // keeps the colors for participants in the simulation
+    private FieldRenderer renderer;
     // A statistics object computing and storing simulation information
     private FieldStats stats;
+    // The hand-over of the frames to the rendering thread.
+    private RenderPipeline pipeline;
 
     /**
      * Create a view of the given width and height.
@@ -43,12 +53,13 @@ public class SimulatorView extends JFrame
     public SimulatorView(int height, int width)
     {
         stats = new FieldStats();
-        colors = new LinkedHashMap<>();
+        renderer = new FieldRenderer(EMPTY_COLOR, UNKNOWN_COLOR);
 
         setTitle("Fox and Rabbit Simulation");
         stepLabel = new JLabel(STEP_PREFIX, JLabel.CENTER);
         dayStateLabel = new JLabel(DAY_STATE_PREFIX, JLabel.CENTER);
         infoLabel = new JLabel("", JLabel.CENTER);
+        rateLabel = new JLabel("", JLabel.CENTER);
         population = new JLabel(POPULATION_PREFIX, JLabel.CENTER);
         
         setLocation(100, 50);
@@ -60,12 +71,14 @@ public class SimulatorView extends JFrame
         JPanel infoPane = new JPanel(new BorderLayout());
              infoPane.add(stepLabel, BorderLayout.WEST);
             infoPane.add(infoLabel, BorderLayout.CENTER);
+            infoPane.add(rateLabel, BorderLayout.EAST);
             
         contents.add(infoPane, BorderLayout.NORTH);
         contents.add(fieldView, BorderLayout.CENTER);
         contents.add(population, BorderLayout.SOUTH);
         pack();
         setVisible(true);
+        pipeline = new RenderPipeline("Field renderer", this::showFrame);
     }
     
     /**
@@ -75,7 +88,17 @@ public class SimulatorView extends JFrame
      */
     public void setColor(Class animalClass, Color color)
     {
-        colors.put(animalClass, color);
+        renderer.setColor(animalClass, color);
+    }
+
+    /**
+     * Set whether the rows of the field are painted in parallel,
+     * which pays off for very large fields.
+     * @param parallel true to paint in parallel.
+     */
+    public void setParallelPainting(boolean parallel)
+    {
+        renderer.setParallel(parallel);
     }
 
     /**
@@ -83,75 +106,78 @@ public class SimulatorView extends JFrame
      */
     public void setInfoText(String text)
     {
-        infoLabel.setText(text);
+        SwingUtilities.invokeLater(() -> infoLabel.setText(text));
     }
 
     /**
-     * @return The color to be used for a given class of animal.
+     * Display the rates of the run at the top right of the window.
      */
-    private Color getColor(Class animalClass)
+    public void setRateText(String text)
     {
-        Color col = colors.get(animalClass);
-        if(col == null) {
-            // no color defined for this class
-            return UNKNOWN_COLOR;
-        }
-        else {
-            return col;
-        }
+        SwingUtilities.invokeLater(() -> rateLabel.setText(text));
+    }
+
+    /**
+     * Describe the frames handed over to the rendering thread.
+     * @return A string with the numbers of frames published, shown and dropped.
+     */
+    public String getFrameStatistics()
+    {
+        return pipeline.getStatistics();
     }
 
     /**
-     * Show the current status of the field.
+     * Show the current status of the field. Only a snapshot of the field
+     * is taken here; it is shown later by the rendering thread.
      * @param step Which iteration step it is.
+     * @param day The current day.
      * @param field The field whose status is to be displayed.
      */
-    public void showStatus(int step, Day day, Field field, List<Class> organismHierarchy)
+    public void showStatus(int step, Day day, Field field)
     {
-        if(!isVisible()) {
-            setVisible(true);
-        }
-        
-        stepLabel.setText(STEP_PREFIX + step);
-        infoLabel.setText(DAY_STATE_PREFIX + day.getDayState());
         stats.reset();
-        
-        fieldView.preparePaint();
-
-        for(int row = 0; row < field.getDepth(); row++) {
-            for(int col = 0; col < field.getWidth(); col++) {
-                List<Object> organisms = field.getObjectsAt(row, col);
-                
-                // only the highest organism in the hierarchy is displayed
-                if (!organisms.isEmpty()){
-                    Organism organism = null;
-                    if(organisms.get(0) instanceof Organism){
-                        organism = (Organism) organisms.get(0); 
-                    }
-                    for(Object next : organisms){
-                        if(next instanceof Organism){
-                            Organism tmp = (Organism) next;
-                            if(tmp.isHigher(organism, organismHierarchy)){
-                                organism = tmp;
-                            }
-                            stats.incrementCount(organism.getClass());
-                        }
-                    }
-                    if(organism != null) {
-                        fieldView.drawMark(col, row, getColor(organism.getClass()));
-                    }
-                }
-                else {
-                    fieldView.drawMark(col, row, EMPTY_COLOR);
+        // Only the tiles changed since the last snapshot are looked at again.
+        pipeline.publish(renderer.snapshot(step, day, field, stats.getPopulationDetails(field)));
+    }
+
+    /**
+     * Show a frame. Called on the rendering thread, which paints the
+     * frame into the spare image and waits for the event dispatch thread
+     * to put it on screen.
+     * @param frame The frame to show.
+     */
+    private void showFrame(FrameSnapshot frame)
+    {
+        renderer.render(frame, fieldView.getSparePixels());
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                if(!isVisible()) {
+                    setVisible(true);
                 }
-            }
+                stepLabel.setText(STEP_PREFIX + frame.getStep());
+                infoLabel.setText(DAY_STATE_PREFIX + frame.getDayState());
+                population.setText(POPULATION_PREFIX + "   " + frame.getPopulationDetails());
+                fieldView.swapImages();
+                fieldView.repaint();
+            });
+        }
+        catch(InterruptedException e) {
+            // the frame is given up
+        }
+        catch(InvocationTargetException e) {
+            throw new IllegalStateException("The frame of step " + frame.getStep() + " could not be shown", e.getCause());
         }
-        stats.countFinished();
-
-        population.setText(POPULATION_PREFIX + "   " + stats.getPopulationDetails(field));
-        fieldView.repaint();
     }
 
+    /**
+     * Stop the rendering thread and close the window.
+     */
+    public void dispose()
+    {
+        pipeline.shutdown();
+        super.dispose();
+    }
+    
     /**
      * Determine whether the simulation should continue to run.
      * @return true If there is more than one species alive.
@@ -174,10 +200,11 @@ public class SimulatorView extends JFrame
         private final int GRID_VIEW_SCALING_FACTOR = 6;
 
         private int gridWidth, gridHeight;
-        private int xScale, yScale;
-        Dimension size;
-        private Graphics g;
-        private Image fieldImage;
+        // The image of the field on screen, one pixel for each location.
+        private BufferedImage fieldImage;
+        // The image the next frame is painted into, and its pixels.
+        private BufferedImage spareImage;
+        private int[] sparePixels;
 
         /**
          * Create a new FieldView component.
@@ -186,7 +213,9 @@ public class SimulatorView extends JFrame
         {
             gridHeight = height;
             gridWidth = width;
-            size = new Dimension(0, 0);
+            fieldImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            spareImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            sparePixels = pixelsOf(spareImage);
         }
 
         /**
@@ -199,52 +228,44 @@ public class SimulatorView extends JFrame
         }
 
         /**
-         * Prepare for a new round of painting. Since the component
-         * may be resized, compute the scaling factor again.
+         * Return the pixels of the spare image, row by row. Only the
+         * rendering thread paints them.
+         * @return The pixels, packed as ints.
          */
-        public void preparePaint()
+        public int[] getSparePixels()
         {
-            if(! size.equals(getSize())) {  // if the size has changed...
-                size = getSize();
-                fieldImage = fieldView.createImage(size.width, size.height);
-                g = fieldImage.getGraphics();
-
-                xScale = size.width / gridWidth;
-                if(xScale < 1) {
-                    xScale = GRID_VIEW_SCALING_FACTOR;
-                }
-                yScale = size.height / gridHeight;
-                if(yScale < 1) {
-                    yScale = GRID_VIEW_SCALING_FACTOR;
-                }
-            }
+            return sparePixels;
         }
-        
+
+        /**
+         * Put the spare image on screen, keeping the other one as the
+         * spare. Only called on the event dispatch thread, which is the
+         * only thread reading the image on screen.
+         */
+        public void swapImages()
+        {
+            BufferedImage shown = spareImage;
+            spareImage = fieldImage;
+            fieldImage = shown;
+            sparePixels = pixelsOf(spareImage);
+        }
+
         /**
-         * Paint on grid location on this field in a given color.
+         * Return the pixels of an image.
          */
-        public void drawMark(int x, int y, Color color)
+        private int[] pixelsOf(BufferedImage image)
         {
-            g.setColor(color);
-            g.fillRect(x * xScale, y * yScale, xScale-1, yScale-1);
+            return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
         }
 
         /**
-         * The field view component needs to be redisplayed. Copy the
-         * internal image to screen.
+         * The field view component needs to be redisplayed. Scale the
+         * image of the field to the component.
          */
         public void paintComponent(Graphics g)
         {
-            if(fieldImage != null) {
-                Dimension currentSize = getSize();
-                if(size.equals(currentSize)) {
-                    g.drawImage(fieldImage, 0, 0, null);
-                }
-                else {
-                    // Rescale the previous image.
-                    g.drawImage(fieldImage, 0, 0, currentSize.width, currentSize.height, null);
-                }
-            }
+            Dimension currentSize = getSize();
+            g.drawImage(fieldImage, 0, 0, currentSize.width, currentSize.height, null);
         }
     }
 }
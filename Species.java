@@ -0,0 +1,192 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Keep a register of the species in the simulation. Every species
+ * (i.e. every concrete class of organism) is given a small number,
+ * so that a set of species can be stored as the bits of an int.
+ * The species of the simulation are registered up front; other
+ * classes are registered the first time they are asked for.
+ *
+ * The register also keeps the rank in which the species are displayed.
+ * The display hierarchy lists classes from the highest down, usually
+ * categories such as Animal; a species takes the place of its nearest
+ * superclass in the list, worked out once, so that comparing the ranks
+ * of two organisms is an array lookup. A species outside the hierarchy
+ * is displayed above all the others, as it always was. Of two organisms
+ * of the same rank in a cell, the later one is displayed.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.01
+ */
+public class Species
+{
+    // The largest number of species that fit into a mask.
+    private static final int MAX_SPECIES = Integer.SIZE;
+    // The registered classes, indexed by their numbers.
+    private static final List<Class<?>> classes = new ArrayList<>();
+    // A mapping of the registered classes to their numbers.
+    private static final HashMap<Class<?>, Integer> numbers = new HashMap<>();
+    // The numbers cached with the classes, so that looking them up
+    // takes no lock once a class has been registered.
+    private static final ClassValue<Integer> cachedNumbers = new ClassValue<Integer>() {
+        protected Integer computeValue(Class<?> speciesClass)
+        {
+            return numberOf(speciesClass);
+        }
+    };
+
+    // The classes in the order in which they are displayed, the highest first.
+    private static final List<Class<?>> displayHierarchy = new ArrayList<>();
+    // The display ranks of the species, by species number; the lower the
+    // rank, the higher the species. The array is replaced whenever a rank
+    // changes, so it is read without a lock.
+    private static volatile int[] displayRanks = new int[MAX_SPECIES];
+
+    static {
+        register(Fox.class);
+        register(Wolf.class);
+        register(Mosquito.class);
+        register(Rabbit.class);
+        register(Sheep.class);
+        register(Plant.class);
+        register(Virus.class);
+    }
+
+    /**
+     * Return the bit standing for the given species in a mask.
+     * @param speciesClass The class of the species.
+     * @return A mask with only the species' bit set.
+     */
+    public static int bitOf(Class<?> speciesClass)
+    {
+        return 1 << cachedNumbers.get(speciesClass);
+    }
+
+    /**
+     * Return the number of the given species, registering
+     * the species if it is not known yet.
+     * @param speciesClass The class of the species.
+     * @return The number of the species.
+     */
+    public static synchronized int numberOf(Class<?> speciesClass)
+    {
+        Integer number = numbers.get(speciesClass);
+        if(number == null) {
+            number = register(speciesClass);
+        }
+        return number;
+    }
+
+    /**
+     * Return a mask of all the registered species that belong to the
+     * given category, e.g. all the subclasses of Prey. Since only the
+     * species known at the time of the call are included, the mask
+     * should be computed after all the species have been registered.
+     * @param category A class or interface shared by the species.
+     * @return The mask of the species in the category.
+     */
+    public static synchronized int maskOf(Class<?> category)
+    {
+        int mask = 0;
+        for(int number = 0; number < classes.size(); number++) {
+            if(category.isAssignableFrom(classes.get(number))) {
+                mask |= 1 << number;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Return the class of the species with the given number.
+     * @param number The number of the species.
+     * @return The class of the species.
+     */
+    public static synchronized Class<?> classOf(int number)
+    {
+        return classes.get(number);
+    }
+
+    /**
+     * Return the number of registered species.
+     * @return The number of species.
+     */
+    public static synchronized int count()
+    {
+        return classes.size();
+    }
+
+    /**
+     * Set the hierarchy in which the species are displayed, and work
+     * out the ranks of all the species in it.
+     * @param hierarchy The classes in the order in which they are displayed, the highest first.
+     */
+    public static synchronized void setDisplayHierarchy(List<Class<?>> hierarchy)
+    {
+        displayHierarchy.clear();
+        displayHierarchy.addAll(hierarchy);
+        int[] ranks = new int[MAX_SPECIES];
+        for(int number = 0; number < classes.size(); number++) {
+            ranks[number] = rankOf(classes.get(number));
+        }
+        displayRanks = ranks;
+    }
+
+    /**
+     * Return the display rank of the species with the given number.
+     * @param number The number of the species.
+     * @return The rank; the lower the rank, the higher the species.
+     */
+    public static int getDisplayRank(int number)
+    {
+        return displayRanks[number];
+    }
+
+    /**
+     * Return the display ranks of all the species.
+     * @return A copy of the ranks, by species number.
+     */
+    public static int[] getDisplayRanks()
+    {
+        return displayRanks.clone();
+    }
+
+    /**
+     * Work out the display rank of a class: the place of the class or of
+     * its nearest superclass in the display hierarchy, or -1, above all
+     * the places, if none of them is in it.
+     * @param speciesClass The class.
+     * @return The rank of the class.
+     */
+    private static int rankOf(Class<?> speciesClass)
+    {
+        for(Class<?> ancestor = speciesClass; ancestor != null; ancestor = ancestor.getSuperclass()) {
+            int rank = displayHierarchy.indexOf(ancestor);
+            if(rank >= 0) {
+                return rank;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Give the next free number to a class.
+     * @param speciesClass The class to register.
+     * @return The number given to the class.
+     */
+    private static int register(Class<?> speciesClass)
+    {
+        if(classes.size() == MAX_SPECIES) {
+            throw new IllegalStateException("Too many species to register " + speciesClass.getName());
+        }
+        int number = classes.size();
+        classes.add(speciesClass);
+        numbers.put(speciesClass, number);
+        int[] ranks = Arrays.copyOf(displayRanks, MAX_SPECIES);
+        ranks[number] = rankOf(speciesClass);
+        displayRanks = ranks;
+        return number;
+    }
+}
@@ -0,0 +1,148 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The intents recorded by the organisms during a buffered step.
+ * While acting, organisms only read the snapshot of the previous step;
+ * whatever they would do to other organisms - feeding on them or
+ * infecting them - is recorded here and carried out when the step is
+ * resolved. Moves and births are recorded by the organisms themselves
+ * (see Organism.setCell).
+ *
+ * The intents are kept in lanes, one for each part of the organisms
+ * acting on its own thread, so that recording needs no locking and
+ * the intents can be resolved in a fixed order.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.01
+ */
+public class StepIntents
+{
+    // The lanes of intents.
+    private List<Lane> lanes;
+    // The lane in which the current thread records its intents.
+    private ThreadLocal<Lane> current;
+
+    /**
+     * Create the intents of a buffered step.
+     * @param laneCount The number of lanes.
+     */
+    public StepIntents(int laneCount)
+    {
+        lanes = new ArrayList<>();
+        for(int lane = 0; lane < laneCount; lane++) {
+            lanes.add(new Lane());
+        }
+        current = new ThreadLocal<>();
+    }
+
+    /**
+     * Record that an animal feeds on an organism.
+     * @param feeder The animal feeding.
+     * @param food The organism it feeds on.
+     */
+    public void feed(Animal feeder, Organism food)
+    {
+        Lane lane = current.get();
+        lane.feeders.add(feeder);
+        lane.foods.add(food);
+    }
+
+    /**
+     * Record that an animal is exposed to a virus.
+     * @param animal The animal exposed.
+     * @param virusType The type of the virus.
+     */
+    public void infect(Animal animal, Virus.VirusType virusType)
+    {
+        Lane lane = current.get();
+        lane.infected.add(animal);
+        lane.infections.add(virusType);
+    }
+
+    /**
+     * Make the given lane the one in which the current thread records.
+     * @param lane The number of the lane, or -1 to stop recording.
+     */
+    public void bind(int lane)
+    {
+        if(lane >= 0) {
+            current.set(lanes.get(lane));
+        }
+        else {
+            current.remove();
+        }
+    }
+
+    /**
+     * Return the newborn organisms of a lane.
+     * @param lane The number of the lane.
+     * @return The list receiving the organisms born in the lane.
+     */
+    public List<Organism> getNewborns(int lane)
+    {
+        return lanes.get(lane).newborns;
+    }
+
+    /**
+     * Carry out the feeding, lane by lane in the order of recording.
+     * An animal only feeds if both it and its food are still alive,
+     * so the first of several predators hunting the same prey gets it.
+     */
+    public void resolveFeeding()
+    {
+        for(Lane lane : lanes) {
+            for(int index = 0; index < lane.feeders.size(); index++) {
+                Animal feeder = lane.feeders.get(index);
+                Organism food = lane.foods.get(index);
+                if(feeder.isAlive() && food.isAlive()) {
+                    feeder.eat(food);
+                }
+            }
+        }
+    }
+
+    /**
+     * Carry out the infections of the animals still alive.
+     */
+    public void resolveInfections()
+    {
+        for(Lane lane : lanes) {
+            for(int index = 0; index < lane.infected.size(); index++) {
+                Animal animal = lane.infected.get(index);
+                if(animal.isAlive()) {
+                    animal.getInfected(lane.infections.get(index));
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget all the intents and newborn organisms, ready for the next step.
+     */
+    public void clear()
+    {
+        for(Lane lane : lanes) {
+            lane.feeders.clear();
+            lane.foods.clear();
+            lane.infected.clear();
+            lane.infections.clear();
+            lane.newborns.clear();
+        }
+    }
+
+    /**
+     * The intents recorded on one thread.
+     */
+    private static class Lane
+    {
+        // The animals feeding, and the organisms they feed on.
+        private List<Animal> feeders = new ArrayList<>();
+        private List<Organism> foods = new ArrayList<>();
+        // The animals exposed to viruses, and the types of the viruses.
+        private List<Animal> infected = new ArrayList<>();
+        private List<Virus.VirusType> infections = new ArrayList<>();
+        // The organisms born in the lane.
+        private List<Organism> newborns = new ArrayList<>();
+    }
+}
@@ -0,0 +1,231 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Make the steps of a simulation in parallel. The field is split into
+ * square tiles, coloured like a chessboard with four colours, so that
+ * two tiles of the same colour never touch. An organism only looks at
+ * and changes the cells next to its own, so all the tiles of one colour
+ * can act at the same time; the colours take turns.
+ *
+ * Every tile uses its own random stream, derived from the seed of the
+ * step and the number of the tile (see Randomizer.stream). The result of a step therefore does not
+ * depend on the number of threads: a run with one thread is the sequential
+ * reference for a run with many.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.01
+ */
+public class TiledStep
+{
+    // The smallest size of a tile. Organisms reach one cell beyond their
+    // own, so tiles of the same colour must be at least two cells apart.
+    private static final int MIN_TILE_SIZE = 2;
+    // The number of colours of the tiles.
+    private static final int COLOURS = 4;
+
+    // The field split into tiles.
+    private Field field;
+    // The width and depth of a tile.
+    private int tileSize;
+    // The number of tiles down and across the field.
+    private int tileRows, tileCols;
+    // The pool of threads acting for the tiles.
+    private ForkJoinPool pool;
+    // The organisms acting in each tile during the current step.
+    private List<List<Organism>> residents;
+    // The organisms born in each tile during the current step.
+    private List<List<Organism>> newborns;
+
+    /**
+     * Prepare the parallel steps of the given field.
+     * @param field The field of the simulation.
+     * @param tileSize The width and depth of a tile, at least 2.
+     * @param parallelism The number of threads to use.
+     */
+    public TiledStep(Field field, int tileSize, int parallelism)
+    {
+        if(tileSize < MIN_TILE_SIZE) {
+            throw new IllegalArgumentException("Tiles must be at least " + MIN_TILE_SIZE + " cells wide: " + tileSize);
+        }
+        this.field = field;
+        this.tileSize = tileSize;
+        tileRows = (field.getDepth() + tileSize - 1) / tileSize;
+        tileCols = (field.getWidth() + tileSize - 1) / tileSize;
+        pool = new ForkJoinPool(parallelism);
+
+        residents = new ArrayList<>();
+        newborns = new ArrayList<>();
+        for(int tile = 0; tile < tileRows * tileCols; tile++) {
+            residents.add(new ArrayList<>());
+            newborns.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Return the width and depth of the tiles.
+     * @return The tile size.
+     */
+    public int getTileSize()
+    {
+        return tileSize;
+    }
+
+    /**
+     * Return the number of threads used.
+     * @return The parallelism of the step.
+     */
+    public int getParallelism()
+    {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Let all the organisms act once.
+     * @param organisms The organisms of the simulation, all of them alive.
+     * @param day The current day.
+     * @param seed The seed from which the generators of the tiles are derived.
+     * @return The organisms alive after the step, including the newborn ones.
+     */
+    public List<Organism> step(List<Organism> organisms, Day day, long seed)
+    {
+        for(Organism organism : organisms) {
+            residents.get(tileOf(organism.getCell())).add(organism);
+        }
+
+        for(int colour = 0; colour < COLOURS; colour++) {
+            List<TileAction> actions = new ArrayList<>();
+            for(int tile = 0; tile < tileRows * tileCols; tile++) {
+                if(colourOf(tile) == colour && !residents.get(tile).isEmpty()) {
+                    actions.add(new TileAction(tile, day, seed));
+                }
+            }
+            pool.invoke(new ColourAction(actions));
+        }
+
+        // Gather the survivors, followed by the newborn organisms.
+        List<Organism> survivors = new ArrayList<>(organisms.size());
+        OrganismPool pool = field.getPool();
+        for(List<Organism> tileResidents : residents) {
+            for(Organism organism : tileResidents) {
+                if(organism.isAlive()) {
+                    survivors.add(organism);
+                }
+                else if(pool != null) {
+                    pool.release(organism);
+                }
+            }
+            tileResidents.clear();
+        }
+        for(List<Organism> tileNewborns : newborns) {
+            survivors.addAll(tileNewborns);
+            tileNewborns.clear();
+        }
+        return survivors;
+    }
+
+    /**
+     * Stop the threads. The steps cannot be made afterwards.
+     */
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    /**
+     * Return the tile holding the given cell.
+     * @param cell The index of the cell.
+     * @return The number of the tile.
+     */
+    private int tileOf(int cell)
+    {
+        return (field.rowOf(cell) / tileSize) * tileCols + field.colOf(cell) / tileSize;
+    }
+
+    /**
+     * Return the colour of the given tile.
+     * @param tile The number of the tile.
+     * @return The colour, from 0 to 3.
+     */
+    private int colourOf(int tile)
+    {
+        return (tile / tileCols % 2) * 2 + tile % tileCols % 2;
+    }
+
+    /**
+     * The action of all the tiles of one colour.
+     */
+    private static class ColourAction extends RecursiveAction
+    {
+        // The version of the serialized form; actions are never serialized.
+        private static final long serialVersionUID = 1L;
+
+        // The actions of the tiles.
+        private List<TileAction> actions;
+
+        /**
+         * @param actions The actions of the tiles of the colour.
+         */
+        public ColourAction(List<TileAction> actions)
+        {
+            this.actions = actions;
+        }
+
+        /**
+         * Run the actions of the tiles and wait for all of them.
+         */
+        protected void compute()
+        {
+            invokeAll(actions);
+        }
+    }
+
+    /**
+     * The action of the organisms of one tile.
+     */
+    private class TileAction extends RecursiveAction
+    {
+        // The version of the serialized form; actions are never serialized.
+        private static final long serialVersionUID = 1L;
+
+        // The number of the tile.
+        private int tile;
+        // The current day.
+        private Day day;
+        // The seed of the step.
+        private long seed;
+
+        /**
+         * @param tile The number of the tile.
+         * @param day The current day.
+         * @param seed The seed of the step.
+         */
+        public TileAction(int tile, Day day, long seed)
+        {
+            this.tile = tile;
+            this.day = day;
+            this.seed = seed;
+        }
+
+        /**
+         * Let the organisms of the tile act, in the order in which
+         * they were listed.
+         */
+        protected void compute()
+        {
+            Random previous = Randomizer.bind(Randomizer.stream(seed, tile));
+            try {
+                List<Organism> tileNewborns = newborns.get(tile);
+                for(Organism organism : residents.get(tile)) {
+                    organism.act(tileNewborns, day);
+                }
+            }
+            finally {
+                Randomizer.bind(previous);
+            }
+        }
+    }
+}
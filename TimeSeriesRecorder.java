@@ -0,0 +1,564 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Record statistics of a simulation after every step in a columnar file.
+ * The statistics of a step form a row; the columns are:
+ *
+ * - the step, the day number, the time of day and the state of the day;
+ * - the population of every species;
+ * - the births and deaths of every species during the step;
+ * - the infections by every type of virus during the step;
+ * - the number of animals, and of animals carrying every gene.
+ *
+ * The rows are written in blocks. A block holds the number of its rows,
+ * the length in bytes of every column, and then the columns one after
+ * the other. Every value of a column is stored as the difference to the
+ * value before it in the block, zigzag-encoded so that small negative
+ * differences stay small, as a varint: 7 bits a byte, the high bit set
+ * in every byte but the last. Since most columns change little from one
+ * step to the next, most values take a single byte.
+ *
+ * Every step is recorded once, so the steps of the rows keep increasing:
+ * a step up to the last one recorded, such as one made again after
+ * seeking backwards or a reset, is left out. Rows follow each other step
+ * by step, as long as the recorder follows the steps made; seeking
+ * forwards through a Replay that records into this recorder does so.
+ *
+ * A range of a column is read by decoding only that column of the
+ * blocks holding the range (see Reader). The blocks written are
+ * readable even if the file is not closed.
+ *
+ * @author Kamil Kuzara and Hedi Gharbi
+ * @version 2019.03.08
+ */
+public class TimeSeriesRecorder implements SimulationObserver, EventRecorder, Closeable
+{
+    // The first bytes of a file: "ETSR".
+    private static final int MAGIC = 0x45545352;
+    // The version of the format written.
+    private static final int VERSION = 1;
+    // The largest number of rows in a block.
+    public static final int BLOCK_ROWS = 4096;
+    // The largest size of a varint of a long.
+    private static final int MAX_VARINT = 10;
+    // The mask of the animals, the species whose genes are counted.
+    private static final int ANIMAL_MASK = Species.maskOf(Animal.class);
+
+    // The channel of the file.
+    private final FileChannel channel;
+    // The names of the columns.
+    private final String[] columns;
+    // The first columns of the populations, births, deaths, infections and genes.
+    private final int populationColumn, birthColumn, deathColumn, infectionColumn, animalColumn;
+    // The rows not written yet, by column.
+    private final long[][] rows;
+    // The number of rows not written yet.
+    private int buffered;
+    // The buffer a block is encoded into.
+    private final ByteBuffer block;
+    // The births and deaths by species and the infections by virus type
+    // counted by every thread during the step, in that order.
+    private final ThreadLocal<long[]> tallies;
+    // All the tallies, to be added up after the step.
+    private final List<long[]> allTallies;
+    // The numbers of animals carrying every gene, counted after the step.
+    private final long[] carriers;
+    // The number of animals, counted after the step.
+    private long animals;
+    // The last step recorded, or -1 before the first.
+    private int lastStep;
+    // The engine recorded, or null if there is none.
+    private SimulationEngine engine;
+    // The recorder the events are passed on to, or null if there is none.
+    private EventRecorder next;
+
+    /**
+     * Create a recorder, replacing the file if it exists.
+     * @param file The file of the statistics.
+     * @throws IOException If the file cannot be written.
+     */
+    public TimeSeriesRecorder(Path file) throws IOException
+    {
+        List<String> names = new ArrayList<>(Arrays.asList("step", "day", "time", "dayState"));
+        populationColumn = names.size();
+        addColumns(names, "population.");
+        birthColumn = names.size();
+        addColumns(names, "births.");
+        deathColumn = names.size();
+        addColumns(names, "deaths.");
+        infectionColumn = names.size();
+        for(Virus.VirusType type : Virus.VirusType.values()) {
+            names.add("infections." + type);
+        }
+        animalColumn = names.size();
+        names.add("animals");
+        for(Animal.Gene gene : Animal.Gene.values()) {
+            names.add("gene." + gene);
+        }
+        columns = names.toArray(new String[0]);
+
+        rows = new long[columns.length][BLOCK_ROWS];
+        block = ByteBuffer.allocate(4 + 4 * columns.length + columns.length * BLOCK_ROWS * MAX_VARINT);
+        allTallies = new ArrayList<>();
+        tallies = ThreadLocal.withInitial(this::newTally);
+        carriers = new long[Animal.Gene.values().length];
+        lastStep = -1;
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(16 + columns.length * 256);
+        header.putInt(MAGIC).putInt(VERSION).putInt(BLOCK_ROWS).putInt(columns.length);
+        for(String name : columns) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            header.putShort((short) bytes.length).put(bytes);
+        }
+        header.flip();
+        write(header);
+    }
+
+    /**
+     * Add a column for every species.
+     * @param names The names of the columns.
+     * @param prefix The prefix of the names of the new columns.
+     */
+    private static void addColumns(List<String> names, String prefix)
+    {
+        for(int number = 0; number < Species.count(); number++) {
+            names.add(prefix + Species.classOf(number).getName());
+        }
+    }
+
+    /**
+     * Create the tally of a thread.
+     * @return The tally.
+     */
+    private long[] newTally()
+    {
+        long[] tally = new long[animalColumn - birthColumn];
+        synchronized(allTallies) {
+            allTallies.add(tally);
+        }
+        return tally;
+    }
+
+    /**
+     * Start recording a simulation, from its current step on. Steps up to
+     * the last one recorded are not recorded again. The events are still
+     * passed on to the event recorder of the simulation, if any.
+     * @param newEngine The engine of the simulation.
+     */
+    public void attach(SimulationEngine newEngine)
+    {
+        detach();
+        engine = newEngine;
+        next = engine.getEventRecorder();
+        engine.setEventRecorder(this);
+        engine.addObserver(this);
+    }
+
+    /**
+     * Stop recording the simulation, if any, giving it back its event recorder.
+     */
+    public void detach()
+    {
+        if(engine != null) {
+            engine.removeObserver(this);
+            if(engine.getEventRecorder() == this) {
+                engine.setEventRecorder(next);
+            }
+            engine = null;
+            next = null;
+        }
+    }
+
+    /**
+     * Set the step being made.
+     * @param step The step.
+     */
+    public void setStep(int step)
+    {
+        if(next != null) {
+            next.setStep(step);
+        }
+    }
+
+    /**
+     * Count an event, and pass it on.
+     * @param kind The kind of event.
+     * @param speciesBit The species of the organism.
+     * @param cell The cell of the organism.
+     * @param otherSpeciesBit The species of the other organism, or 0 if there is none.
+     * @param otherCell The other cell, or -1 if there is none.
+     * @param detail The detail of the event, or -1 if there is none.
+     */
+    public void record(EventLog.Kind kind, int speciesBit, int cell, int otherSpeciesBit, int otherCell, int detail)
+    {
+        switch(kind) {
+            case BIRTH:
+                tallies.get()[Integer.numberOfTrailingZeros(speciesBit)]++;
+                break;
+            case DEATH:
+                tallies.get()[deathColumn - birthColumn + Integer.numberOfTrailingZeros(speciesBit)]++;
+                break;
+            case INFECTION:
+                if(detail >= 0) {
+                    tallies.get()[infectionColumn - birthColumn + detail]++;
+                }
+                break;
+            default:
+                break;
+        }
+        if(next != null) {
+            next.record(kind, speciesBit, cell, otherSpeciesBit, otherCell, detail);
+        }
+    }
+
+    /**
+     * Record the statistics of a step, unless it has been recorded already.
+     * @param step The step completed.
+     * @param day The day at the step.
+     * @param field The field at the step.
+     */
+    public void stepCompleted(int step, Day day, Field field)
+    {
+        if(step <= lastStep) {
+            // The events of a step made again are not counted either.
+            synchronized(allTallies) {
+                for(long[] tally : allTallies) {
+                    Arrays.fill(tally, 0);
+                }
+            }
+            return;
+        }
+        lastStep = step;
+
+        int row = buffered;
+        rows[0][row] = step;
+        rows[1][row] = day.getDayNumber();
+        rows[2][row] = day.getTime();
+        rows[3][row] = day.getDayState().ordinal();
+        for(int number = 0; number < Species.count(); number++) {
+            rows[populationColumn + number][row] = field.getPopulation(number);
+        }
+
+        // The tallies are only counted up during a step, so they are added up
+        // and cleared now without racing the threads that own them.
+        synchronized(allTallies) {
+            for(int column = birthColumn; column < animalColumn; column++) {
+                rows[column][row] = 0;
+            }
+            for(long[] tally : allTallies) {
+                for(int index = 0; index < tally.length; index++) {
+                    rows[birthColumn + index][row] += tally[index];
+                    tally[index] = 0;
+                }
+            }
+        }
+
+        animals = 0;
+        Arrays.fill(carriers, 0);
+        boolean anyAnimals = false;
+        for(int number = 0; number < Species.count(); number++) {
+            anyAnimals |= (ANIMAL_MASK & (1 << number)) != 0 && field.getPopulation(number) > 0;
+        }
+        if(anyAnimals) {
+            field.visitAll(this::countGenes);
+        }
+        rows[animalColumn][row] = animals;
+        for(int gene = 0; gene < carriers.length; gene++) {
+            rows[animalColumn + 1 + gene][row] = carriers[gene];
+        }
+
+        buffered++;
+        if(buffered == BLOCK_ROWS) {
+            flush();
+        }
+    }
+
+    /**
+     * Count an animal and its genes.
+     * @param occupant An organism in the field.
+     * @param row The row of the organism's location.
+     * @param col The column of the organism's location.
+     */
+    private void countGenes(Organism occupant, int row, int col)
+    {
+        if(occupant instanceof Animal) {
+            Animal animal = (Animal) occupant;
+            animals++;
+            for(Animal.Gene gene : Animal.Gene.values()) {
+                if(animal.hasGene(gene)) {
+                    carriers[gene.ordinal()]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the rows recorded so far to the file, as a block.
+     */
+    public void flush()
+    {
+        if(buffered == 0) {
+            return;
+        }
+        block.clear();
+        block.putInt(buffered);
+        int lengths = block.position();
+        block.position(lengths + 4 * columns.length);
+        for(int column = 0; column < columns.length; column++) {
+            int start = block.position();
+            long previous = 0;
+            for(int row = 0; row < buffered; row++) {
+                long value = rows[column][row];
+                putVarint(block, zigzag(value - previous));
+                previous = value;
+            }
+            block.putInt(lengths + 4 * column, block.position() - start);
+        }
+        block.flip();
+        try {
+            write(block);
+        }
+        catch(IOException e) {
+            throw new IllegalStateException("Cannot write the time series", e);
+        }
+        buffered = 0;
+    }
+
+    /**
+     * Write a buffer to the end of the file.
+     * @param buffer The buffer.
+     */
+    private void write(ByteBuffer buffer) throws IOException
+    {
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Stop recording, write the rows left and close the file.
+     * @throws IOException If the file cannot be written.
+     */
+    public void close() throws IOException
+    {
+        detach();
+        flush();
+        channel.close();
+    }
+
+    /**
+     * Map a signed value to an unsigned one, small values to small values.
+     * @param value The value.
+     * @return 0 for 0, 1 for -1, 2 for 1, 3 for -2, and so on.
+     */
+    private static long zigzag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Append an unsigned value as a varint.
+     * @param buffer The buffer.
+     * @param value The value.
+     */
+    private static void putVarint(ByteBuffer buffer, long value)
+    {
+        while((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * A reader of a file of statistics. The file is mapped into memory
+     * and the positions of its blocks are found when it is opened; a
+     * range of a column is then read by decoding that column of the
+     * blocks holding the range.
+     */
+    public static class Reader implements Closeable
+    {
+        // The channel of the file.
+        private final FileChannel channel;
+        // The file as mapped into memory.
+        private final MappedByteBuffer file;
+        // The names of the columns.
+        private final String[] columns;
+        // The first row of every block, followed by the number of rows.
+        private final int[] firstRows;
+        // The position of every column of every block, by block.
+        private final int[][] positions;
+
+        /**
+         * Open a file of statistics. A block cut short, as in a file not
+         * closed, is left out.
+         * @param path The file.
+         * @throws IOException If the file cannot be read or is not a file of statistics.
+         */
+        public Reader(Path path) throws IOException
+        {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            if(channel.size() > Integer.MAX_VALUE) {
+                channel.close();
+                throw new IOException("Time series larger than 2 GB: " + path);
+            }
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(file.limit() < 16 || file.getInt(0) != MAGIC) {
+                channel.close();
+                throw new IOException("Not a time series: " + path);
+            }
+            if(file.getInt(4) != VERSION) {
+                channel.close();
+                throw new IOException("Unsupported time series version " + file.getInt(4) + ", expected " + VERSION);
+            }
+            columns = new String[file.getInt(12)];
+            file.position(16);
+            for(int column = 0; column < columns.length; column++) {
+                byte[] name = new byte[file.getShort()];
+                file.get(name);
+                columns[column] = new String(name, StandardCharsets.UTF_8);
+            }
+
+            List<Integer> starts = new ArrayList<>();
+            List<int[]> blocks = new ArrayList<>();
+            int rowCount = 0;
+            int position = file.position();
+            int headerSize = 4 + 4 * columns.length;
+            while(position + headerSize <= file.limit()) {
+                int[] columnPositions = new int[columns.length];
+                int columnPosition = position + headerSize;
+                for(int column = 0; column < columns.length; column++) {
+                    columnPositions[column] = columnPosition;
+                    columnPosition += file.getInt(position + 4 + 4 * column);
+                }
+                if(columnPosition > file.limit()) {
+                    break;
+                }
+                starts.add(rowCount);
+                blocks.add(columnPositions);
+                rowCount += file.getInt(position);
+                position = columnPosition;
+            }
+            firstRows = new int[starts.size() + 1];
+            for(int index = 0; index < starts.size(); index++) {
+                firstRows[index] = starts.get(index);
+            }
+            firstRows[starts.size()] = rowCount;
+            positions = blocks.toArray(new int[0][]);
+        }
+
+        /**
+         * Return the names of the columns.
+         * @return The names, in the order of the columns.
+         */
+        public List<String> getColumns()
+        {
+            return Arrays.asList(columns.clone());
+        }
+
+        /**
+         * Return the number of a column.
+         * @param name The name of the column.
+         * @return The number of the column.
+         * @throws IllegalArgumentException If there is no such column.
+         */
+        public int getColumn(String name)
+        {
+            for(int column = 0; column < columns.length; column++) {
+                if(columns[column].equals(name)) {
+                    return column;
+                }
+            }
+            throw new IllegalArgumentException("No column " + name);
+        }
+
+        /**
+         * Return the number of rows, i.e. of steps recorded.
+         * @return The number of rows.
+         */
+        public int getRowCount()
+        {
+            return firstRows[positions.length];
+        }
+
+        /**
+         * Read a range of a column.
+         * @param name The name of the column.
+         * @param from The first row of the range.
+         * @param to The row after the range.
+         * @return The values of the column in the range.
+         */
+        public long[] read(String name, int from, int to)
+        {
+            return read(getColumn(name), from, to);
+        }
+
+        /**
+         * Read a range of a column.
+         * @param column The number of the column.
+         * @param from The first row of the range.
+         * @param to The row after the range.
+         * @return The values of the column in the range.
+         * @throws IllegalArgumentException If the range is not within the rows.
+         */
+        public long[] read(int column, int from, int to)
+        {
+            if(from < 0 || to < from || to > getRowCount()) {
+                throw new IllegalArgumentException("Rows " + from + "-" + to + " not within 0-" + getRowCount());
+            }
+            long[] values = new long[to - from];
+            // The last block starting at or before the first row.
+            int block = Arrays.binarySearch(firstRows, 0, positions.length, from);
+            if(block < 0) {
+                block = -block - 2;
+            }
+            int row = from;
+            while(row < to) {
+                int blockRow = firstRows[block];
+                int position = positions[block][column];
+                long value = 0;
+                // The values are differences, so the block is decoded from its start.
+                while(blockRow < to && blockRow < firstRows[block + 1]) {
+                    long encoded = 0;
+                    int shift = 0;
+                    byte next;
+                    do {
+                        next = file.get(position++);
+                        encoded |= (long) (next & 0x7F) << shift;
+                        shift += 7;
+                    }
+                    while(next < 0);
+                    value += (encoded >>> 1) ^ -(encoded & 1);
+                    if(blockRow >= from) {
+                        values[blockRow - from] = value;
+                    }
+                    blockRow++;
+                }
+                row = blockRow;
+                block++;
+            }
+            return values;
+        }
+
+        /**
+         * Close the file.
+         * @throws IOException If the file cannot be closed.
+         */
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+    }
+}
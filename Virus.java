@@ -1,3 +1,4 @@
+import java.nio.ByteBuffer;
 import java.util.Random;
 import java.util.List;
 
@@ -18,21 +19,15 @@ public class Virus extends Organism
         
         public static VirusType randomise()
         {
-            Random rand = new Random();
+            Random rand = Randomizer.getRandom();
             VirusType[] types = values();
             return types[rand.nextInt(types.length)];
         }
     }
     
     // Characteristics shared by all viruses (class variables).
-    // The age at which a virus can start to spread.
-    private static final int SPREADING_AGE = 15;
-    // The age to which a virus can exist.
-    private static final int MAX_AGE = 100;
-    // The likelihood of a virus spreading.
-    private static final double SPREADING_PROBABILITY = 0.1;
-    // The maximum number of new viruses resulting from spreading.
-    private static final int MAX_SPREAD_SIZE = 2;
+    // The mask of the animals, the species a virus can infect.
+    private static final int ANIMAL_MASK = Species.maskOf(Animal.class);
     // The type of the virus.
     private VirusType type;
     
@@ -41,12 +36,12 @@ public class Virus extends Organism
      * 
      * @param randomAge Whether the plant has a random age or not.
      * @param field The field currently occupied.
-     * @param location The location within the field.
+     * @param cell The index of the cell within the field.
      * @param type The type of the virus.
      */
-    public Virus(boolean randomAge, Field field, Location location, VirusType type)
+    public Virus(boolean randomAge, Field field, int cell, VirusType type)
     {
-        super(randomAge, MAX_AGE, field, location);
+        super(randomAge, field, cell);
         
         if(randomAge)
         {
@@ -59,57 +54,60 @@ public class Virus extends Organism
     }
     
     /**
-     * This method returns the minimum age for the virus to be able to spread.
+     * Return the type of the virus.
      */
-    public int getReproductionAge()
+    public VirusType getType()
     {
-        return SPREADING_AGE;
+        return type;
     }
     
     /**
-     * This method returns the maximum age the virus can exist.
+     * Write the virus's state into a checkpoint.
+     * @param out The buffer to write to, with room for the virus.
      */
-    public int getMaxAge()
+    void writeState(ByteBuffer out)
     {
-        return MAX_AGE;
+        super.writeState(out);
+        out.put((byte) (type != null ? type.ordinal() : -1));
     }
     
     /**
-     * This method returns the likelihood of the virus's spreading.
+     * Read the virus's state back from a checkpoint.
+     * @param in The buffer to read from.
      */
-    public double getReproductionProbability()
+    void readState(ByteBuffer in)
     {
-        return SPREADING_PROBABILITY;
+        super.readState(in);
+        int ordinal = in.get();
+        type = ordinal >= 0 ? VirusType.values()[ordinal] : null;
     }
     
     /**
-     * This method returns the maximum spread number for the virus.
+     * Viruses only age and try to spread on their own, so they
+     * can be left dormant between their attempts.
+     * @return true
      */
-    public int getMaxReproductionSize()
+    boolean isSchedulable()
     {
-        return MAX_SPREAD_SIZE;
+        return true;
     }
     
     /**
-     * Return the type of the virus.
+     * Make the virus older. It may cease to exist of old age.
      */
-    public VirusType getType()
+    protected void growOlder()
     {
-        return type;
+        incrementAge(getMaxAge());
     }
     
     /**
      * This is what the virus does - it spreads around the field. 
-     * Sometimes it will cease to exist of old age.
      * 
      * @param newViruses A list to return newly created viruses.
      */
-    public void act(List<Organism> newViruses, Day day)
+    protected void live(List<Organism> newViruses, Day day)
     {
-        incrementAge(MAX_AGE);
-        if(isAlive()) {
-            spread(newViruses);
-        }
+        spread(newViruses);
     }
     
     /**
@@ -118,10 +116,7 @@ public class Virus extends Organism
      */
     private void spread(List<Organism> newViruses)
     {
-        // New viruses are created into adjacent locations.
-        // Get a list of adjacent free locations.
         Field field = getField();
-        List<Location> free = field.getFreeAdjacentLocations(getLocation(), this);
         int spreadNumber = 0;
         
         if(canBreed())
@@ -129,9 +124,18 @@ public class Virus extends Organism
             spreadNumber = breed();
         }
         
-        for(int b = 0; b < spreadNumber && free.size() > 0; b++) {
-            Location loc = free.remove(0);
-            createNew(newViruses, field, loc);
+        // New viruses are created into free adjacent locations.
+        if(spreadNumber > 0) {
+            Neighbourhood.Cursor cursor = field.cursor();
+            field.adjacentCells(getCell(), cursor);
+            while(spreadNumber > 0 && cursor.hasNext()) {
+                int cell = cursor.next();
+                if(field.isFreeFor(cell, this)) {
+                    createNew(newViruses, field, cell);
+                    logBirth(cell);
+                    spreadNumber--;
+                }
+            }
         }
     }
     
@@ -142,18 +146,33 @@ public class Virus extends Organism
      * 
      * @param newViruses A list to return newly created viruses.
      */
-    private void createNew(List<Organism> newViruses, Field field, Location location)
+    private void createNew(List<Organism> newViruses, Field field, int cell)
     {
-        Virus young = new Virus(false, field, location, type);
+        Virus young = (Virus) fromPool(field);
+        if(young != null) {
+            young.reinitialise(field, cell);
+            young.type = type;
+        }
+        else {
+            young = new Virus(false, field, cell, type);
+        }
         newViruses.add(young);
         
         // Check if there is an animal to infect at the new location
-        List<Object> organisms= getField().getObjectsAt(location);
+        if(!field.containsAny(cell, ANIMAL_MASK))
+            return;
         
-        for(Object organism : organisms)
+        StepIntents intents = field.getIntents();
+        for(int index = 0; index < field.getOccupantCount(cell); index++)
         {
+            Organism organism = field.getOccupant(cell, index);
             if(organism instanceof Animal)
-                ((Animal)organism).getInfected(type);   // infect the animal
+            {
+                if(intents != null)
+                    intents.infect((Animal)organism, type);   // infect the animal when the step is resolved
+                else
+                    ((Animal)organism).getInfected(type);   // infect the animal
+            }
         }
     }
 }
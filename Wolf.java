@@ -10,74 +10,18 @@ import java.util.List;
  */
 public class Wolf extends Predator
 {
-    // Characteristics shared by all wolves (class variables).
-    
-    // The age at which a wolves can start to breed.
-    private static final int REPRODUCTION_AGE = 15;
-    // The age to which a wolves can live.
-    private static final int MAX_AGE = 140;
-    // The likelihood of a wolves breeding.
-    private static final double REPRODUCTION_PROBABILITY = 0.14;
-    // The maximum number of births.
-    private static final int MAX_REPRODUCTION_SIZE = 2;
-    // The food value of a single prey animal. In effect, this is the
-    // number of steps a wolf can go before it has to eat again.
-    private static final int FOOD_VALUE = 11;
-    
     /**
      * Create a wolf. A wolf can be created as a new born (age zero
      * and not hungry) or with a random age and food level.
      * 
      * @param randomAge If true, the wolf will have random age and hunger level.
-     * @param MAX_AGE The maximum age of the wolf.
-     * @param FOOD_VALUE The food value of the wolf.
      * @param field The field currently occupied.
-     * @param location The location within the field.
+     * @param cell The index of the cell within the field.
      * @param geneList The genes possessed by the wolf.
      */
-    public Wolf(boolean randomAge, Field field, Location location, List<Gene> geneList)
-    {
-        super(randomAge, MAX_AGE, FOOD_VALUE, field, location, geneList);
-    }
-    
-    /**
-     * This method returns the minimum age for the wolf to be able to breed.
-     */
-    public int getReproductionAge()
-    {
-        return REPRODUCTION_AGE;
-    }
-    
-    /**
-     * This method returns the maximum age the wolf can live.
-     */
-    public int getMaxAge()
-    {
-        return MAX_AGE;
-    }
-    
-    /**
-     * This method returns the likelihood of the wolf's reproduction.
-     */
-    public double getReproductionProbability()
-    {
-        return REPRODUCTION_PROBABILITY;
-    }
-    
-    /**
-     * This method returns the maximum number of births that the wolf can give.
-     */
-    public int getMaxReproductionSize()
+    public Wolf(boolean randomAge, Field field, int cell, List<Gene> geneList)
     {
-        return MAX_REPRODUCTION_SIZE;
-    }
-    
-    /**
-     * This method returns the number of steps left for the wolf to be able to eat again.
-     */
-    public int getFoodValue()
-    {
-        return FOOD_VALUE;
+        super(randomAge, field, cell, geneList);
     }
     
     /**
@@ -85,9 +29,12 @@ public class Wolf extends Predator
      * New births will be made into free adjacent locations.
      * @param newWolves A list to return newly born wolves.
      */
-    public void giveBirth(List<Organism> newWolves, List<Gene> childrenGenes, Field field, Location location)
+    public void giveBirth(List<Organism> newWolves, List<Gene> childrenGenes, Field field, int cell)
     {
-        Wolf young = new Wolf(false, field, location, childrenGenes);
+        Animal young = recycle(field, cell, childrenGenes);
+        if(young == null) {
+            young = new Wolf(false, field, cell, childrenGenes);
+        }
         newWolves.add(young);
     }
     